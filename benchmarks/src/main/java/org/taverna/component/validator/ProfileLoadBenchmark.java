@@ -0,0 +1,69 @@
+package org.taverna.component.validator;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.File;
+import java.net.URL;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.org.taverna.ns._2012.component.profile.Profile;
+
+/**
+ * Measures how long a freshly started JVM takes to load a profile chain,
+ * reading the profiles with JAXB or with the StAX {@link ProfileReader}. Each
+ * measurement is a single shot in its own JVM, so the cost of setting up JAXB
+ * is included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class ProfileLoadBenchmark {
+	@Param({ "false", "true" })
+	public boolean jaxb;
+
+	private File dir;
+	private URL profileUrl;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		dir = File.createTempFile("validator-bench", "");
+		dir.delete();
+		URL[] urls = new SyntheticComponents(100, 10, 2, 10).writeAll(dir);
+		profileUrl = urls[1];
+		System.setProperty(Validator.BASE_PROFILE_PROPERTY,
+				urls[2].toString());
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown() {
+		System.clearProperty(Validator.BASE_PROFILE_PROPERTY);
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File f : files)
+				f.delete();
+		dir.delete();
+	}
+
+	/** Making a registry and loading a profile chain with it. */
+	@Benchmark
+	public List<Profile> coldLoad() throws Exception {
+		return new ProfileRegistry(jaxb).getProfiles(profileUrl.toString());
+	}
+}
@@ -0,0 +1,245 @@
+package org.taverna.component.validator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+
+/**
+ * Writes a synthetic ontology, component profile and t2flow component of a
+ * chosen size, so that the validator can be measured on inputs larger than
+ * any real component family without needing the network. The component is
+ * written to satisfy the profile, so that every constraint is checked in
+ * full.
+ */
+public class SyntheticComponents {
+	static final String NS = "http://example.org/synthetic#";
+	private static final String BEANS = "net.sf.taverna.t2.annotation.annotationbeans.";
+	private static final String BEANSHELL = "net.sf.taverna.t2.activities.beanshell.BeanshellActivity";
+
+	private final int ports;
+	private final int activities;
+	private final int annotations;
+	private final int ontologySize;
+	private final int classes;
+
+	/**
+	 * @param ports
+	 *            How many input ports, and how many output ports, to make.
+	 * @param activities
+	 *            How many activities to make.
+	 * @param annotations
+	 *            How many semantic annotations to put on each port and
+	 *            activity.
+	 * @param ontologySize
+	 *            How many individuals to put in the ontology.
+	 */
+	public SyntheticComponents(int ports, int activities, int annotations,
+			int ontologySize) {
+		this.ports = ports;
+		this.activities = activities;
+		this.annotations = Math.max(annotations, 1);
+		this.ontologySize = Math.max(ontologySize, 1);
+		this.classes = Math.max(this.ontologySize / 10, 1);
+	}
+
+	/** The class of the individual made by {@link #individual(int)}. */
+	private String className(int i) {
+		return "C" + (i % ontologySize % classes);
+	}
+
+	private String individual(int i) {
+		return "I" + (i % ontologySize);
+	}
+
+	public URL writeOntology(File file) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\"?>\n<rdf:RDF xmlns=\"").append(NS)
+				.append("\"\n\txmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"")
+				.append("\n\txmlns:rdfs=\"http://www.w3.org/2000/01/rdf-schema#\"")
+				.append("\n\txmlns:owl=\"http://www.w3.org/2002/07/owl#\"")
+				.append("\n\txmlns:skos=\"http://www.w3.org/2004/02/skos/core#\">\n");
+		sb.append("\t<owl:Class rdf:about=\"").append(NS).append("Root\" />\n");
+		for (int i = 0; i < classes; i++)
+			sb.append("\t<owl:Class rdf:about=\"").append(NS).append("C")
+					.append(i).append("\"><rdfs:subClassOf rdf:resource=\"")
+					.append(NS).append("Root\" /></owl:Class>\n");
+		for (int i = 0; i < annotations; i++)
+			sb.append("\t<owl:ObjectProperty rdf:about=\"").append(NS)
+					.append("p").append(i).append("\"><skos:prefLabel>property ")
+					.append(i).append("</skos:prefLabel></owl:ObjectProperty>\n");
+		for (int i = 0; i < ontologySize; i++)
+			sb.append("\t<").append(className(i)).append(" rdf:about=\"")
+					.append(NS).append("I").append(i)
+					.append("\"><skos:prefLabel>individual ").append(i)
+					.append("</skos:prefLabel></").append(className(i))
+					.append(">\n");
+		sb.append("</rdf:RDF>\n");
+		return write(file, sb);
+	}
+
+	public URL writeProfile(File file, URL ontology) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+				.append("<profile xmlns=\"http://ns.taverna.org.uk/2012/component/profile\">\n")
+				.append("\t<id>http://example.org/synthetic-profile</id>\n")
+				.append("\t<name>Synthetic</name>\n")
+				.append("\t<description>Generated for benchmarking.</description>\n")
+				.append("\t<ontology id=\"syn\">").append(ontology)
+				.append("</ontology>\n\t<component>\n");
+		for (int i = 0; i < ports; i++) {
+			sb.append("\t\t<inputPort name=\"in").append(i)
+					.append("\" maxDepth=\"1\">\n\t\t\t<annotation>Description</annotation>\n");
+			for (int j = 0; j < annotations; j++)
+				semanticConstraint(sb, j, null, className(i + j));
+			sb.append("\t\t</inputPort>\n");
+		}
+		for (int i = 0; i < ports; i++) {
+			sb.append("\t\t<outputPort name=\"out").append(i)
+					.append("\">\n\t\t\t<annotation>Example</annotation>\n");
+			for (int j = 0; j < annotations; j++)
+				semanticConstraint(sb, j, individual(i + j), null);
+			sb.append("\t\t</outputPort>\n");
+		}
+		sb.append("\t\t<activity type=\"Beanshell\" minOccurs=\"1\" maxOccurs=\"unbounded\">\n")
+				.append("\t\t\t<annotation>Description</annotation>\n");
+		semanticConstraint(sb, 0, null, "Root");
+		sb.append("\t\t</activity>\n")
+				.append("\t\t<annotation>Title</annotation>\n")
+				.append("\t\t<annotation>Author</annotation>\n")
+				.append("\t\t<annotation>Description</annotation>\n")
+				.append("\t</component>\n</profile>\n");
+		return write(file, sb);
+	}
+
+	/**
+	 * Write a profile with no constraints, to stand in for the base profile.
+	 *
+	 * @see Validator#BASE_PROFILE_PROPERTY
+	 */
+	public URL writeBaseProfile(File file) throws IOException {
+		return write(file, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<profile xmlns=\"http://ns.taverna.org.uk/2012/component/profile\">\n"
+				+ "\t<id>http://example.org/synthetic-base</id>\n"
+				+ "\t<name>Base</name>\n"
+				+ "\t<description>Empty base profile.</description>\n"
+				+ "\t<component />\n</profile>\n");
+	}
+
+	private void semanticConstraint(StringBuilder sb, int predicate,
+			String value, String clazz) {
+		sb.append("\t\t\t<semanticAnnotation ontology=\"syn\" predicate=\"")
+				.append(NS).append("p").append(predicate).append("\"");
+		if (clazz != null)
+			sb.append(" class=\"").append(NS).append(clazz).append("\"");
+		sb.append(">");
+		if (value != null)
+			sb.append(NS).append(value);
+		sb.append("</semanticAnnotation>\n");
+	}
+
+	public URL writeComponent(File file) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+				.append("<workflow xmlns=\"http://taverna.sf.net/2008/xml/t2flow\" version=\"1\" producedBy=\"taverna-2.4.0\">")
+				.append("<dataflow id=\"00000000-0000-0000-0000-000000000001\" role=\"top\"><name>Synthetic</name>\n<inputPorts>\n");
+		for (int i = 0; i < ports; i++) {
+			sb.append("<port><name>in").append(i)
+					.append("</name><depth>0</depth><granularDepth>0</granularDepth><annotations>");
+			bean(sb, "FreeTextDescription", "text", "input " + i);
+			for (int j = 0; j < annotations; j++)
+				semantic(sb, j, individual(i + j));
+			sb.append("</annotations></port>\n");
+		}
+		sb.append("</inputPorts>\n<outputPorts>\n");
+		for (int i = 0; i < ports; i++) {
+			sb.append("<port><name>out").append(i).append("</name><annotations>");
+			bean(sb, "ExampleValue", "text", "output " + i);
+			for (int j = 0; j < annotations; j++)
+				semantic(sb, j, individual(i + j));
+			sb.append("</annotations></port>\n");
+		}
+		sb.append("</outputPorts>\n<processors>\n");
+		for (int i = 0; i < activities; i++) {
+			sb.append("<processor><name>p").append(i)
+					.append("</name><inputPorts /><outputPorts /><annotations /><activities><activity><class>")
+					.append(BEANSHELL)
+					.append("</class><inputMap /><outputMap /><configBean encoding=\"xstream\"><x xmlns=\"\" /></configBean><annotations>");
+			bean(sb, "FreeTextDescription", "text", "activity " + i);
+			semantic(sb, 0, individual(i));
+			sb.append("</annotations></activity></activities><dispatchStack /><iterationStrategyStack /></processor>\n");
+		}
+		sb.append("</processors>\n<conditions /><datalinks /><annotations>");
+		bean(sb, "DescriptiveTitle", "text", "Synthetic component");
+		bean(sb, "Author", "text", "Generator");
+		bean(sb, "FreeTextDescription", "text", "Generated for benchmarking");
+		sb.append("</annotations>\n</dataflow></workflow>\n");
+		return write(file, sb);
+	}
+
+	private void semantic(StringBuilder sb, int predicate, String value) {
+		bean(sb, "SemanticAnnotation", "content", "&lt;&gt;  &lt;" + NS + "p"
+				+ predicate + "&gt;  &lt;" + NS + value + "&gt; .");
+	}
+
+	private void bean(StringBuilder sb, String beanClass, String element,
+			String text) {
+		sb.append("<annotation_chain encoding=\"xstream\"><net.sf.taverna.t2.annotation.AnnotationChainImpl xmlns=\"\">")
+				.append("<annotationAssertions><net.sf.taverna.t2.annotation.AnnotationAssertionImpl>")
+				.append("<annotationBean class=\"").append(BEANS)
+				.append(beanClass).append("\">");
+		if (beanClass.equals("SemanticAnnotation"))
+			sb.append("<mimeType>text/rdf+n3</mimeType>");
+		sb.append("<").append(element).append(">").append(text).append("</")
+				.append(element).append("></annotationBean>")
+				.append("<date>2014-03-20 12:00:00.0 UTC</date><creators /><curationEventList />")
+				.append("</net.sf.taverna.t2.annotation.AnnotationAssertionImpl></annotationAssertions>")
+				.append("</net.sf.taverna.t2.annotation.AnnotationChainImpl></annotation_chain>");
+	}
+
+	private static URL write(File file, CharSequence content)
+			throws IOException {
+		Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			w.append(content);
+		} finally {
+			w.close();
+		}
+		return file.toURI().toURL();
+	}
+
+	/**
+	 * Write a full set of synthetic documents into a directory.
+	 *
+	 * @return The component, the profile and the base profile, in that order.
+	 */
+	public URL[] writeAll(File dir) throws IOException {
+		dir.mkdirs();
+		URL ontology = writeOntology(new File(dir, "ontology.owl"));
+		URL profile = writeProfile(new File(dir, "profile.xml"), ontology);
+		URL base = writeBaseProfile(new File(dir, "base-profile.xml"));
+		URL component = writeComponent(new File(dir, "component.t2flow"));
+		return new URL[] { component, profile, base };
+	}
+
+	/**
+	 * Usage: <tt>SyntheticComponents dir [ports [activities [annotations
+	 * [ontologySize]]]]</tt>
+	 */
+	public static void main(String... args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: SyntheticComponents dir [ports "
+					+ "[activities [annotations [ontologySize]]]]");
+			System.exit(1);
+		}
+		int[] sizes = { 10, 10, 2, 1000 };
+		for (int i = 1; i < args.length && i <= sizes.length; i++)
+			sizes[i - 1] = Integer.parseInt(args[i]);
+		URL[] urls = new SyntheticComponents(sizes[0], sizes[1], sizes[2],
+				sizes[3]).writeAll(new File(args[0]));
+		for (URL url : urls)
+			System.out.println(url);
+	}
+}
@@ -0,0 +1,210 @@
+package org.taverna.component.validator;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.taverna.component.validator.CompiledProfile.ComponentAnnotationConstraint;
+import org.taverna.component.validator.CompiledProfile.Constraint;
+import org.taverna.component.validator.CompiledProfile.PortConstraint;
+import org.taverna.component.validator.CompiledProfile.SemanticConstraint;
+import org.w3c.dom.Element;
+
+import uk.org.taverna.ns._2012.component.profile.Profile;
+
+import com.hp.hpl.jena.rdf.model.RDFNode;
+
+/**
+ * Measures the main stages of validation against synthetic inputs written to
+ * a temporary directory, so that no network access is needed.
+ *
+ * @see SyntheticComponents
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ValidatorBenchmark {
+	@Param({ "10", "100" })
+	public int ports;
+	@Param({ "10", "100" })
+	public int activities;
+	@Param({ "2" })
+	public int annotations;
+	@Param({ "1000" })
+	public int ontologySize;
+
+	private File dir;
+	private URL componentUrl;
+	private URL profileUrl;
+	private Validator validator;
+	private Validator cachedValidator;
+	private Element component;
+	private List<Profile> profiles;
+	private CompiledProfile compiled;
+	private ComponentModel model;
+	private ComponentIndex index;
+	private Validator batchValidator;
+	private List<String> rdf;
+	private List<Constraint> semanticConstraints;
+	private List<RDFNode> individuals;
+	private OntologyIndex ontology;
+	private int classId;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		dir = File.createTempFile("validator-bench", "");
+		dir.delete();
+		URL[] urls = new SyntheticComponents(ports, activities, annotations,
+				ontologySize).writeAll(dir);
+		componentUrl = urls[0];
+		profileUrl = urls[1];
+		System.setProperty(Validator.BASE_PROFILE_PROPERTY,
+				urls[2].toString());
+
+		// Otherwise the shared model cache turns loading into lookups
+		validator = new Validator();
+		validator.setOntologyModelCache(null);
+		cachedValidator = new Validator();
+		cachedValidator.setOntologyModelCache(new OntologyModelCache(
+				OntologyModelCache.DEFAULT_MAX_TRIPLES));
+		component = validator.loadComponent(componentUrl);
+		profiles = validator.getProfiles(profileUrl.toString());
+		compiled = validator.compile(profiles);
+		model = validator.readComponent(componentUrl);
+		index = new ComponentIndex(model);
+		batchValidator = new Validator();
+		batchValidator.setBatchSemantics(true);
+
+		rdf = new ArrayList<String>();
+		for (ComponentModel.Port p : model.getInputPorts())
+			for (String content : p.getAnnotations().contents(
+					Validator.ANNOTATION_BEAN))
+				rdf.add(content);
+
+		semanticConstraints = new ArrayList<Constraint>();
+		for (Constraint c : compiled.getConstraints())
+			if (!(c instanceof ComponentAnnotationConstraint))
+				semanticConstraints.add(c);
+
+		SemanticConstraint sc = firstClassConstraint();
+		ontology = sc.ontology;
+		classId = sc.classId;
+		individuals = new ArrayList<RDFNode>();
+		for (int i = 0; i < ontologySize; i++)
+			individuals.add(ontology.getModel().getResource(
+					SyntheticComponents.NS + "I" + i));
+	}
+
+	private SemanticConstraint firstClassConstraint() {
+		for (Constraint c : compiled.getConstraints())
+			if (c instanceof PortConstraint)
+				for (SemanticConstraint sc : ((PortConstraint) c).semantics)
+					if (sc.clazz != null)
+						return sc;
+		throw new IllegalStateException("no class constraint generated");
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown() {
+		System.clearProperty(Validator.BASE_PROFILE_PROPERTY);
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File f : files)
+				f.delete();
+		dir.delete();
+	}
+
+	/** Loading ontologies, compiling the profiles and checking. */
+	@Benchmark
+	public List<Assertion> validateElement() throws Exception {
+		return validator.validate(component, profiles);
+	}
+
+	/** Checking a component against an already compiled profile. */
+	@Benchmark
+	public List<Assertion> validateCompiled() throws Exception {
+		return validator.validate(component, compiled);
+	}
+
+	/** The whole run, from URLs to assertions. */
+	@Benchmark
+	public List<Assertion> validateUrls() throws Exception {
+		return validator.validate(componentUrl, profileUrl);
+	}
+
+	@Benchmark
+	public List<Profile> getProfiles() throws Exception {
+		return validator.getProfiles(profileUrl.toString());
+	}
+
+	/** Loading and indexing the ontologies. */
+	@Benchmark
+	public CompiledProfile loadOntology() throws Exception {
+		return validator.compile(profiles);
+	}
+
+	/** Compiling the profiles with the ontologies already loaded. */
+	@Benchmark
+	public CompiledProfile loadOntologyCached() throws Exception {
+		return cachedValidator.compile(profiles);
+	}
+
+	/** Parsing annotation RDF without the annotation cache. */
+	@Benchmark
+	public void parseRDF(Blackhole bh) {
+		for (String content : rdf)
+			bh.consume(AnnotationCache.parse(content));
+	}
+
+	/** Parsing annotation RDF through the annotation cache. */
+	@Benchmark
+	public void parseRDFCached(Blackhole bh) {
+		AnnotationCache cache = validator.getAnnotationCache();
+		for (String content : rdf)
+			bh.consume(cache.get(content));
+	}
+
+	/** Checking only the constraints that involve semantic annotations. */
+	@Benchmark
+	public void satisfy(Blackhole bh) {
+		for (Constraint c : semanticConstraints)
+			bh.consume(c.check(validator, index));
+	}
+
+	/**
+	 * Checking the same constraints with all the annotations of the component
+	 * parsed together, starting afresh each time.
+	 */
+	@Benchmark
+	public void satisfyBatch(Blackhole bh) {
+		ComponentIndex fresh = new ComponentIndex(model);
+		for (Constraint c : semanticConstraints)
+			bh.consume(c.check(batchValidator, fresh));
+	}
+
+	@Benchmark
+	public void isInClass(Blackhole bh) {
+		for (RDFNode node : individuals)
+			bh.consume(ontology.isInClass(node, classId));
+	}
+}
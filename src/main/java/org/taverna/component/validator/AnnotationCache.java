@@ -0,0 +1,179 @@
+package org.taverna.component.validator;
+
+import static com.hp.hpl.jena.rdf.model.ModelFactory.createOntologyModel;
+import static java.lang.String.format;
+import static java.util.UUID.randomUUID;
+
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.hp.hpl.jena.ontology.OntModel;
+
+/**
+ * A bounded cache of parsed semantic annotations, keyed by a hash of their
+ * text. The same annotation often appears many times in one component, and
+ * across the members of a component family, so this avoids re-parsing it.
+ * When either the number of entries or their total size (in characters of
+ * source text) exceeds its limit, the least recently used entries are
+ * discarded. One cache may be shared by several validators.
+ * <p>
+ * The models handed out are shared. Callers must not modify them, and must
+ * hold a lock on a model while querying it, as the reasoner that sits behind
+ * it is not thread-safe.
+ */
+public class AnnotationCache {
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+	public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+	static final String BASE = format("widget://%s/", randomUUID());
+
+	private final int maxEntries;
+	private final long maxSize;
+	private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16,
+			0.75f, true);
+	private long size;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public AnnotationCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * @param maxEntries
+	 *            The maximum number of parsed annotations to keep. Zero
+	 *            disables caching.
+	 * @param maxSize
+	 *            The maximum total length of the annotations to keep.
+	 */
+	public AnnotationCache(int maxEntries, long maxSize) {
+		this.maxEntries = maxEntries;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Get the parsed form of some annotation text.
+	 *
+	 * @param rdf
+	 *            The annotation, in Turtle.
+	 * @return The parsed model. Not to be modified.
+	 */
+	public OntModel get(String rdf) {
+		if (maxEntries <= 0) {
+			misses.incrementAndGet();
+			return parse(rdf);
+		}
+		Key key = new Key(rdf);
+		synchronized (entries) {
+			Entry e = entries.get(key);
+			if (e != null) {
+				hits.incrementAndGet();
+				return e.model;
+			}
+		}
+		misses.incrementAndGet();
+		/*
+		 * Parse outside the lock; if two threads race to parse the same text,
+		 * the results are equivalent and either will do.
+		 */
+		OntModel model = parse(rdf);
+		if (rdf.length() > maxSize)
+			return model;
+		synchronized (entries) {
+			if (entries.put(key, new Entry(model, rdf.length())) == null)
+				size += rdf.length();
+			Iterator<Entry> it = entries.values().iterator();
+			while ((entries.size() > maxEntries || size > maxSize)
+					&& it.hasNext()) {
+				size -= it.next().size;
+				it.remove();
+				evictions.incrementAndGet();
+			}
+		}
+		return model;
+	}
+
+	static OntModel parse(String rdf) {
+		OntModel local = createOntologyModel();
+		local.read(new StringReader(rdf), BASE, Validator.ENCODING);
+		return local;
+	}
+
+	/** Discard all cached annotations. */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+			size = 0;
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "AnnotationCache[entries=" + size() + ", hits=" + getHits()
+				+ ", misses=" + getMisses() + ", evictions=" + getEvictions()
+				+ "]";
+	}
+
+	private static class Entry {
+		final OntModel model;
+		final int size;
+
+		Entry(OntModel model, int size) {
+			this.model = model;
+			this.size = size;
+		}
+	}
+
+	/** The SHA-256 digest of some text. */
+	private static class Key {
+		private final byte[] digest;
+		private final int hash;
+
+		Key(String content) {
+			try {
+				digest = MessageDigest.getInstance("SHA-256").digest(
+						content.getBytes("UTF-8"));
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("SHA-256 not supported", e);
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException("UTF-8 not supported", e);
+			}
+			hash = Arrays.hashCode(digest);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && Arrays.equals(digest, ((Key) o).digest);
+		}
+	}
+}
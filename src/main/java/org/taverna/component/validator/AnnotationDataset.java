@@ -0,0 +1,215 @@
+package org.taverna.component.validator;
+
+import static com.hp.hpl.jena.rdf.model.ModelFactory.createDefaultModel;
+import static com.hp.hpl.jena.vocabulary.RDF.type;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.taverna.component.validator.CompiledProfile.SemanticConstraint;
+import org.taverna.component.validator.ComponentModel.Activity;
+import org.taverna.component.validator.ComponentModel.Port;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+
+/**
+ * The semantic annotations of every part of a component, parsed together
+ * into one set of quads: each distinct annotation is a named graph, and the
+ * statements of all the graphs are indexed by predicate. A semantic
+ * constraint is evaluated against all the graphs at once, in one pass over
+ * the statements with its predicate, giving the set of graphs that satisfy
+ * it; the outcome is kept, so each constraint is evaluated only once per
+ * component however many ports or activities it is checked against.
+ * <p>
+ * Unlike the models in the {@link AnnotationCache}, the graphs have no
+ * reasoner behind them: an individual is in a class if the same annotation
+ * says so with <tt>rdf:type</tt>, or if the constraint's ontology says so.
+ * Instances may be shared between threads.
+ */
+class AnnotationDataset {
+	private final Map<String, Integer> graphs = new HashMap<String, Integer>();
+	private final Map<Integer, RuntimeException> failures = new HashMap<Integer, RuntimeException>();
+	private final Map<String, List<Quad>> byPredicate = new HashMap<String, List<Quad>>();
+	/** For each class, the graphs that say that each individual is in it. */
+	private final Map<String, Map<RDFNode, BitSet>> types = new HashMap<String, Map<RDFNode, BitSet>>();
+	private final Map<SemanticConstraint, Evaluation> evaluations = new ConcurrentHashMap<SemanticConstraint, Evaluation>();
+
+	/** Parse the semantic annotations of all the parts of a component. */
+	AnnotationDataset(ComponentModel component) {
+		add(component.getAnnotations().content(Validator.ANNOTATION_BEAN));
+		for (Port p : component.getInputPorts())
+			add(p.getAnnotations().content(Validator.ANNOTATION_BEAN));
+		for (Port p : component.getOutputPorts())
+			add(p.getAnnotations().content(Validator.ANNOTATION_BEAN));
+		for (Activity a : component.getActivities())
+			add(a.getAnnotations().content(Validator.ANNOTATION_BEAN));
+	}
+
+	private void add(String rdf) {
+		if (rdf == null || graphs.containsKey(rdf))
+			return;
+		int graph = graphs.size();
+		graphs.put(rdf, graph);
+		Model model = createDefaultModel();
+		try {
+			model.read(new StringReader(rdf), AnnotationCache.BASE,
+					Validator.ENCODING);
+		} catch (RuntimeException e) {
+			// Only an error if the annotation is ever looked at
+			failures.put(graph, e);
+			return;
+		}
+		StmtIterator it = model.listStatements();
+		try {
+			while (it.hasNext()) {
+				Statement s = it.next();
+				String predicate = s.getPredicate().getURI();
+				List<Quad> quads = byPredicate.get(predicate);
+				if (quads == null) {
+					quads = new ArrayList<Quad>();
+					byPredicate.put(predicate, quads);
+				}
+				quads.add(new Quad(graph, s.getObject()));
+				if (s.getPredicate().equals(type)
+						&& s.getObject().isURIResource())
+					typed(s.getObject().asResource().getURI(),
+							s.getSubject(), graph);
+			}
+		} finally {
+			it.close();
+		}
+	}
+
+	private void typed(String clazz, RDFNode individual, int graph) {
+		Map<RDFNode, BitSet> individuals = types.get(clazz);
+		if (individuals == null) {
+			individuals = new HashMap<RDFNode, BitSet>();
+			types.put(clazz, individuals);
+		}
+		BitSet in = individuals.get(individual);
+		if (in == null) {
+			in = new BitSet();
+			individuals.put(individual, in);
+		}
+		in.set(graph);
+	}
+
+	/**
+	 * The graph of an annotation of the component.
+	 *
+	 * @param rdf
+	 *            The content of the annotation, as given by
+	 *            {@link ComponentModel.Annotations#content(String)}.
+	 * @throws RuntimeException
+	 *             If the annotation could not be parsed.
+	 */
+	Graph graph(String rdf) {
+		Integer graph = graphs.get(rdf);
+		if (graph == null)
+			throw new IllegalArgumentException(
+					"annotation is not part of this component");
+		RuntimeException failure = failures.get(graph);
+		if (failure != null)
+			throw failure;
+		return new DatasetGraph(graph);
+	}
+
+	private Evaluation evaluate(SemanticConstraint constraint) {
+		// Racing threads may both evaluate it; they get equal results
+		Evaluation e = evaluations.get(constraint);
+		if (e == null) {
+			e = new Evaluation(constraint);
+			evaluations.put(constraint, e);
+		}
+		return e;
+	}
+
+	/** The semantic annotation of one part of a component. */
+	interface Graph {
+		/**
+		 * Whether the annotation has a statement with the constraint's
+		 * predicate, whose object is the constraint's value or is in its
+		 * class.
+		 */
+		boolean satisfies(SemanticConstraint constraint);
+
+		/**
+		 * How many statements the annotation has with the constraint's
+		 * predicate and value.
+		 */
+		int count(SemanticConstraint constraint);
+	}
+
+	private class DatasetGraph implements Graph {
+		private final int graph;
+
+		DatasetGraph(int graph) {
+			this.graph = graph;
+		}
+
+		@Override
+		public boolean satisfies(SemanticConstraint constraint) {
+			return evaluate(constraint).satisfying.get(graph);
+		}
+
+		@Override
+		public int count(SemanticConstraint constraint) {
+			Integer n = evaluate(constraint).counts.get(graph);
+			return n == null ? 0 : n;
+		}
+	}
+
+	/** A statement, reduced to the parts that constraints look at. */
+	private static class Quad {
+		final int graph;
+		final RDFNode object;
+
+		Quad(int graph, RDFNode object) {
+			this.graph = graph;
+			this.object = object;
+		}
+	}
+
+	/** The outcome of one constraint against every graph. */
+	private class Evaluation {
+		final BitSet satisfying = new BitSet();
+		final Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+
+		Evaluation(SemanticConstraint constraint) {
+			List<Quad> quads = byPredicate.get(constraint.predicate.getURI());
+			if (quads == null)
+				return;
+			for (Quad q : quads) {
+				if (constraint.value != null
+						&& !constraint.value.equals(q.object))
+					continue;
+				Integer n = counts.get(q.graph);
+				counts.put(q.graph, n == null ? 1 : n + 1);
+				if (constraint.value != null || constraint.clazz == null
+						|| isInClass(q, constraint))
+					satisfying.set(q.graph);
+			}
+		}
+
+		private boolean isInClass(Quad q, SemanticConstraint constraint) {
+			if (q.object.isLiteral())
+				return constraint.clazz.equals(q.object.asLiteral()
+						.getDatatypeURI());
+			Map<RDFNode, BitSet> individuals = types.get(constraint.clazz);
+			if (individuals != null) {
+				BitSet in = individuals.get(q.object);
+				if (in != null && in.get(q.graph))
+					return true;
+			}
+			return constraint.ontology.isInClass(q.object, constraint.classId);
+		}
+	}
+}
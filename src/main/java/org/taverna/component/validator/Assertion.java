@@ -1,35 +1,113 @@
 package org.taverna.component.validator;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableList;
+
+import java.util.List;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * Something the validator found out about a component. The text is only
+ * formatted when it is first asked for, so that reporters that only count
+ * assertions do not pay for building messages.
+ */
 public abstract class Assertion {
-	Assertion(boolean isSatisified, boolean isWarning, String message) {
+	Assertion(boolean isSatisified, boolean isWarning,
+			@Nullable AssertionCode code, String template, Object[] args) {
 		this.satisfied = isSatisified;
 		this.warning = isWarning;
-		this.text = message;
+		this.code = code;
+		this.template = template;
+		this.args = args;
 	}
 
-	public final String text;
 	public final boolean satisfied;
 	public final boolean warning;
+	private final AssertionCode code;
+	private final String template;
+	private final Object[] args;
+	private String text;
+	private String constraint;
+
+	/**
+	 * What kind of assertion this is, or <tt>null</tt> if it was not made by
+	 * the validator itself.
+	 */
+	@Nullable
+	public AssertionCode getCode() {
+		return code;
+	}
+
+	/**
+	 * Which constraint of which profile this is about, or <tt>null</tt> if it
+	 * is not about a constraint, as when the component cannot be read.
+	 */
+	@Nullable
+	public String getConstraint() {
+		return constraint;
+	}
+
+	/** Set by the constraint that made the assertion. */
+	void setConstraint(@Nullable String constraint) {
+		this.constraint = constraint;
+	}
+
+	/** The format of the text. */
+	public String getTemplate() {
+		return template;
+	}
+
+	/** The values that are substituted into the template. */
+	public List<Object> getArguments() {
+		return unmodifiableList(asList(args));
+	}
+
+	/** The human-readable text of the assertion. */
+	public String getText() {
+		// Racing threads may both format it; they get equal strings
+		String t = text;
+		if (t == null)
+			text = t = String.format(template, args);
+		return t;
+	}
+
+	@Override
+	public String toString() {
+		return getText();
+	}
 
 	public static class Fail extends Assertion {
 		public Fail(String message, Object... args) {
-			super(false, false, String.format(message, args));
+			super(false, false, null, message, args);
+		}
+
+		public Fail(AssertionCode code, Object... args) {
+			super(false, false, code, code.getTemplate(), args);
 		}
 	}
 
 	public static class Pass extends Assertion {
 		public Pass(String message, Object... args) {
-			this(false, message, args);
+			super(true, false, null, message, args);
+		}
+
+		public Pass(AssertionCode code, Object... args) {
+			super(true, false, code, code.getTemplate(), args);
 		}
 
-		Pass(boolean warn, String message, Object... args) {
-			super(true, warn, String.format(message, args));
+		Pass(boolean warn, AssertionCode code, String message, Object... args) {
+			super(true, warn, code, message, args);
 		}
 	}
 
 	public static class Warn extends Pass {
 		public Warn(String message, Object... args) {
-			super(true, message, args);
+			super(true, null, message, args);
+		}
+
+		public Warn(AssertionCode code, Object... args) {
+			super(true, code, code.getTemplate(), args);
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,58 @@
+package org.taverna.component.validator;
+
+/**
+ * The kinds of assertion that the validator makes. Each has a stable name,
+ * for programs that consume validation results, and a template for the
+ * human-readable text.
+ */
+public enum AssertionCode {
+	COMPONENT_ANNOTATION_FOUND("found %s for component"),
+	COMPONENT_ANNOTATION_MISSING("no %s for component"),
+	COMPONENT_SEMANTIC_UNCHECKABLE(
+			"no component-level semantic annotations; cannot check for '%s'"),
+	COMPONENT_SEMANTIC_FAILED(
+			"failed to satisfy '%s' annotation at component level"),
+	COMPONENT_SEMANTIC_FOUND("found '%s' annotation at component level"),
+	COMPONENT_SEMANTIC_TOO_FEW(
+			"too few '%s' annotations at component level: %d instead of %s"),
+	COMPONENT_SEMANTIC_TOO_MANY(
+			"too many '%s' annotations at component level: %d instead of %s"),
+	COMPONENT_SEMANTIC_IN_RANGE(
+			"%d '%s' annotations at component level: in range %s to %s"),
+	PORT_MISSING("no %s port called '%s'"),
+	PORT_OPTIONAL_ABSENT("%s port '%s' is optional and absent"),
+	PORT_FOUND("found %s port called '%s'"),
+	PORT_SEMANTIC_ABSENT("no semantic annotation present for %s port '%s'"),
+	PORT_SEMANTIC_SATISFIED(
+			"satisfied semantic annotation for property '%s' on %s port '%s'"),
+	PORT_SEMANTIC_FAILED(
+			"failed semantic annotation for property '%s' on %s port '%s'"),
+	PORT_NONE_SELECTED("no %s port matches semantic constraints"),
+	PORT_ANNOTATION_MISSING("%s port '%s' lacks %s annotation"),
+	PORT_ANNOTATION_FOUND("%s port '%s' has %s annotation"),
+	PORT_DEPTH_UNKNOWN("no depth information for port '%s'"),
+	PORT_TOO_SHALLOW("%s port '%s' is too shallow: %d instead of %s"),
+	PORT_TOO_DEEP("%s port '%s' is too deep: %d instead of %s"),
+	PORT_DEPTH_IN_RANGE("%s port '%s' depth is in permitted range"),
+	ABSENT_PORT_DEPTH_IGNORED("ignoring depth constraints"),
+	ABSENT_PORT_ANNOTATION_IGNORED("ignoring %s requirement"),
+	ACTIVITY_TOO_FEW(
+			"not enough %sactivities in component to satisfy minimum (%s)"),
+	ACTIVITY_TOO_MANY("too many %sactivities to satisfy maximum (%s)"),
+	ACTIVITY_NONE_SELECTED("no %sactivity satisfies semantic constraints"),
+	ACTIVITY_ANNOTATION_MISSING("no %s for %sactivity in component"),
+	ACTIVITY_CONFIRMED(
+			"confirmed semantic and cardinality constraints for %sactivity(s)"),
+	COMPONENT_UNREADABLE("failed to read component: %s");
+
+	private final String template;
+
+	private AssertionCode(String template) {
+		this.template = template;
+	}
+
+	/** The {@link String#format(String, Object...) format} of the text. */
+	public String getTemplate() {
+		return template;
+	}
+}
@@ -0,0 +1,15 @@
+package org.taverna.component.validator;
+
+/**
+ * Receives assertions as the validator makes them, rather than all at once
+ * when validation is complete.
+ *
+ * @see Validator#validate(ComponentModel, CompiledProfile, AssertionListener)
+ */
+public interface AssertionListener {
+	/**
+	 * Called for each assertion as it is made, in the same order that they
+	 * would appear in the list of assertions from a complete validation.
+	 */
+	void assertion(Assertion assertion);
+}
@@ -2,12 +2,30 @@ package org.taverna.component.validator;
 
 import static java.lang.System.out;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-public abstract class AssertionReporter {
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * Reports the outcome of validation. A reporter may be given the assertions
+ * all at once, or as a listener that is then told when validation is
+ * finished; by default, it collects the assertions and reports them all when
+ * validation is finished.
+ */
+public abstract class AssertionReporter implements AssertionListener {
+	private final List<Assertion> received = new ArrayList<Assertion>();
+	private final Map<String, List<Assertion>> components = new LinkedHashMap<String, List<Assertion>>();
+
 	public boolean reportAssertions(List<Assertion> assertions) {
 		int sat = 0;
 		for (Assertion a : assertions)
@@ -16,6 +34,74 @@ public abstract class AssertionReporter {
 		return sat == assertions.size();
 	}
 
+	@Override
+	public void assertion(Assertion assertion) {
+		received.add(assertion);
+	}
+
+	/**
+	 * Report on the assertions passed to {@link #assertion(Assertion)}.
+	 *
+	 * @return Whether they were all satisfied.
+	 */
+	public boolean finish() {
+		return reportAssertions(received);
+	}
+
+	/**
+	 * Report on several components at once, such as the contents of an
+	 * archive.
+	 *
+	 * @param components
+	 *            The assertions about each component, keyed by its name.
+	 * @return Whether they were all satisfied.
+	 */
+	public boolean reportComponents(Map<String, List<Assertion>> components) {
+		boolean satisfied = true;
+		for (List<Assertion> assertions : components.values())
+			for (Assertion a : assertions)
+				if (!a.satisfied)
+					satisfied = false;
+		return satisfied;
+	}
+
+	/**
+	 * Be told about one of several components as soon as it has been
+	 * validated. By default, the assertions are kept until
+	 * {@link #finishComponents()}.
+	 *
+	 * @param name
+	 *            The name of the component.
+	 * @param assertions
+	 *            The assertions about it.
+	 */
+	public void component(String name, List<Assertion> assertions) {
+		components.put(name, assertions);
+	}
+
+	/**
+	 * Report on the components passed to
+	 * {@link #component(String, List)}.
+	 *
+	 * @return Whether they were all satisfied.
+	 */
+	public boolean finishComponents() {
+		return reportComponents(components);
+	}
+
+	/**
+	 * Forget everything reported so far, so that the next report covers only
+	 * what the reporter is told about after this.
+	 */
+	public void reset() {
+		received.clear();
+		components.clear();
+	}
+
+	private static String type(Assertion a) {
+		return !a.satisfied ? "failed" : a.warning ? "warning" : "satisfied";
+	}
+
 	public static class StdoutReporter extends AssertionReporter {
 		@Override
 		public boolean reportAssertions(List<Assertion> assertions) {
@@ -32,46 +118,322 @@ public abstract class AssertionReporter {
 			out.println("");
 			for (Assertion a : assertions)
 				if (!a.satisfied)
-					out.println("[N] " + a.text);
+					out.println("[N] " + a.getText());
 			for (Assertion a : assertions)
 				if (a.satisfied && a.warning)
-					out.println("[w] " + a.text);
+					out.println("[w] " + a.getText());
 			for (Assertion a : assertions)
 				if (a.satisfied && !a.warning)
-					out.println("[Y] " + a.text);
+					out.println("[Y] " + a.getText());
+			return satisfied;
+		}
+
+		@Override
+		public boolean reportComponents(Map<String, List<Assertion>> components) {
+			boolean satisfied = true;
+			for (Map.Entry<String, List<Assertion>> e : components.entrySet()) {
+				out.println("== " + e.getKey() + " ==");
+				if (!reportAssertions(e.getValue()))
+					satisfied = false;
+				out.println("");
+			}
 			return satisfied;
 		}
 	}
 
 	public static class JSONReporter extends AssertionReporter {
+		private ValidationMetrics timings;
+
+		/**
+		 * Add the timings of the phases of validation to the report, as its
+		 * <tt>timings</tt> member.
+		 */
+		public void setTimings(ValidationMetrics timings) {
+			this.timings = timings;
+		}
+
 		@Override
 		public boolean reportAssertions(List<Assertion> assertions) {
 			boolean sat = super.reportAssertions(assertions);
+			JSONObject report = toJSON(assertions);
+			if (timings != null)
+				report.put("timings", timings.toJSON());
+			out.println(report);
+			return sat;
+		}
+
+		/**
+		 * Prints a single JSON document with the report on each component in
+		 * its <tt>components</tt> member, keyed by name.
+		 */
+		@Override
+		public boolean reportComponents(Map<String, List<Assertion>> components) {
+			boolean sat = super.reportComponents(components);
+			JSONObject reports = new JSONObject();
+			for (Map.Entry<String, List<Assertion>> e : components.entrySet())
+				reports.put(e.getKey(), toJSON(e.getValue()));
+			JSONObject report = new JSONObject().put("allSatisfied", sat)
+					.put("components", reports);
+			if (timings != null)
+				report.put("timings", timings.toJSON());
+			out.println(report);
+			return sat;
+		}
+
+		/** The report on some assertions, as printed by this reporter. */
+		public static JSONObject toJSON(List<Assertion> assertions) {
+			// Failures first, then warnings, then the rest
+			JSONArray failed = new JSONArray();
+			JSONArray warnings = new JSONArray();
+			JSONArray satisfied = new JSONArray();
+			for (Assertion a : assertions)
+				(!a.satisfied ? failed : a.warning ? warnings : satisfied)
+						.put(toJSON(a));
 			JSONArray ary = new JSONArray();
-			int f = 0, w = 0, s = 0;
+			for (JSONArray part : new JSONArray[] { failed, warnings,
+					satisfied })
+				for (int i = 0; i < part.length(); i++)
+					ary.put(part.get(i));
+			return summary(failed.length(), warnings.length(),
+					satisfied.length()).put("assertions", ary);
+		}
+
+		static JSONObject toJSON(Assertion a) {
+			JSONObject json = new JSONObject().put("type", type(a));
+			if (a.getCode() != null)
+				json.put("code", a.getCode().name());
+			return json.put("message", a.getText());
+		}
+
+		static JSONObject summary(int failed, int warnings, int satisfied) {
+			return new JSONObject().put("allSatisfied", failed == 0)
+					.put("numSatisfied", satisfied)
+					.put("numWarning", warnings).put("numFailed", failed)
+					.put("numTotal", failed + warnings + satisfied);
+		}
+	}
+
+	/**
+	 * Writes each assertion as a line of JSON as soon as it is made, followed
+	 * by a line summarising them all, so that progress is visible and nothing
+	 * is held back until validation is finished.
+	 */
+	public static class NDJSONReporter extends AssertionReporter {
+		private final PrintStream stream;
+		private int failed, warnings, satisfied;
+
+		public NDJSONReporter() {
+			this(out);
+		}
+
+		public NDJSONReporter(PrintStream stream) {
+			this.stream = stream;
+		}
+
+		@Override
+		public void assertion(Assertion a) {
+			count(a);
+			stream.println(JSONReporter.toJSON(a));
+			stream.flush();
+		}
+
+		private void count(Assertion a) {
+			if (!a.satisfied)
+				failed++;
+			else if (a.warning)
+				warnings++;
+			else
+				satisfied++;
+		}
+
+		@Override
+		public void reset() {
+			super.reset();
+			failed = warnings = satisfied = 0;
+		}
+
+		@Override
+		public boolean finish() {
+			stream.println(JSONReporter.summary(failed, warnings, satisfied)
+					.put("type", "summary"));
+			stream.flush();
+			return failed == 0;
+		}
+
+		@Override
+		public boolean reportAssertions(List<Assertion> assertions) {
 			for (Assertion a : assertions)
-				if (!a.satisfied) {
-					ary.put(new JSONObject().put("type", "failed").put(
-							"message", a.text));
-					f++;
-				}
+				assertion(a);
+			return finish();
+		}
+
+		/**
+		 * Writes the assertions at once, each line saying which component it
+		 * is about.
+		 */
+		@Override
+		public void component(String name, List<Assertion> assertions) {
+			for (Assertion a : assertions) {
+				count(a);
+				stream.println(JSONReporter.toJSON(a).put("component", name));
+			}
+			stream.flush();
+		}
+
+		/** Writes just the summary; the assertions are already written. */
+		@Override
+		public boolean finishComponents() {
+			return finish();
+		}
+
+		@Override
+		public boolean reportComponents(Map<String, List<Assertion>> components) {
+			for (Map.Entry<String, List<Assertion>> e : components.entrySet())
+				component(e.getKey(), e.getValue());
+			return finishComponents();
+		}
+	}
+
+	/**
+	 * Keeps only counts, so that validating any number of components takes
+	 * the same memory. For each kind of assertion, keyed by its code, it
+	 * counts how often it failed, warned and was satisfied, and how many
+	 * components failed it. Each component that fails is written as a line of
+	 * JSON as soon as it is known, and the counts are written as a final line
+	 * when done.
+	 */
+	public static class AggregatingReporter extends AssertionReporter {
+		private final PrintStream stream;
+		private final Map<String, Counts> counts = new HashMap<String, Counts>();
+		/** What the component currently being reported on failed, sorted. */
+		private final Set<String> failing = new TreeSet<String>();
+		private long numComponents, numFailedComponents;
+
+		public AggregatingReporter() {
+			this(out);
+		}
+
+		public AggregatingReporter(PrintStream stream) {
+			this.stream = stream;
+		}
+
+		@Override
+		public void assertion(Assertion a) {
+			String key = key(a);
+			Counts c = counts.get(key);
+			if (c == null) {
+				c = new Counts(a);
+				counts.put(key, c);
+			}
+			if (!a.satisfied) {
+				c.failed++;
+				if (failing.add(key))
+					c.failedComponents++;
+			} else if (a.warning)
+				c.warnings++;
+			else
+				c.satisfied++;
+		}
+
+		/**
+		 * What an assertion is counted under: its code, or its template if it
+		 * has none, and the constraint it is about, so that different ports,
+		 * activities and annotations with the same code are counted apart.
+		 */
+		static String key(Assertion a) {
+			String what = a.getCode() != null ? a.getCode().name() : a
+					.getTemplate();
+			return a.getConstraint() == null ? what : what + " "
+					+ a.getConstraint();
+		}
+
+		@Override
+		public void reset() {
+			super.reset();
+			counts.clear();
+			failing.clear();
+			numComponents = numFailedComponents = 0;
+		}
+
+		/** Finish with the component that the assertions so far were about. */
+		private void endComponent(String name) {
+			numComponents++;
+			if (failing.isEmpty())
+				return;
+			numFailedComponents++;
+			JSONObject line = new JSONObject().put("type", "failed");
+			if (name != null)
+				line.put("component", name);
+			stream.println(line.put("failed", new JSONArray(failing)));
+			stream.flush();
+			failing.clear();
+		}
+
+		@Override
+		public void component(String name, List<Assertion> assertions) {
 			for (Assertion a : assertions)
-				if (a.satisfied && a.warning) {
-					ary.put(new JSONObject().put("type", "warning").put(
-							"message", a.text));
-					w++;
-				}
+				assertion(a);
+			endComponent(name);
+		}
+
+		@Override
+		public boolean finishComponents() {
+			JSONObject constraints = new JSONObject();
+			for (Map.Entry<String, Counts> e : counts.entrySet())
+				constraints.put(e.getKey(), e.getValue().toJSON());
+			stream.println(new JSONObject().put("type", "summary")
+					.put("allSatisfied", numFailedComponents == 0)
+					.put("numComponents", numComponents)
+					.put("numFailedComponents", numFailedComponents)
+					.put("constraints", constraints));
+			stream.flush();
+			return numFailedComponents == 0;
+		}
+
+		/** Reports on the single component the assertions were about. */
+		@Override
+		public boolean finish() {
+			endComponent(null);
+			return finishComponents();
+		}
+
+		@Override
+		public boolean reportAssertions(List<Assertion> assertions) {
 			for (Assertion a : assertions)
-				if (a.satisfied && !a.warning) {
-					ary.put(new JSONObject().put("type", "satisfied").put(
-							"message", a.text));
-					s++;
-				}
-			out.println(new JSONObject().put("allSatisfied", sat)
-					.put("assertions", ary).put("numSatisfied", s)
-					.put("numWarning", w).put("numFailed", f)
-					.put("numTotal", assertions.size()));
-			return sat;
+				assertion(a);
+			return finish();
+		}
+
+		@Override
+		public boolean reportComponents(Map<String, List<Assertion>> components) {
+			for (Map.Entry<String, List<Assertion>> e : components.entrySet())
+				component(e.getKey(), e.getValue());
+			return finishComponents();
+		}
+
+		private static class Counts {
+			@Nullable
+			final AssertionCode code;
+			@Nullable
+			final String constraint;
+			long failed, warnings, satisfied, failedComponents;
+
+			Counts(Assertion a) {
+				code = a.getCode();
+				constraint = a.getConstraint();
+			}
+
+			JSONObject toJSON() {
+				JSONObject json = new JSONObject();
+				if (code != null)
+					json.put("code", code.name());
+				if (constraint != null)
+					json.put("constraint", constraint);
+				return json.put("numFailed", failed)
+						.put("numWarning", warnings)
+						.put("numSatisfied", satisfied)
+						.put("numFailedComponents", failedComponents);
+			}
 		}
 	}
 }
\ No newline at end of file
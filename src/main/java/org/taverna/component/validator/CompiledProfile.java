@@ -0,0 +1,525 @@
+package org.taverna.component.validator;
+
+import static com.hp.hpl.jena.rdf.model.ResourceFactory.createProperty;
+import static com.hp.hpl.jena.rdf.model.ResourceFactory.createResource;
+import static java.lang.Integer.MAX_VALUE;
+import static java.lang.Integer.parseInt;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.org.taverna.ns._2012.component.profile.Activity;
+import uk.org.taverna.ns._2012.component.profile.ActivityAnnotation;
+import uk.org.taverna.ns._2012.component.profile.BasicAnnotations;
+import uk.org.taverna.ns._2012.component.profile.Component;
+import uk.org.taverna.ns._2012.component.profile.ComponentAnnotation;
+import uk.org.taverna.ns._2012.component.profile.Ontology;
+import uk.org.taverna.ns._2012.component.profile.Port;
+import uk.org.taverna.ns._2012.component.profile.PortAnnotation;
+import uk.org.taverna.ns._2012.component.profile.Profile;
+import uk.org.taverna.ns._2012.component.profile.SemanticAnnotation;
+
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * A chain of profiles, preprocessed into a flat list of constraints that can
+ * be checked directly. Cardinalities are parsed, predicates and values are
+ * resolved to RDF terms, labels are looked up in the ontologies and activity
+ * type names are resolved to implementation classes. Instances are
+ * immutable and may be shared between threads and reused for any number of
+ * components.
+ *
+ * @see Validator#compile(List)
+ */
+public class CompiledProfile {
+	static final String SKOS_LABEL = "http://www.w3.org/2004/02/skos/core#prefLabel";
+	private static final String UNBOUNDED = "unbounded";
+	private static final String ACTIVITIES_PKG = "net.sf.taverna.t2.activities.";
+	private static final String ANNOTATION_PKG = "net.sf.taverna.t2.annotation.annotationbeans.";
+	private static final Map<String, String> TYPE_MAP;
+	static {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("Tool", ACTIVITIES_PKG + "externaltool.ExternalToolActivity");
+		map.put("XPath", ACTIVITIES_PKG + "xpath.XPathActivity");
+		map.put("Beanshell", ACTIVITIES_PKG + "beanshell.BeanshellActivity");
+		TYPE_MAP = unmodifiableMap(map);
+	}
+
+	private final List<String> profileIds;
+	private final List<Constraint> constraints;
+	private volatile byte[] digest;
+
+	/**
+	 * @param profiles
+	 *            The profile chain, most specific first.
+	 * @param ontologies
+	 *            The indexed ontologies, keyed by their location. Must include
+	 *            every ontology referenced by the profiles.
+	 */
+	CompiledProfile(List<Profile> profiles,
+			Map<String, OntologyIndex> ontologies) {
+		List<String> ids = new ArrayList<String>();
+		List<Constraint> list = new ArrayList<Constraint>();
+		for (Profile p : profiles) {
+			Map<String, OntologyIndex> ontomap = new HashMap<String, OntologyIndex>();
+			for (Ontology o : p.getOntology())
+				ontomap.put(o.getId(), ontologies.get(o.getValue()));
+			ids.add(p.getId());
+			compileComponent(p.getId(), p.getComponent(), ontomap, list);
+		}
+		this.profileIds = unmodifiableList(ids);
+		this.constraints = unmodifiableList(list);
+	}
+
+	/** Reassemble a compiled profile, as read from a {@link ProfileBundle}. */
+	CompiledProfile(List<String> profileIds, List<Constraint> constraints) {
+		this.profileIds = unmodifiableList(profileIds);
+		this.constraints = unmodifiableList(constraints);
+	}
+
+	/** The IDs of the profiles that this was compiled from. */
+	public List<String> getProfileIds() {
+		return profileIds;
+	}
+
+	/** The constraints, in the order that they are to be checked. */
+	List<Constraint> getConstraints() {
+		return constraints;
+	}
+
+	/**
+	 * A SHA-256 digest of everything about this profile that affects the
+	 * outcome of checking a component: the constraints of the whole chain
+	 * and the ontology classes they refer to.
+	 */
+	byte[] getDigest() {
+		// Racing threads may both compute it; they get equal digests
+		byte[] d = digest;
+		if (d == null)
+			digest = d = ProfileBundle.digest(this);
+		return d;
+	}
+
+	/**
+	 * Compile the constraints on a component.
+	 *
+	 * @param profileId
+	 *            Which profile the constraints come from.
+	 * @param component
+	 *            The constraints on the component.
+	 * @param ontology
+	 *            The indexed ontologies, keyed by their ID in the profile.
+	 * @param result
+	 *            Where to add the compiled constraints.
+	 */
+	static void compileComponent(@Nullable String profileId,
+			Component component, Map<String, OntologyIndex> ontology,
+			List<Constraint> result) {
+		for (ComponentAnnotation ca : component.getAnnotation())
+			result.add(new ComponentAnnotationConstraint(profileId, ca));
+		for (SemanticAnnotation sa : component.getSemanticAnnotation())
+			result.add(new ComponentSemanticConstraint(profileId,
+					new SemanticConstraint(sa, ontology)));
+		for (Port ip : component.getInputPort())
+			result.add(new PortConstraint(profileId, true, ip, ontology));
+		for (Port op : component.getOutputPort())
+			result.add(new PortConstraint(profileId, false, op, ontology));
+		for (Activity ac : component.getActivity())
+			result.add(new ActivityConstraint(profileId, ac, ontology));
+	}
+
+	private static int bound(String value) {
+		return value.equals(UNBOUNDED) ? MAX_VALUE : parseInt(value);
+	}
+
+	private static int bound(BigInteger value) {
+		return value.intValue();
+	}
+
+	static String getBasicAnnotationTerm(BasicAnnotations ba) {
+		switch (ba) {
+		case AUTHOR:
+			return ANNOTATION_PKG + "Author";
+		case DESCRIPTION:
+			return ANNOTATION_PKG + "FreeTextDescription";
+		case EXAMPLE:
+			return ANNOTATION_PKG + "ExampleValue";
+		case TITLE:
+			return ANNOTATION_PKG + "DescriptiveTitle";
+		default:
+			throw new IllegalStateException();
+		}
+	}
+
+	/**
+	 * A single compiled constraint on a component.
+	 */
+	abstract static class Constraint {
+		final String profileId;
+
+		Constraint(String profileId) {
+			this.profileId = profileId;
+		}
+
+		abstract List<Assertion> check(Validator validator,
+				ComponentIndex component);
+
+		/** Check a component, marking each assertion as being about this. */
+		final List<Assertion> apply(Validator validator,
+				ComponentIndex component) {
+			List<Assertion> result = check(validator, component);
+			String name = toString();
+			for (Assertion a : result)
+				a.setConstraint(name);
+			return result;
+		}
+
+		/** The fingerprint of the parts of a component that this checks. */
+		abstract Fingerprint inputs(Fingerprint.Sections component);
+	}
+
+	/**
+	 * A requirement for a basic annotation (title, description, etc.)
+	 */
+	static class AnnotationRequirement {
+		/** The class of the annotation bean that satisfies this. */
+		final String term;
+		/** How this is described when it is checked. */
+		final String label;
+		/** How this is described when it cannot be checked. */
+		final String absentLabel;
+
+		AnnotationRequirement(Enum<?> annotation, BasicAnnotations basic) {
+			term = getBasicAnnotationTerm(basic);
+			label = annotation.toString();
+			absentLabel = basic.value();
+		}
+
+		AnnotationRequirement(String term, String label, String absentLabel) {
+			this.term = term;
+			this.label = label;
+			this.absentLabel = absentLabel;
+		}
+	}
+
+	/**
+	 * A requirement on the RDF annotation of some part of a component.
+	 */
+	static class SemanticConstraint {
+		final Property predicate;
+		/** The required value, or <tt>null</tt> for any value. */
+		@Nullable
+		final Resource value;
+		/** The required class of the value, or <tt>null</tt> for any class. */
+		@Nullable
+		final String clazz;
+		final int minOccurs;
+		final int maxOccurs;
+		final String minOccursText;
+		final String maxOccursText;
+		/** The human-readable name of the predicate (and value). */
+		final String label;
+		final OntologyIndex ontology;
+		/** The interned ID of {@link #clazz} in the ontology. */
+		final int classId;
+
+		SemanticConstraint(SemanticAnnotation sa,
+				Map<String, OntologyIndex> ontology) {
+			this.ontology = ontology.get(sa.getOntology());
+			if (this.ontology == null)
+				throw new IllegalArgumentException("no such ontology: "
+						+ sa.getOntology());
+			predicate = createProperty(sa.getPredicate());
+			value = sa.getValue().isEmpty() ? null : createResource(sa
+					.getValue());
+			clazz = sa.getClazz();
+			classId = this.ontology.getClassId(clazz);
+			minOccurs = bound(sa.getMinOccurs());
+			maxOccurs = bound(sa.getMaxOccurs());
+			minOccursText = sa.getMinOccurs().toString();
+			maxOccursText = sa.getMaxOccurs();
+			label = this.ontology.getName(sa.getPredicate(), sa.getValue());
+		}
+
+		SemanticConstraint(String predicate, @Nullable String value,
+				@Nullable String clazz, int minOccurs, int maxOccurs,
+				String minOccursText, String maxOccursText, String label,
+				OntologyIndex ontology) {
+			this.ontology = ontology;
+			this.predicate = createProperty(predicate);
+			this.value = value == null ? null : createResource(value);
+			this.clazz = clazz;
+			classId = ontology.getClassId(clazz);
+			this.minOccurs = minOccurs;
+			this.maxOccurs = maxOccurs;
+			this.minOccursText = minOccursText;
+			this.maxOccursText = maxOccursText;
+			this.label = label;
+		}
+	}
+
+	/**
+	 * A requirement for a basic annotation on the component as a whole.
+	 */
+	static class ComponentAnnotationConstraint extends Constraint {
+		final AnnotationRequirement annotation;
+
+		ComponentAnnotationConstraint(String profileId, ComponentAnnotation ca) {
+			super(profileId);
+			annotation = new AnnotationRequirement(ca.getValue(), ca.getValue()
+					.value());
+		}
+
+		ComponentAnnotationConstraint(String profileId,
+				AnnotationRequirement annotation) {
+			super(profileId);
+			this.annotation = annotation;
+		}
+
+		@Override
+		List<Assertion> check(Validator validator, ComponentIndex component) {
+			List<Assertion> result = new ArrayList<Assertion>(1);
+			result.add(validator.validateComponentBasicAnnotation(component,
+					this));
+			return result;
+		}
+
+		@Override
+		Fingerprint inputs(Fingerprint.Sections component) {
+			return component.annotations();
+		}
+
+		@Override
+		public String toString() {
+			return "componentAnnotation " + annotation.label + " of profile "
+					+ profileId;
+		}
+	}
+
+	/**
+	 * A requirement for a semantic annotation on the component as a whole.
+	 */
+	static class ComponentSemanticConstraint extends Constraint {
+		final SemanticConstraint semantic;
+
+		ComponentSemanticConstraint(String profileId,
+				SemanticConstraint semantic) {
+			super(profileId);
+			this.semantic = semantic;
+		}
+
+		@Override
+		List<Assertion> check(Validator validator, ComponentIndex component) {
+			return validator.validateComponentSemanticAnnotation(component,
+					semantic);
+		}
+
+		@Override
+		Fingerprint inputs(Fingerprint.Sections component) {
+			return component.annotations();
+		}
+
+		@Override
+		public String toString() {
+			return "component semanticAnnotation '" + semantic.label
+					+ "' of profile " + profileId;
+		}
+	}
+
+	/**
+	 * A requirement on the input or output ports of the component.
+	 */
+	static class PortConstraint extends Constraint {
+		final boolean input;
+		final String portType;
+		/** The name of the port, or <tt>null</tt> to select by annotation. */
+		@Nullable
+		final String name;
+		final int minOccurs;
+		final int minDepth;
+		final int maxDepth;
+		final String minDepthText;
+		final String maxDepthText;
+		final List<AnnotationRequirement> annotations;
+		final List<SemanticConstraint> semantics;
+		/** How to pick the ports to check when they are not named. */
+		final List<SemanticConstraint> selectionCriteria;
+		/** Whether failing to find a port by annotation is an error. */
+		final boolean mandatory;
+
+		PortConstraint(String profileId, boolean input, Port port,
+				Map<String, OntologyIndex> ontology) {
+			super(profileId);
+			this.input = input;
+			portType = input ? "component input" : "component output";
+			name = port.getName();
+			minOccurs = bound(port.getMinOccurs());
+			minDepth = bound(port.getMinDepth());
+			maxDepth = bound(port.getMaxDepth());
+			minDepthText = port.getMinDepth().toString();
+			maxDepthText = port.getMaxDepth();
+
+			List<AnnotationRequirement> annotations = new ArrayList<AnnotationRequirement>();
+			for (PortAnnotation pa : port.getAnnotation())
+				annotations.add(new AnnotationRequirement(pa.getValue()
+						.value(), pa.getValue().value()));
+			this.annotations = unmodifiableList(annotations);
+
+			List<SemanticConstraint> semantics = new ArrayList<SemanticConstraint>();
+			List<SemanticConstraint> required = new ArrayList<SemanticConstraint>();
+			List<SemanticConstraint> optional = new ArrayList<SemanticConstraint>();
+			for (SemanticAnnotation sa : port.getSemanticAnnotation()) {
+				SemanticConstraint sc = new SemanticConstraint(sa, ontology);
+				semantics.add(sc);
+				if (sc.minOccurs >= 1)
+					required.add(sc);
+				else if (sc.minOccurs == 0 && !sa.getMaxOccurs().equals("0"))
+					optional.add(sc);
+			}
+			this.semantics = unmodifiableList(semantics);
+			mandatory = !required.isEmpty();
+			selectionCriteria = unmodifiableList(mandatory ? required
+					: optional);
+		}
+
+		PortConstraint(String profileId, boolean input, @Nullable String name,
+				int minOccurs, int minDepth, int maxDepth, String minDepthText,
+				String maxDepthText, List<AnnotationRequirement> annotations,
+				List<SemanticConstraint> semantics,
+				List<SemanticConstraint> selectionCriteria, boolean mandatory) {
+			super(profileId);
+			this.input = input;
+			portType = input ? "component input" : "component output";
+			this.name = name;
+			this.minOccurs = minOccurs;
+			this.minDepth = minDepth;
+			this.maxDepth = maxDepth;
+			this.minDepthText = minDepthText;
+			this.maxDepthText = maxDepthText;
+			this.annotations = unmodifiableList(annotations);
+			this.semantics = unmodifiableList(semantics);
+			this.selectionCriteria = unmodifiableList(selectionCriteria);
+			this.mandatory = mandatory;
+		}
+
+		@Override
+		List<Assertion> check(Validator validator, ComponentIndex component) {
+			return validator.validatePort(component, this);
+		}
+
+		@Override
+		Fingerprint inputs(Fingerprint.Sections component) {
+			if (name != null)
+				return component.port(input, name);
+			return component.ports(input);
+		}
+
+		@Override
+		public String toString() {
+			if (name != null)
+				return (input ? "inputPort '" : "outputPort '") + name
+						+ "' of profile " + profileId;
+			StringBuilder sb = new StringBuilder(input ? "inputPort"
+					: "outputPort");
+			String sep = " (by annotation ";
+			for (SemanticConstraint sc : selectionCriteria) {
+				sb.append(sep).append("'").append(sc.label).append("'");
+				sep = ", ";
+			}
+			if (selectionCriteria.isEmpty())
+				sb.append(" (by annotation");
+			return sb.append(") of profile ").append(profileId).toString();
+		}
+	}
+
+	/**
+	 * A requirement on the activities of the component.
+	 */
+	static class ActivityConstraint extends Constraint {
+		/** How the activities are described in messages. */
+		final String description;
+		/**
+		 * The implementation class of the activities, or <tt>null</tt> for
+		 * any activity.
+		 */
+		@Nullable
+		final String activityClass;
+		final int minOccurs;
+		final int maxOccurs;
+		final String minOccursText;
+		final String maxOccursText;
+		final List<AnnotationRequirement> annotations;
+		final List<SemanticConstraint> semantics;
+
+		ActivityConstraint(String profileId, Activity activity,
+				Map<String, OntologyIndex> ontology) {
+			super(profileId);
+			String type = activity.getType();
+			if (type != null) {
+				String repltype = TYPE_MAP.get(type);
+				if (repltype != null)
+					type = repltype;
+			}
+			activityClass = type;
+			description = activity.getType() == null ? "" : activity
+					.getType() + " ";
+			minOccurs = bound(activity.getMinOccurs());
+			maxOccurs = bound(activity.getMaxOccurs());
+			minOccursText = activity.getMinOccurs().toString();
+			maxOccursText = activity.getMaxOccurs();
+
+			List<AnnotationRequirement> annotations = new ArrayList<AnnotationRequirement>();
+			for (ActivityAnnotation aa : activity.getAnnotation())
+				annotations.add(new AnnotationRequirement(aa.getValue(), aa
+						.getValue().value()));
+			this.annotations = unmodifiableList(annotations);
+
+			List<SemanticConstraint> semantics = new ArrayList<SemanticConstraint>();
+			for (SemanticAnnotation sa : activity.getSemanticAnnotation())
+				semantics.add(new SemanticConstraint(sa, ontology));
+			this.semantics = unmodifiableList(semantics);
+		}
+
+		ActivityConstraint(String profileId, String description,
+				@Nullable String activityClass, int minOccurs, int maxOccurs,
+				String minOccursText, String maxOccursText,
+				List<AnnotationRequirement> annotations,
+				List<SemanticConstraint> semantics) {
+			super(profileId);
+			this.description = description;
+			this.activityClass = activityClass;
+			this.minOccurs = minOccurs;
+			this.maxOccurs = maxOccurs;
+			this.minOccursText = minOccursText;
+			this.maxOccursText = maxOccursText;
+			this.annotations = unmodifiableList(annotations);
+			this.semantics = unmodifiableList(semantics);
+		}
+
+		@Override
+		List<Assertion> check(Validator validator, ComponentIndex component) {
+			List<Assertion> result = new ArrayList<Assertion>(1);
+			result.add(validator.validateActivity(component, this));
+			return result;
+		}
+
+		@Override
+		Fingerprint inputs(Fingerprint.Sections component) {
+			return component.activities(activityClass);
+		}
+
+		@Override
+		public String toString() {
+			return "activity " + (activityClass == null ? "(any)" : activityClass)
+					+ " of profile " + profileId;
+		}
+	}
+}
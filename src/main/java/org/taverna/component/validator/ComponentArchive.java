@@ -0,0 +1,370 @@
+package org.taverna.component.validator;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * The components in a zip, tar or gzipped tar archive, read one after another
+ * straight out of the archive, decompressing as they are read, without
+ * unpacking anything to disk. Entries whose names do not end with
+ * <tt>.t2flow</tt> are skipped. Not thread-safe.
+ */
+public class ComponentArchive implements Closeable {
+	private static final String COMPONENT_SUFFIX = ".t2flow";
+	private final Entries entries;
+	private InputStream content;
+
+	/** Whether a file name is that of a kind of archive that can be read. */
+	public static boolean isArchive(String name) {
+		String n = name.toLowerCase();
+		return n.endsWith(".zip") || n.endsWith(".tar")
+				|| n.endsWith(".tar.gz") || n.endsWith(".tgz");
+	}
+
+	/** Open an archive, working out what kind it is from its name. */
+	public ComponentArchive(URL archive) throws IOException {
+		this(archive.openStream(), archive.getPath());
+	}
+
+	/**
+	 * @param in
+	 *            The archive. Closed when this is closed.
+	 * @param name
+	 *            The name of the archive, which says what kind it is.
+	 */
+	public ComponentArchive(InputStream in, String name) throws IOException {
+		String n = name.toLowerCase();
+		in = new BufferedInputStream(in);
+		if (n.endsWith(".zip"))
+			entries = new ZipEntries(new ZipInputStream(in));
+		else if (n.endsWith(".tar"))
+			entries = new TarEntries(in);
+		else if (n.endsWith(".tar.gz") || n.endsWith(".tgz"))
+			entries = new TarEntries(new BufferedInputStream(
+					new GZIPInputStream(in)));
+		else {
+			in.close();
+			throw new IllegalArgumentException("not a known kind of archive: "
+					+ name);
+		}
+	}
+
+	/**
+	 * Move to the next component in the archive.
+	 *
+	 * @return The name of its entry, or <tt>null</tt> if there are no more.
+	 */
+	@Nullable
+	public String next() throws IOException {
+		while (true) {
+			String name = entries.next();
+			if (name == null) {
+				content = null;
+				return null;
+			}
+			if (name.endsWith(COMPONENT_SUFFIX)) {
+				content = new Unclosable(entries.content());
+				return name;
+			}
+		}
+	}
+
+	/**
+	 * The content of the current component. Closing it has no effect; it is
+	 * not valid once {@link #next()} is called again.
+	 */
+	public InputStream getContent() {
+		if (content == null)
+			throw new IllegalStateException("no current entry");
+		return content;
+	}
+
+	@Override
+	public void close() throws IOException {
+		entries.close();
+	}
+
+	/** The entries of some kind of archive. */
+	private interface Entries extends Closeable {
+		/** Skip to the next file entry, returning its name. */
+		@Nullable
+		String next() throws IOException;
+
+		/** The content of the current entry. */
+		InputStream content();
+	}
+
+	private static class ZipEntries implements Entries {
+		private final ZipInputStream zip;
+
+		ZipEntries(ZipInputStream zip) {
+			this.zip = zip;
+		}
+
+		@Override
+		public String next() throws IOException {
+			ZipEntry e;
+			do
+				e = zip.getNextEntry();
+			while (e != null && e.isDirectory());
+			return e == null ? null : e.getName();
+		}
+
+		@Override
+		public InputStream content() {
+			// Reads stop at the end of the entry
+			return zip;
+		}
+
+		@Override
+		public void close() throws IOException {
+			zip.close();
+		}
+	}
+
+	/**
+	 * A reader of POSIX (ustar) tar archives, with the GNU extension for long
+	 * names and the <tt>path</tt> of pax extended headers. Other extended
+	 * headers, and other pax records, are skipped.
+	 */
+	private static class TarEntries implements Entries {
+		private static final int BLOCK = 512;
+		private final InputStream in;
+		private final byte[] header = new byte[BLOCK];
+		private Bounded current;
+
+		TarEntries(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public String next() throws IOException {
+			String longName = null;
+			while (true) {
+				if (current != null)
+					current.skipRest();
+				current = null;
+				if (!readBlock(header) || isZero(header))
+					return null;
+				long size = octal(header, 124, 12);
+				char type = (char) header[156];
+				current = new Bounded(in, size);
+				if (type == 'L') {
+					longName = name(readAll(current));
+					continue;
+				}
+				if (type == 'x') {
+					String path = paxPath(readAll(current));
+					if (path != null)
+						longName = path;
+					continue;
+				}
+				if (type != '0' && type != '\0') {
+					// Directories, links, extended headers, etc.
+					longName = null;
+					continue;
+				}
+				if (longName != null)
+					return longName;
+				String name = string(header, 0, 100);
+				if (string(header, 257, 5).equals("ustar")) {
+					String prefix = string(header, 345, 155);
+					if (!prefix.isEmpty())
+						name = prefix + "/" + name;
+				}
+				return name;
+			}
+		}
+
+		@Override
+		public InputStream content() {
+			return current;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+
+		private boolean readBlock(byte[] block) throws IOException {
+			int n = 0;
+			while (n < block.length) {
+				int r = in.read(block, n, block.length - n);
+				if (r < 0) {
+					if (n == 0)
+						return false;
+					throw new EOFException("truncated tar header");
+				}
+				n += r;
+			}
+			return true;
+		}
+
+		private static boolean isZero(byte[] block) {
+			for (byte b : block)
+				if (b != 0)
+					return false;
+			return true;
+		}
+
+		private static long octal(byte[] b, int offset, int length)
+				throws IOException {
+			long value = 0;
+			for (int i = offset; i < offset + length; i++) {
+				if (b[i] == 0 || b[i] == ' ') {
+					if (value == 0)
+						continue;
+					break;
+				}
+				if (b[i] < '0' || b[i] > '7')
+					throw new IOException("bad number in tar header");
+				value = value * 8 + (b[i] - '0');
+			}
+			return value;
+		}
+
+		private static String string(byte[] b, int offset, int length)
+				throws UnsupportedEncodingException {
+			int end = offset;
+			while (end < offset + length && b[end] != 0)
+				end++;
+			return new String(b, offset, end - offset, "UTF-8");
+		}
+
+		private static String name(byte[] b) throws UnsupportedEncodingException {
+			return string(b, 0, b.length);
+		}
+
+		/**
+		 * Find the <tt>path</tt> in the records of a pax extended header,
+		 * each of which is "<i>length</i> <i>key</i>=<i>value</i>\n", the
+		 * length counting the bytes of the whole record.
+		 */
+		@Nullable
+		private static String paxPath(byte[] b) throws IOException {
+			String path = null;
+			int pos = 0;
+			while (pos < b.length && b[pos] != 0) {
+				int space = pos;
+				int length = 0;
+				while (space < b.length && b[space] >= '0' && b[space] <= '9')
+					length = length * 10 + (b[space++] - '0');
+				int end = pos + length;
+				if (space == pos || space >= b.length || b[space] != ' '
+						|| end > b.length || end <= space + 1
+						|| b[end - 1] != '\n')
+					throw new IOException("bad pax header in tar archive");
+				String record = new String(b, space + 1, end - space - 2,
+						"UTF-8");
+				if (record.startsWith("path="))
+					path = record.substring(5);
+				pos = end;
+			}
+			return path;
+		}
+
+		private static byte[] readAll(InputStream in) throws IOException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[BLOCK];
+			int n;
+			while ((n = in.read(buffer)) >= 0)
+				out.write(buffer, 0, n);
+			return out.toByteArray();
+		}
+
+		/**
+		 * The content of one entry. Skipping the rest of it also skips the
+		 * padding up to the next header.
+		 */
+		private static class Bounded extends FilterInputStream {
+			private long remaining;
+			private final long padding;
+
+			Bounded(InputStream in, long size) {
+				super(in);
+				remaining = size;
+				padding = (BLOCK - size % BLOCK) % BLOCK;
+			}
+
+			@Override
+			public int read() throws IOException {
+				if (remaining <= 0)
+					return -1;
+				int b = in.read();
+				if (b >= 0)
+					remaining--;
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (remaining <= 0)
+					return -1;
+				int n = in.read(b, off, (int) Math.min(len, remaining));
+				if (n > 0)
+					remaining -= n;
+				return n;
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				long skipped = in.skip(Math.min(n, remaining));
+				remaining -= skipped;
+				return skipped;
+			}
+
+			@Override
+			public int available() throws IOException {
+				return (int) Math.min(in.available(), remaining);
+			}
+
+			@Override
+			public boolean markSupported() {
+				return false;
+			}
+
+			@Override
+			public void close() {
+				// The archive stays open
+			}
+
+			void skipRest() throws IOException {
+				long left = remaining + padding;
+				remaining = 0;
+				while (left > 0) {
+					long n = in.skip(left);
+					if (n <= 0) {
+						if (in.read() < 0)
+							throw new EOFException("truncated tar entry");
+						n = 1;
+					}
+					left -= n;
+				}
+			}
+		}
+	}
+
+	/** Hides the end of an entry from readers that close what they read. */
+	private static class Unclosable extends FilterInputStream {
+		Unclosable(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public void close() {
+			// The archive stays open
+		}
+	}
+}
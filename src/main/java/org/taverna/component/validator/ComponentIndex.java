@@ -0,0 +1,135 @@
+package org.taverna.component.validator;
+
+import static java.lang.Integer.parseInt;
+import static java.lang.System.nanoTime;
+import static java.util.Collections.emptyList;
+import static org.taverna.component.validator.ValidationMetrics.Phase.PARSE_RDF;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.taverna.component.validator.ComponentModel.Activity;
+import org.taverna.component.validator.ComponentModel.Annotations;
+import org.taverna.component.validator.ComponentModel.Port;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * Lookup tables over a {@link ComponentModel}, built once per component so
+ * that checking each constraint does not have to search the component again.
+ * Instances are immutable once built, apart from the annotation dataset,
+ * which is built when it is first wanted.
+ */
+class ComponentIndex {
+	private final ComponentModel component;
+	private final Map<String, Port> inputs;
+	private final Map<String, Port> outputs;
+	private final Map<String, List<Activity>> activities;
+	private final Map<Port, Integer> depths;
+	private volatile AnnotationDataset dataset;
+
+	ComponentIndex(ComponentModel component) {
+		this.component = component;
+		depths = new IdentityHashMap<Port, Integer>();
+		inputs = index(component.getInputPorts());
+		outputs = index(component.getOutputPorts());
+		activities = new HashMap<String, List<Activity>>();
+		for (Activity a : component.getActivities()) {
+			List<Activity> list = activities.get(a.getType());
+			if (list == null) {
+				list = new ArrayList<Activity>(1);
+				activities.put(a.getType(), list);
+			}
+			list.add(a);
+		}
+	}
+
+	private Map<String, Port> index(List<Port> ports) {
+		Map<String, Port> map = new HashMap<String, Port>();
+		for (Port p : ports) {
+			// First port of a name wins, as in a document-order search
+			if (!map.containsKey(p.getName()))
+				map.put(p.getName(), p);
+			try {
+				if (!p.getDepth().isEmpty())
+					depths.put(p, parseInt(p.getDepth()));
+			} catch (NumberFormatException e) {
+				// Reported if and when the depth is actually checked
+			}
+		}
+		return map;
+	}
+
+	ComponentModel getComponent() {
+		return component;
+	}
+
+	/**
+	 * The semantic annotations of the whole component, parsed together.
+	 *
+	 * @param metrics
+	 *            Where to record the time taken to build the dataset.
+	 */
+	AnnotationDataset getDataset(ValidationMetrics metrics) {
+		AnnotationDataset d = dataset;
+		if (d == null)
+			synchronized (this) {
+				d = dataset;
+				if (d == null) {
+					long start = nanoTime();
+					dataset = d = new AnnotationDataset(component);
+					metrics.record(PARSE_RDF, nanoTime() - start);
+				}
+			}
+		return d;
+	}
+
+	/** The component-level annotations. */
+	Annotations getAnnotations() {
+		return component.getAnnotations();
+	}
+
+	List<Port> getPorts(boolean input) {
+		return input ? component.getInputPorts() : component.getOutputPorts();
+	}
+
+	/**
+	 * @return The first port with the given name, or <tt>null</tt> if there is
+	 *         none.
+	 */
+	@Nullable
+	Port getPort(boolean input, String name) {
+		return (input ? inputs : outputs).get(name);
+	}
+
+	/**
+	 * The declared depth of a port, which must have a depth.
+	 *
+	 * @throws NumberFormatException
+	 *             If the depth is not an integer.
+	 */
+	int getDepth(Port port) {
+		Integer depth = depths.get(port);
+		if (depth == null)
+			return parseInt(port.getDepth());
+		return depth;
+	}
+
+	/**
+	 * The activities with the given implementation class, in document order.
+	 *
+	 * @param activityClass
+	 *            The class, or <tt>null</tt> for all activities.
+	 */
+	List<Activity> getActivities(@Nullable String activityClass) {
+		if (activityClass == null)
+			return component.getActivities();
+		List<Activity> list = activities.get(activityClass);
+		if (list == null)
+			return emptyList();
+		return list;
+	}
+}
@@ -0,0 +1,193 @@
+package org.taverna.component.validator;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * The parts of a Taverna component that the validator looks at: the ports of
+ * the top-level dataflow, the annotations on it, and every activity in the
+ * workflow. Instances are immutable.
+ *
+ * @see ComponentReader
+ * @see Validator#extract(org.w3c.dom.Element)
+ */
+public class ComponentModel {
+	private final List<Port> inputPorts;
+	private final List<Port> outputPorts;
+	private final Annotations annotations;
+	private final List<Activity> activities;
+
+	ComponentModel(List<Port> inputPorts, List<Port> outputPorts,
+			Annotations annotations, List<Activity> activities) {
+		this.inputPorts = unmodifiableList(inputPorts);
+		this.outputPorts = unmodifiableList(outputPorts);
+		this.annotations = annotations;
+		this.activities = unmodifiableList(activities);
+	}
+
+	/** The input ports of the top dataflow, in document order. */
+	public List<Port> getInputPorts() {
+		return inputPorts;
+	}
+
+	/** The output ports of the top dataflow, in document order. */
+	public List<Port> getOutputPorts() {
+		return outputPorts;
+	}
+
+	/** The annotations on the top dataflow. */
+	public Annotations getAnnotations() {
+		return annotations;
+	}
+
+	/** The activities of every dataflow, in document order. */
+	public List<Activity> getActivities() {
+		return activities;
+	}
+
+	/**
+	 * A port of the top dataflow.
+	 */
+	public static class Port {
+		private final String name;
+		private final String depth;
+		private final Annotations annotations;
+
+		Port(String name, String depth, Annotations annotations) {
+			this.name = name;
+			this.depth = depth;
+			this.annotations = annotations;
+		}
+
+		@NonNull
+		public String getName() {
+			return name;
+		}
+
+		/** The declared depth, or the empty string if none was given. */
+		@NonNull
+		public String getDepth() {
+			return depth;
+		}
+
+		public Annotations getAnnotations() {
+			return annotations;
+		}
+	}
+
+	/**
+	 * An activity, from any dataflow of the workflow.
+	 */
+	public static class Activity {
+		private final String type;
+		private final Annotations annotations;
+
+		Activity(String type, Annotations annotations) {
+			this.type = type;
+			this.annotations = annotations;
+		}
+
+		/** The implementation class of the activity. */
+		@NonNull
+		public String getType() {
+			return type;
+		}
+
+		public Annotations getAnnotations() {
+			return annotations;
+		}
+	}
+
+	/**
+	 * The annotation beans attached to something, grouped by bean class.
+	 */
+	public static class Annotations {
+		static final Annotations NONE = new Annotations(
+				new LinkedHashMap<String, List<String>>());
+		private final Map<String, List<String>> beans;
+		private final Map<String, String> firstContent;
+
+		/**
+		 * @param beans
+		 *            The <tt>content</tt> of each bean, keyed by bean class, in
+		 *            document order. Beans without content are recorded as
+		 *            <tt>null</tt>.
+		 */
+		Annotations(Map<String, List<String>> beans) {
+			this.beans = unmodifiableMap(beans);
+			firstContent = new HashMap<String, String>();
+			for (Map.Entry<String, List<String>> e : beans.entrySet())
+				for (String content : e.getValue())
+					if (content != null) {
+						firstContent.put(e.getKey(), content);
+						break;
+					}
+		}
+
+		/** Whether there is any annotation bean of the given class. */
+		public boolean has(String beanClass) {
+			return beans.containsKey(beanClass);
+		}
+
+		/**
+		 * The content of the first annotation bean of the given class that has
+		 * any.
+		 *
+		 * @return The content, or <tt>null</tt> if no such bean has content.
+		 */
+		@Nullable
+		public String content(String beanClass) {
+			return firstContent.get(beanClass);
+		}
+
+		/**
+		 * The content of every annotation bean of the given class, with
+		 * <tt>null</tt> for beans without content.
+		 */
+		public List<String> contents(String beanClass) {
+			List<String> contents = beans.get(beanClass);
+			if (contents == null)
+				return emptyList();
+			return contents;
+		}
+
+		/** The classes of annotation bean present. */
+		public Iterable<String> classes() {
+			return beans.keySet();
+		}
+	}
+
+	/**
+	 * Accumulates annotation beans in document order.
+	 */
+	static class AnnotationsBuilder {
+		private final Map<String, List<String>> beans = new LinkedHashMap<String, List<String>>();
+
+		void add(String beanClass, @Nullable String content) {
+			List<String> contents = beans.get(beanClass);
+			if (contents == null) {
+				contents = new ArrayList<String>(1);
+				beans.put(beanClass, contents);
+			}
+			contents.add(content);
+		}
+
+		Annotations build() {
+			if (beans.isEmpty())
+				return Annotations.NONE;
+			for (Map.Entry<String, List<String>> e : beans.entrySet())
+				e.setValue(unmodifiableList(e.getValue()));
+			return new Annotations(beans);
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package org.taverna.component.validator;
+
+import static javax.xml.stream.XMLStreamConstants.CDATA;
+import static javax.xml.stream.XMLStreamConstants.CHARACTERS;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.SPACE;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.taverna.component.validator.ComponentModel.Activity;
+import org.taverna.component.validator.ComponentModel.Annotations;
+import org.taverna.component.validator.ComponentModel.AnnotationsBuilder;
+import org.taverna.component.validator.ComponentModel.Port;
+
+/**
+ * Extracts a {@link ComponentModel} from a t2flow document in a single
+ * streaming pass, without building a DOM. Only the parts of the document that
+ * the validator looks at are retained. Instances may be shared between
+ * threads.
+ */
+public class ComponentReader {
+	static final String T2FLOW_NS = "http://taverna.sf.net/2008/xml/t2flow";
+	private final ThreadLocal<XMLInputFactory> factory = new ThreadLocal<XMLInputFactory>() {
+		@Override
+		protected XMLInputFactory initialValue() {
+			XMLInputFactory f = XMLInputFactory.newInstance();
+			f.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+			f.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			f.setProperty(XMLInputFactory.IS_COALESCING, true);
+			return f;
+		}
+	};
+
+	public ComponentModel read(URL componentUrl) throws IOException,
+			XMLStreamException {
+		InputStream in = new BufferedInputStream(componentUrl.openStream());
+		try {
+			return read(in, componentUrl.toString());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read a component from a stream. The stream is not closed.
+	 *
+	 * @param in
+	 *            The t2flow document.
+	 * @param systemId
+	 *            Where the document came from, for error messages.
+	 */
+	public ComponentModel read(InputStream in, String systemId)
+			throws XMLStreamException {
+		XMLStreamReader r = factory.get().createXMLStreamReader(systemId, in);
+		try {
+			r.nextTag();
+			return new Parse(r).workflow();
+		} finally {
+			r.close();
+		}
+	}
+
+	/**
+	 * The state of one parse. Each method is entered positioned on the start
+	 * of an element, and leaves positioned on its end.
+	 */
+	private static class Parse {
+		private final XMLStreamReader r;
+		private final List<Port> inputs = new ArrayList<Port>();
+		private final List<Port> outputs = new ArrayList<Port>();
+		private final List<Activity> activities = new ArrayList<Activity>();
+		private Annotations annotations = Annotations.NONE;
+		private boolean seenTop;
+
+		Parse(XMLStreamReader r) {
+			this.r = r;
+		}
+
+		private boolean is(String localName) {
+			return localName.equals(r.getLocalName())
+					&& T2FLOW_NS.equals(r.getNamespaceURI());
+		}
+
+		private boolean isUnqualified(String localName) {
+			String ns = r.getNamespaceURI();
+			return localName.equals(r.getLocalName())
+					&& (ns == null || ns.isEmpty());
+		}
+
+		/** Advance to the next child element, or the end of this one. */
+		private boolean nextChild() throws XMLStreamException {
+			while (true) {
+				int event = r.next();
+				if (event == START_ELEMENT)
+					return true;
+				if (event == END_ELEMENT)
+					return false;
+			}
+		}
+
+		ComponentModel workflow() throws XMLStreamException {
+			if (is("workflow"))
+				while (nextChild())
+					if (is("dataflow") && !seenTop
+							&& "top".equals(r.getAttributeValue(null, "role"))) {
+						seenTop = true;
+						topDataflow();
+					} else
+						scan(false);
+			else
+				scan(false);
+			return new ComponentModel(inputs, outputs, annotations,
+					activities);
+		}
+
+		private void topDataflow() throws XMLStreamException {
+			boolean seenInputs = false, seenOutputs = false;
+			AnnotationsBuilder ab = new AnnotationsBuilder();
+			while (nextChild())
+				if (is("inputPorts") && !seenInputs) {
+					seenInputs = true;
+					ports(inputs);
+				} else if (is("outputPorts") && !seenOutputs) {
+					seenOutputs = true;
+					ports(outputs);
+				} else if (is("annotations"))
+					annotations(ab);
+				else
+					scan(false);
+			annotations = ab.build();
+		}
+
+		private void ports(List<Port> ports) throws XMLStreamException {
+			while (nextChild())
+				if (is("port"))
+					ports.add(port());
+				else
+					scan(false);
+		}
+
+		private Port port() throws XMLStreamException {
+			String name = null, depth = null;
+			AnnotationsBuilder ab = new AnnotationsBuilder();
+			while (nextChild())
+				if (is("name") && name == null)
+					name = text();
+				else if (is("depth") && depth == null)
+					depth = text();
+				else if (is("annotations"))
+					annotations(ab);
+				else
+					scan(false);
+			return new Port(name == null ? "" : name, depth == null ? ""
+					: depth, ab.build());
+		}
+
+		private Activity activity() throws XMLStreamException {
+			String type = null;
+			AnnotationsBuilder ab = new AnnotationsBuilder();
+			while (nextChild())
+				if (is("class") && type == null)
+					type = text();
+				else if (is("annotations"))
+					annotations(ab);
+				else
+					scan(is("activities"));
+			return new Activity(type == null ? "" : type, ab.build());
+		}
+
+		/** Collect every annotation bean below the current element. */
+		private void annotations(AnnotationsBuilder ab)
+				throws XMLStreamException {
+			while (nextChild())
+				if (isUnqualified("annotationBean")) {
+					String beanClass = r.getAttributeValue(null, "class");
+					String content = null;
+					while (nextChild())
+						if (isUnqualified("content") && content == null)
+							content = text();
+						else
+							skip();
+					ab.add(beanClass == null ? "" : beanClass, content);
+				} else
+					annotations(ab);
+		}
+
+		/**
+		 * Look for activities below the current element.
+		 *
+		 * @param inActivities
+		 *            Whether the current element is an activity list.
+		 */
+		private void scan(boolean inActivities) throws XMLStreamException {
+			while (nextChild())
+				if (inActivities && is("activity"))
+					activities.add(activity());
+				else
+					scan(is("activities"));
+		}
+
+		private void skip() throws XMLStreamException {
+			while (nextChild())
+				skip();
+		}
+
+		/** The string value of the current element. */
+		private String text() throws XMLStreamException {
+			StringBuilder sb = new StringBuilder();
+			int depth = 0;
+			while (true) {
+				switch (r.next()) {
+				case CHARACTERS:
+				case CDATA:
+				case SPACE:
+					sb.append(r.getText());
+					break;
+				case START_ELEMENT:
+					depth++;
+					break;
+				case END_ELEMENT:
+					if (depth-- == 0)
+						return sb.toString();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package org.taverna.component.validator;
+
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.taverna.component.validator.AssertionCode.COMPONENT_UNREADABLE;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.slf4j.Logger;
+import org.taverna.component.validator.Assertion.Fail;
+
+/**
+ * Watches a directory of components, and validates each one again whenever
+ * it changes, so that someone editing components sees the effect of each
+ * save without paying for starting the JVM and loading the profile and its
+ * ontologies every time.
+ * <p>
+ * The directory is polled. A change is only acted on once the file has
+ * stayed the same for a quiet period, so that a burst of writes while a
+ * file is saved leads to one validation of the finished file.
+ */
+public class ComponentWatcher implements Runnable {
+	/** System property giving how often to look for changes, in milliseconds. */
+	public static final String INTERVAL_PROPERTY = "validator.watch.interval";
+	/**
+	 * System property giving how long, in milliseconds, a file must stay
+	 * unchanged before it is validated.
+	 */
+	public static final String QUIET_PROPERTY = "validator.watch.quiet";
+	static final long DEFAULT_INTERVAL = 100;
+	static final long DEFAULT_QUIET = 250;
+	static final String SUFFIX = ".t2flow";
+
+	private final Logger log = getLogger(ComponentWatcher.class);
+	private final Validator validator;
+	private final CompiledProfile profile;
+	private final File directory;
+	private final AssertionReporter reporter;
+	private final long interval;
+	private final long quiet;
+	/** What each file was like when last validated. */
+	private final Map<File, Stamp> validated = new HashMap<File, Stamp>();
+	/** Files that have changed since, and when they were last seen to. */
+	private final Map<File, Pending> pending = new HashMap<File, Pending>();
+
+	/**
+	 * @param validator
+	 *            The validator, whose caches stay warm between changes.
+	 * @param profile
+	 *            The profile to validate against.
+	 * @param directory
+	 *            Where the components are; only <tt>.t2flow</tt> files
+	 *            directly within it are watched.
+	 * @param reporter
+	 *            Told about each batch of components validated, keyed by
+	 *            file name. It is {@linkplain AssertionReporter#reset() reset}
+	 *            before each batch, so that each report covers only that
+	 *            batch.
+	 * @param interval
+	 *            How often to look for changes, in milliseconds.
+	 * @param quiet
+	 *            How long a file must stay unchanged before it is validated,
+	 *            in milliseconds.
+	 */
+	public ComponentWatcher(Validator validator, CompiledProfile profile,
+			File directory, AssertionReporter reporter, long interval,
+			long quiet) {
+		if (interval <= 0 || quiet < 0)
+			throw new IllegalArgumentException("bad timing");
+		this.validator = validator;
+		this.profile = profile;
+		this.directory = directory;
+		this.reporter = reporter;
+		this.interval = interval;
+		this.quiet = quiet;
+	}
+
+	/** Report on the components as they change, until interrupted. */
+	@Override
+	public void run() {
+		log.info("watching " + directory + " for changes");
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				poll();
+				Thread.sleep(interval);
+			}
+		} catch (InterruptedException e) {
+			// Time to stop
+		}
+	}
+
+	/**
+	 * Look for changes once, and report on the components that have settled
+	 * since they changed.
+	 *
+	 * @return The assertions reported, keyed by file name; empty if none
+	 *         were.
+	 */
+	Map<String, List<Assertion>> poll() {
+		Map<String, List<Assertion>> results = check();
+		if (!results.isEmpty()) {
+			reporter.reset();
+			reporter.reportComponents(results);
+		}
+		return results;
+	}
+
+	/**
+	 * Look for changes once, and validate the components that have settled
+	 * since they changed. Components seen for the first time count as
+	 * changed.
+	 *
+	 * @return The assertions about each component validated, keyed by file
+	 *         name, in name order; empty if none were.
+	 */
+	Map<String, List<Assertion>> check() {
+		long now = NANOSECONDS.toMillis(nanoTime());
+		File[] files = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File f) {
+				return f.getName().endsWith(SUFFIX) && f.isFile();
+			}
+		});
+		if (files == null) {
+			log.warn("cannot list " + directory);
+			return Collections.emptyMap();
+		}
+		Arrays.sort(files);
+		Set<File> present = new HashSet<File>(Arrays.asList(files));
+		validated.keySet().retainAll(present);
+		pending.keySet().retainAll(present);
+
+		for (File f : files) {
+			Stamp stamp = new Stamp(f);
+			Pending p = pending.get(f);
+			if (p != null) {
+				if (!stamp.equals(p.stamp))
+					pending.put(f, new Pending(stamp, now));
+			} else if (!stamp.equals(validated.get(f)))
+				pending.put(f, new Pending(stamp, now));
+		}
+
+		Map<String, List<Assertion>> results = new LinkedHashMap<String, List<Assertion>>();
+		for (File f : files) {
+			Pending p = pending.get(f);
+			if (p == null || now - p.since < quiet)
+				continue;
+			pending.remove(f);
+			validated.put(f, p.stamp);
+			results.put(f.getName(), validate(f));
+		}
+		return results;
+	}
+
+	private List<Assertion> validate(File file) {
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				return validator.validate(in, file.toURI().toString(), profile);
+			} finally {
+				in.close();
+			}
+		} catch (XMLStreamException e) {
+			return unreadable(file, e);
+		} catch (IOException e) {
+			return unreadable(file, e);
+		}
+	}
+
+	private List<Assertion> unreadable(File file, Exception e) {
+		log.warn("failed to read " + file + ": " + e.getMessage());
+		return Collections.<Assertion> singletonList(new Fail(
+				COMPONENT_UNREADABLE, e.getMessage()));
+	}
+
+	/** What is known of a file without reading it. */
+	private static class Stamp {
+		final long modified;
+		final long length;
+
+		Stamp(File f) {
+			modified = f.lastModified();
+			length = f.length();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Stamp))
+				return false;
+			Stamp s = (Stamp) o;
+			return modified == s.modified && length == s.length;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (modified ^ modified >>> 32) * 31 + (int) length;
+		}
+	}
+
+	private static class Pending {
+		final Stamp stamp;
+		final long since;
+
+		Pending(Stamp stamp, long since) {
+			this.stamp = stamp;
+			this.since = since;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package org.taverna.component.validator;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.taverna.component.validator.ComponentModel.Activity;
+import org.taverna.component.validator.ComponentModel.Annotations;
+import org.taverna.component.validator.ComponentModel.Port;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * A digest of the part of a component that a constraint looks at. If the
+ * fingerprint of a constraint's inputs is unchanged, so is the outcome of
+ * checking it.
+ */
+final class Fingerprint {
+	private final byte[] digest;
+	private final int hash;
+
+	private Fingerprint(byte[] digest) {
+		this.digest = digest;
+		this.hash = Arrays.hashCode(digest);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof Fingerprint
+				&& Arrays.equals(digest, ((Fingerprint) o).digest);
+	}
+
+	/**
+	 * Accumulates the parts of a fingerprint. Strings are length-prefixed so
+	 * that different sequences of parts cannot collide by concatenation.
+	 */
+	static class Builder {
+		private final MessageDigest md;
+
+		Builder(String kind) {
+			try {
+				md = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("SHA-256 not supported", e);
+			}
+			add(kind);
+		}
+
+		Builder add(@Nullable String part) {
+			if (part == null) {
+				addInt(-1);
+				return this;
+			}
+			try {
+				byte[] bytes = part.getBytes("UTF-8");
+				addInt(bytes.length);
+				md.update(bytes);
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException("UTF-8 not supported", e);
+			}
+			return this;
+		}
+
+		Builder add(Fingerprint part) {
+			md.update(part.digest);
+			return this;
+		}
+
+		Builder addInt(int value) {
+			md.update((byte) (value >>> 24));
+			md.update((byte) (value >>> 16));
+			md.update((byte) (value >>> 8));
+			md.update((byte) value);
+			return this;
+		}
+
+		Fingerprint build() {
+			return new Fingerprint(md.digest());
+		}
+	}
+
+	/**
+	 * The fingerprints of the sections of one component: each port, each
+	 * activity and the component-level annotations. Each section is digested
+	 * at most once. Not thread-safe.
+	 */
+	static class Sections {
+		private final ComponentIndex component;
+		private final Map<Object, Fingerprint> memo = new IdentityHashMap<Object, Fingerprint>();
+		private Fingerprint annotations;
+
+		Sections(ComponentIndex component) {
+			this.component = component;
+		}
+
+		ComponentIndex getComponent() {
+			return component;
+		}
+
+		/** The component-level annotations. */
+		Fingerprint annotations() {
+			if (annotations == null)
+				annotations = digest(new Builder("component"),
+						component.getAnnotations()).build();
+			return annotations;
+		}
+
+		/**
+		 * The first port with the given name, or a marker for its absence.
+		 */
+		Fingerprint port(boolean input, String name) {
+			Port port = component.getPort(input, name);
+			if (port == null)
+				return new Builder("absent").add(input ? "in" : "out")
+						.add(name).build();
+			return port(port);
+		}
+
+		/** All the ports in one direction, in order. */
+		Fingerprint ports(boolean input) {
+			List<Port> ports = component.getPorts(input);
+			Builder b = new Builder("ports").addInt(ports.size());
+			for (Port p : ports)
+				b.add(port(p));
+			return b.build();
+		}
+
+		/** The activities of a class (or all of them), in order. */
+		Fingerprint activities(@Nullable String activityClass) {
+			List<Activity> activities = component
+					.getActivities(activityClass);
+			Builder b = new Builder("activities").add(activityClass).addInt(
+					activities.size());
+			for (Activity a : activities)
+				b.add(activity(a));
+			return b.build();
+		}
+
+		private Fingerprint port(Port port) {
+			Fingerprint f = memo.get(port);
+			if (f == null) {
+				f = digest(new Builder("port").add(port.getName()).add(
+						port.getDepth()), port.getAnnotations()).build();
+				memo.put(port, f);
+			}
+			return f;
+		}
+
+		private Fingerprint activity(Activity activity) {
+			Fingerprint f = memo.get(activity);
+			if (f == null) {
+				f = digest(new Builder("activity").add(activity.getType()),
+						activity.getAnnotations()).build();
+				memo.put(activity, f);
+			}
+			return f;
+		}
+
+		private static Builder digest(Builder b, Annotations annotations) {
+			for (String beanClass : annotations.classes()) {
+				List<String> contents = annotations.contents(beanClass);
+				b.add(beanClass).addInt(contents.size());
+				for (String content : contents)
+					b.add(content);
+			}
+			return b;
+		}
+	}
+}
@@ -0,0 +1,356 @@
+package org.taverna.component.validator;
+
+import static java.lang.Boolean.getBoolean;
+import static java.lang.Long.getLong;
+import static java.lang.System.currentTimeMillis;
+import static java.lang.System.getProperty;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.util.Collections.newSetFromMap;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * A persistent cache of ontology documents, keyed by the URI of the ontology.
+ * Each entry is a copy of the document together with the validators (ETag and
+ * Last-Modified) that the server supplied with it. Fresh entries are served
+ * without touching the network; stale entries are served immediately while a
+ * conditional request refreshes them in the background. In offline mode, the
+ * network is never used at all and only cached documents are available.
+ * <p>
+ * Only HTTP(S) ontologies are cached; other URLs are simply opened.
+ */
+public class OntologyCache {
+	/** System property naming the cache directory. */
+	public static final String CACHE_DIR_PROPERTY = "validator.ontology.cache";
+	/** System property enabling offline mode. */
+	public static final String OFFLINE_PROPERTY = "validator.ontology.offline";
+	/** System property giving the maximum age of a fresh entry, in seconds. */
+	public static final String MAX_AGE_PROPERTY = "validator.ontology.maxAge";
+	private static final long DEFAULT_MAX_AGE = 24 * 60 * 60;
+	private static final int DEFAULT_TIMEOUT = 30000;
+	private static final String ACCEPT = "application/rdf+xml,application/xml;q=0.9";
+	private static final String URI = "uri";
+	private static final String ETAG = "etag";
+	private static final String LAST_MODIFIED = "lastModified";
+	private static final String FETCHED = "fetched";
+
+	private final Logger log = getLogger(OntologyCache.class);
+	private final File directory;
+	private final boolean offline;
+	private final long maxAge;
+	private int timeout = DEFAULT_TIMEOUT;
+	private final Set<String> refreshing = newSetFromMap(
+			new ConcurrentHashMap<String, Boolean>());
+	private ExecutorService refresher;
+
+	/**
+	 * @param directory
+	 *            Where to keep the cached documents. Created if necessary.
+	 * @param offline
+	 *            If true, never use the network.
+	 * @param maxAge
+	 *            How long (in milliseconds) an entry is used without checking
+	 *            whether it is still current.
+	 */
+	public OntologyCache(File directory, boolean offline, long maxAge) {
+		this.directory = directory;
+		this.offline = offline;
+		this.maxAge = maxAge;
+		if (!directory.isDirectory() && !directory.mkdirs())
+			log.warn("failed to create ontology cache directory " + directory);
+	}
+
+	/**
+	 * Construct a cache from the {@value #CACHE_DIR_PROPERTY},
+	 * {@value #OFFLINE_PROPERTY} and {@value #MAX_AGE_PROPERTY} system
+	 * properties.
+	 *
+	 * @return The cache, or <tt>null</tt> if no cache directory is configured.
+	 */
+	public static OntologyCache fromSystemProperties() {
+		String dir = getProperty(CACHE_DIR_PROPERTY);
+		if (dir == null || dir.isEmpty())
+			return null;
+		return new OntologyCache(new File(dir), getBoolean(OFFLINE_PROPERTY),
+				getLong(MAX_AGE_PROPERTY, DEFAULT_MAX_AGE) * 1000);
+	}
+
+	/**
+	 * Set the connect and read timeouts used when talking to ontology hosts.
+	 */
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	public boolean isOffline() {
+		return offline;
+	}
+
+	/**
+	 * Get the content of an ontology document, from the cache if possible.
+	 *
+	 * @param ontologyURI
+	 *            The location of the ontology.
+	 * @return A stream over the document. The caller must close it.
+	 * @throws FileNotFoundException
+	 *             If in offline mode and the ontology is not cached.
+	 * @throws IOException
+	 *             If the document cannot be fetched.
+	 */
+	public InputStream open(String ontologyURI) throws IOException {
+		return open(ontologyURI, timeout);
+	}
+
+	/**
+	 * Get the content of an ontology document, from the cache if possible.
+	 *
+	 * @param ontologyURI
+	 *            The location of the ontology.
+	 * @param timeout
+	 *            The connect and read timeout, in milliseconds, for any
+	 *            request made to the ontology's host, including one to
+	 *            refresh the entry in the background.
+	 * @return A stream over the document. The caller must close it.
+	 * @throws FileNotFoundException
+	 *             If in offline mode and the ontology is not cached.
+	 * @throws IOException
+	 *             If the document cannot be fetched.
+	 */
+	public InputStream open(String ontologyURI, int timeout)
+			throws IOException {
+		URL url = new URL(ontologyURI);
+		if (!url.getProtocol().startsWith("http"))
+			return url.openStream();
+
+		String key = key(ontologyURI);
+		File data = new File(directory, key + ".rdf");
+		Properties meta = readMetadata(key);
+		if (meta == null || !data.isFile()) {
+			if (offline)
+				throw new FileNotFoundException("ontology " + ontologyURI
+						+ " is not cached and network access is disabled");
+			fetch(ontologyURI, key, null, timeout);
+		} else if (!offline
+				&& currentTimeMillis() - fetchTime(meta) > maxAge)
+			refreshInBackground(ontologyURI, key, meta, timeout);
+		return new BufferedInputStream(new FileInputStream(data));
+	}
+
+	/**
+	 * Say which version of an ontology document the cache holds, without
+	 * reading it. As with {@link #open(String, int)}, a stale entry is
+	 * refreshed in the background, so a later call sees any change.
+	 *
+	 * @param ontologyURI
+	 *            The location of the ontology.
+	 * @param timeout
+	 *            The connect and read timeout, in milliseconds, for any
+	 *            refresh.
+	 * @return The ETag or Last-Modified date the server gave for the cached
+	 *         copy, or <tt>null</tt> if the ontology is not fetched over HTTP,
+	 *         is not cached, or the server gave neither.
+	 */
+	@Nullable
+	public String getVersion(String ontologyURI, int timeout) {
+		if (!ontologyURI.startsWith("http:")
+				&& !ontologyURI.startsWith("https:"))
+			return null;
+		String key = key(ontologyURI);
+		Properties meta = readMetadata(key);
+		if (meta == null || !new File(directory, key + ".rdf").isFile())
+			return null;
+		if (!offline && currentTimeMillis() - fetchTime(meta) > maxAge)
+			refreshInBackground(ontologyURI, key, meta, timeout);
+		if (meta.getProperty(ETAG) != null)
+			return "ETag " + meta.getProperty(ETAG);
+		if (meta.getProperty(LAST_MODIFIED) != null)
+			return "Last-Modified " + meta.getProperty(LAST_MODIFIED);
+		return null;
+	}
+
+	private static long fetchTime(Properties meta) {
+		try {
+			return Long.parseLong(meta.getProperty(FETCHED, "0"));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private synchronized void refreshInBackground(final String ontologyURI,
+			final String key, final Properties meta, final int timeout) {
+		if (!refreshing.add(key))
+			return;
+		if (refresher == null)
+			refresher = newSingleThreadExecutor(new DaemonThreadFactory(
+					"ontology-cache-refresher"));
+		refresher.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					fetch(ontologyURI, key, meta, timeout);
+				} catch (IOException e) {
+					log.warn("failed to refresh ontology " + ontologyURI
+							+ "; continuing to use cached copy: "
+							+ e.getMessage());
+				} finally {
+					refreshing.remove(key);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Retrieve a document and store it in the cache. If we have metadata from
+	 * a previous fetch, the request is made conditional on the document having
+	 * changed. The document is asked for compressed, and stored uncompressed.
+	 */
+	private void fetch(String ontologyURI, String key, Properties previous,
+			int timeout) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(ontologyURI)
+				.openConnection();
+		conn.setConnectTimeout(timeout);
+		conn.setReadTimeout(timeout);
+		/* CRITICAL: must be retrieved as correct content type */
+		conn.addRequestProperty("Accept", ACCEPT);
+		conn.addRequestProperty("Accept-Encoding", "gzip");
+		if (previous != null) {
+			if (previous.getProperty(ETAG) != null)
+				conn.addRequestProperty("If-None-Match",
+						previous.getProperty(ETAG));
+			if (previous.getProperty(LAST_MODIFIED) != null)
+				conn.addRequestProperty("If-Modified-Since",
+						previous.getProperty(LAST_MODIFIED));
+		}
+		try {
+			int code = conn.getResponseCode();
+			if (code == HTTP_NOT_MODIFIED && previous != null) {
+				log.debug("ontology " + ontologyURI + " is unchanged");
+				previous.setProperty(FETCHED,
+						Long.toString(currentTimeMillis()));
+				writeMetadata(key, previous);
+				return;
+			}
+			if (code != HTTP_OK)
+				throw new IOException("failed to fetch ontology "
+						+ ontologyURI + ": " + code + " "
+						+ conn.getResponseMessage());
+			File tmp = File.createTempFile(key, ".tmp", directory);
+			try {
+				InputStream in = conn.getInputStream();
+				if ("gzip".equalsIgnoreCase(conn.getContentEncoding()))
+					in = new GZIPInputStream(in);
+				copy(in, tmp);
+				Properties meta = new Properties();
+				meta.setProperty(URI, ontologyURI);
+				meta.setProperty(FETCHED, Long.toString(currentTimeMillis()));
+				if (conn.getHeaderField("ETag") != null)
+					meta.setProperty(ETAG, conn.getHeaderField("ETag"));
+				if (conn.getHeaderField("Last-Modified") != null)
+					meta.setProperty(LAST_MODIFIED,
+							conn.getHeaderField("Last-Modified"));
+				replace(tmp, new File(directory, key + ".rdf"));
+				writeMetadata(key, meta);
+			} finally {
+				tmp.delete();
+			}
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	private Properties readMetadata(String key) {
+		File f = new File(directory, key + ".properties");
+		if (!f.isFile())
+			return null;
+		Properties meta = new Properties();
+		try {
+			InputStream in = new FileInputStream(f);
+			try {
+				meta.load(in);
+			} finally {
+				in.close();
+			}
+			return meta;
+		} catch (IOException e) {
+			log.warn("ignoring unreadable ontology cache entry " + f, e);
+			return null;
+		}
+	}
+
+	private void writeMetadata(String key, Properties meta) throws IOException {
+		File tmp = File.createTempFile(key, ".tmp", directory);
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				meta.store(out, meta.getProperty(URI));
+			} finally {
+				out.close();
+			}
+			replace(tmp, new File(directory, key + ".properties"));
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	private static void copy(InputStream in, File file) throws IOException {
+		try {
+			OutputStream out = new FileOutputStream(file);
+			try {
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) >= 0)
+					out.write(buffer, 0, n);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Move a file into place, so that readers never see partial content. */
+	private static void replace(File from, File to) throws IOException {
+		if (!from.renameTo(to)) {
+			to.delete();
+			if (!from.renameTo(to))
+				throw new IOException("failed to update cache entry " + to);
+		}
+	}
+
+	private static String key(String uri) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			StringBuilder sb = new StringBuilder();
+			for (byte b : md.digest(uri.getBytes("UTF-8")))
+				sb.append(String.format("%02x", b));
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 not supported", e);
+		} catch (IOException e) {
+			throw new IllegalStateException("UTF-8 not supported", e);
+		}
+	}
+}
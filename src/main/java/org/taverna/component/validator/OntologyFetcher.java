@@ -0,0 +1,311 @@
+package org.taverna.component.validator;
+
+import static com.hp.hpl.jena.rdf.model.ModelFactory.createOntologyModel;
+import static java.lang.Integer.getInteger;
+import static java.lang.System.nanoTime;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+
+import com.hp.hpl.jena.ontology.OntModel;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * Loads the ontologies that a profile chain uses, all at once, so that the
+ * time taken is that of the slowest host rather than the sum of them all.
+ * HTTP requests have connect and read timeouts, ask for compressed content,
+ * and are retried with exponential backoff if they fail for reasons that may
+ * be transient (I/O errors and server errors). Response bodies are read to
+ * the end before parsing so that the JDK can reuse the connection for the
+ * next request to the same host. The same timeouts and compression apply
+ * when documents are fetched through an {@link OntologyCache}. How long each
+ * ontology took to load is recorded.
+ */
+public class OntologyFetcher {
+	/** System property giving the connect and read timeout, in milliseconds. */
+	public static final String TIMEOUT_PROPERTY = "validator.ontology.timeout";
+	/** System property giving how many times to retry a failed fetch. */
+	public static final String RETRIES_PROPERTY = "validator.ontology.retries";
+	/** System property giving how many ontologies to fetch at once. */
+	public static final String THREADS_PROPERTY = "validator.ontology.threads";
+	private static final int DEFAULT_TIMEOUT = 30000;
+	private static final int DEFAULT_RETRIES = 2;
+	private static final int DEFAULT_THREADS = 8;
+	private static final long BACKOFF = 250;
+	private static final String ACCEPT = "application/rdf+xml,application/xml;q=0.9";
+
+	private final Logger log = getLogger(OntologyFetcher.class);
+	private final int timeout;
+	private final int retries;
+	private final int threads;
+	private volatile long backoff = BACKOFF;
+	private ExecutorService executor;
+	private final Map<String, Long> timings = new ConcurrentHashMap<String, Long>();
+
+	public OntologyFetcher() {
+		this(DEFAULT_TIMEOUT, DEFAULT_RETRIES, DEFAULT_THREADS);
+	}
+
+	/**
+	 * @param timeout
+	 *            The connect and read timeout, in milliseconds.
+	 * @param retries
+	 *            How many times to retry a fetch that failed transiently.
+	 * @param threads
+	 *            How many ontologies may be fetched at once.
+	 */
+	public OntologyFetcher(int timeout, int retries, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("need at least one thread");
+		this.timeout = timeout;
+		this.retries = retries;
+		this.threads = threads;
+	}
+
+	public static OntologyFetcher fromSystemProperties() {
+		return new OntologyFetcher(
+				getInteger(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT), getInteger(
+						RETRIES_PROPERTY, DEFAULT_RETRIES), getInteger(
+						THREADS_PROPERTY, DEFAULT_THREADS));
+	}
+
+	/**
+	 * Set how long to wait before the first retry, in milliseconds. Each
+	 * further retry waits twice as long as the one before.
+	 */
+	public void setBackoff(long backoff) {
+		this.backoff = backoff;
+	}
+
+	/**
+	 * Load several ontologies in parallel.
+	 *
+	 * @param ontologyURIs
+	 *            Where the ontologies are.
+	 * @param cache
+	 *            Where ontology documents are cached between runs, or
+	 *            <tt>null</tt> to always fetch them directly.
+	 * @return The loaded ontologies, keyed by URI, in the order given.
+	 * @throws IOException
+	 *             If any of the ontologies cannot be loaded; the others are
+	 *             abandoned.
+	 */
+	public Map<String, OntModel> fetchAll(Collection<String> ontologyURIs,
+			@Nullable OntologyCache cache) throws IOException {
+		return fetchAll(ontologyURIs, cache, null);
+	}
+
+	/**
+	 * Load several ontologies in parallel, unless they are already loaded.
+	 *
+	 * @param ontologyURIs
+	 *            Where the ontologies are.
+	 * @param cache
+	 *            Where ontology documents are cached between runs, or
+	 *            <tt>null</tt> to always fetch them directly.
+	 * @param models
+	 *            Where loaded ontologies are kept, or <tt>null</tt> to always
+	 *            load them. A kept ontology is loaded again if the
+	 *            {@linkplain #version(String, OntologyCache) version} of its
+	 *            document has changed.
+	 * @return The loaded ontologies, keyed by URI, in the order given.
+	 * @throws IOException
+	 *             If any of the ontologies cannot be loaded; the others are
+	 *             abandoned.
+	 */
+	public Map<String, OntModel> fetchAll(Collection<String> ontologyURIs,
+			@Nullable final OntologyCache cache,
+			@Nullable final OntologyModelCache models) throws IOException {
+		Map<String, Future<OntModel>> pending = new LinkedHashMap<String, Future<OntModel>>();
+		ExecutorService executor = getExecutor();
+		for (final String uri : ontologyURIs)
+			if (!pending.containsKey(uri))
+				pending.put(uri, executor.submit(new Callable<OntModel>() {
+					@Override
+					public OntModel call() throws IOException,
+							InterruptedException {
+						if (models == null)
+							return fetch(uri, cache);
+						return models.get(uri, version(uri, cache),
+								new Callable<OntModel>() {
+									@Override
+									public OntModel call() throws IOException,
+											InterruptedException {
+										return fetch(uri, cache);
+									}
+								});
+					}
+				}));
+		Map<String, OntModel> result = new LinkedHashMap<String, OntModel>();
+		try {
+			for (Map.Entry<String, Future<OntModel>> e : pending.entrySet())
+				result.put(e.getKey(), e.getValue().get());
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted loading ontologies");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IOException("failed to load ontology", cause);
+		} finally {
+			for (Future<OntModel> f : pending.values())
+				f.cancel(true);
+		}
+	}
+
+	/**
+	 * Say which version of an ontology would be loaded, without loading it.
+	 * For a local file, this is its modification time and length; for a
+	 * document fetched over HTTP, it is what the cache knows of it.
+	 *
+	 * @return The version, or <tt>null</tt> if it cannot be known without
+	 *         loading the ontology.
+	 */
+	@Nullable
+	String version(String ontologyURI, @Nullable OntologyCache cache) {
+		if (ontologyURI.startsWith("file:"))
+			try {
+				File f = new File(new URI(ontologyURI));
+				if (!f.isFile())
+					return null;
+				return f.lastModified() + ":" + f.length();
+			} catch (URISyntaxException e) {
+				return null;
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+		return cache != null ? cache.getVersion(ontologyURI, timeout) : null;
+	}
+
+	/** Load a single ontology, retrying if that fails transiently. */
+	OntModel fetch(String ontologyURI, @Nullable OntologyCache cache)
+			throws IOException, InterruptedException {
+		long start = nanoTime();
+		for (int attempt = 0;; attempt++) {
+			try {
+				OntModel model = cache != null ? read(ontologyURI,
+						cache.open(ontologyURI, timeout)) : load(ontologyURI);
+				long elapsed = NANOSECONDS.toMillis(nanoTime() - start);
+				timings.put(ontologyURI, elapsed);
+				log.debug("loaded ontology " + ontologyURI + " in " + elapsed
+						+ "ms (" + (attempt + 1) + " attempts)");
+				return model;
+			} catch (FileNotFoundException e) {
+				// Not found, or offline and not cached; retrying won't help
+				throw e;
+			} catch (IOException e) {
+				if (attempt >= retries) {
+					log.error("failed to load ontology from " + ontologyURI
+							+ " because of " + e.getMessage());
+					throw e;
+				}
+				long delay = backoff << attempt;
+				log.warn("failed to load ontology from " + ontologyURI
+						+ " because of " + e.getMessage() + "; retrying in "
+						+ delay + "ms");
+				Thread.sleep(delay);
+			}
+		}
+	}
+
+	private OntModel load(String ontologyURI) throws IOException {
+		URLConnection conn = new URL(ontologyURI).openConnection();
+		conn.setConnectTimeout(timeout);
+		conn.setReadTimeout(timeout);
+		if (conn instanceof HttpURLConnection) {
+			/* CRITICAL: must be retrieved as correct content type */
+			conn.addRequestProperty("Accept", ACCEPT);
+			conn.addRequestProperty("Accept-Encoding", "gzip");
+			int code = ((HttpURLConnection) conn).getResponseCode();
+			if (code >= 500)
+				throw new IOException("failed to fetch ontology "
+						+ ontologyURI + ": " + code + " "
+						+ ((HttpURLConnection) conn).getResponseMessage());
+		}
+		InputStream in = conn.getInputStream();
+		if ("gzip".equalsIgnoreCase(conn.getContentEncoding()))
+			in = new GZIPInputStream(in);
+		/*
+		 * The parser closes the stream when it is done, maybe before the end;
+		 * read it all first so that the connection can be reused.
+		 */
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try {
+			byte[] b = new byte[8192];
+			int n;
+			while ((n = in.read(b)) >= 0)
+				buffer.write(b, 0, n);
+		} finally {
+			in.close();
+		}
+		return read(ontologyURI,
+				new ByteArrayInputStream(buffer.toByteArray()));
+	}
+
+	/** Parse an ontology document, then close the stream. */
+	private static OntModel read(String ontologyURI, InputStream in)
+			throws IOException {
+		try {
+			OntModel model = createOntologyModel();
+			// Let Jena work out the character encoding
+			model.read(new BufferedInputStream(in), ontologyURI);
+			return model;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * How long (in milliseconds) the most recent successful load of each
+	 * ontology took, including any retries.
+	 */
+	public Map<String, Long> getTimings() {
+		return unmodifiableMap(new HashMap<String, Long>(timings));
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null)
+			executor = Executors.newFixedThreadPool(threads,
+					new DaemonThreadFactory("ontology-fetcher"));
+		return executor;
+	}
+
+	/** Stop the fetching threads; they are restarted if needed again. */
+	public synchronized void shutdown() {
+		if (executor != null)
+			executor.shutdownNow();
+		executor = null;
+	}
+}
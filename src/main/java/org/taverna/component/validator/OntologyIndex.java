@@ -0,0 +1,202 @@
+package org.taverna.component.validator;
+
+import static com.hp.hpl.jena.rdf.model.ResourceFactory.createResource;
+import static com.hp.hpl.jena.vocabulary.RDF.type;
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableMap;
+import static org.taverna.component.validator.CompiledProfile.SKOS_LABEL;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.hp.hpl.jena.ontology.Individual;
+import com.hp.hpl.jena.ontology.OntClass;
+import com.hp.hpl.jena.ontology.OntModel;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.ResIterator;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * The class membership of every named individual in an ontology, computed
+ * once when the ontology is loaded so that checking whether an individual is
+ * in a class does not have to go through the reasoner. Class URIs are
+ * interned to small integers, and each individual maps to the set of all its
+ * classes, direct or inferred. Instances are immutable once built, apart
+ * from a memo of the labels of the terms that have been looked up.
+ */
+class OntologyIndex {
+	/** The ID of a class that is not in the ontology. */
+	static final int NO_CLASS = -1;
+
+	private final OntModel model;
+	private final Map<String, Integer> classIds = new HashMap<String, Integer>();
+	private final Map<String, BitSet> individuals = new HashMap<String, BitSet>();
+	private final ConcurrentMap<String, String> labels = new ConcurrentHashMap<String, String>();
+
+	OntologyIndex(OntModel model) {
+		this.model = model;
+		// Reasoning over the model is not thread-safe
+		synchronized (model) {
+			ResIterator it = model.listSubjectsWithProperty(type);
+			try {
+				while (it.hasNext()) {
+					Resource r = it.next();
+					if (r.isURIResource() && !individuals.containsKey(r.getURI()))
+						index(r.getURI());
+				}
+			} finally {
+				it.close();
+			}
+		}
+	}
+
+	/**
+	 * Reassemble an index, as read from a {@link ProfileBundle}. There is no
+	 * ontology model behind it, so labels are just the local parts of URIs.
+	 *
+	 * @param classURIs
+	 *            The classes, in order of their IDs.
+	 * @param individuals
+	 *            The IDs of the classes of each individual.
+	 */
+	OntologyIndex(List<String> classURIs, Map<String, BitSet> individuals) {
+		this.model = null;
+		for (String uri : classURIs)
+			intern(uri);
+		this.individuals.putAll(individuals);
+	}
+
+	private void index(String uri) {
+		Individual individual = model.getIndividual(uri);
+		if (individual == null)
+			return;
+		BitSet classes = new BitSet();
+		for (OntClass c : individual.listOntClasses(false).toList())
+			if (c.isURIResource())
+				classes.set(intern(c.getURI()));
+		individuals.put(uri, classes);
+	}
+
+	private int intern(String classURI) {
+		Integer id = classIds.get(classURI);
+		if (id == null) {
+			id = classIds.size();
+			classIds.put(classURI, id);
+		}
+		return id;
+	}
+
+	/**
+	 * The ontology that this indexes, or <tt>null</tt> if it was read from a
+	 * bundle.
+	 */
+	@Nullable
+	OntModel getModel() {
+		return model;
+	}
+
+	/** The URIs of the classes, in order of their IDs. */
+	List<String> getClassURIs() {
+		String[] uris = new String[classIds.size()];
+		for (Map.Entry<String, Integer> e : classIds.entrySet())
+			uris[e.getValue()] = e.getKey();
+		return asList(uris);
+	}
+
+	/** The IDs of the classes of each individual. */
+	Map<String, BitSet> getIndividuals() {
+		return unmodifiableMap(individuals);
+	}
+
+	/**
+	 * @param classURI
+	 *            The URI of a class, or <tt>null</tt>.
+	 * @return The interned ID of the class, or {@link #NO_CLASS} if no
+	 *         individual of the ontology is in it.
+	 */
+	int getClassId(@Nullable String classURI) {
+		Integer id = classURI == null ? null : classIds.get(classURI);
+		return id == null ? NO_CLASS : id;
+	}
+
+	/**
+	 * Whether the ontology says that a node is an individual of a class.
+	 *
+	 * @param classId
+	 *            The class, as given by {@link #getClassId(String)}.
+	 */
+	boolean isInClass(RDFNode node, int classId) {
+		if (classId == NO_CLASS || !node.isURIResource())
+			return false;
+		BitSet classes = individuals.get(node.asResource().getURI());
+		return classes != null && classes.get(classId);
+	}
+
+	/**
+	 * The human-readable name of a term: its SKOS preferred label if it has
+	 * one, otherwise the local part of its URI. Each term is looked up in the
+	 * ontology at most once.
+	 */
+	String getLabel(String uri) {
+		String label = labels.get(uri);
+		if (label == null && model == null)
+			return createResource(uri).getLocalName();
+		if (label == null) {
+			synchronized (model) {
+				Resource node = model.createResource(uri);
+				Statement s = node.getProperty(model.createProperty(SKOS_LABEL));
+				label = (s == null ? node.getLocalName() : s.getObject()
+						.asLiteral().getString());
+			}
+			labels.putIfAbsent(uri, label);
+		}
+		return label;
+	}
+
+	/**
+	 * The human-readable name of a predicate, qualified with the name of the
+	 * instance it requires (if any).
+	 */
+	String getName(String predicate, @Nullable String instance) {
+		String name = getLabel(predicate);
+		if (instance != null && !instance.isEmpty())
+			name += "(" + getLabel(instance) + ")";
+		return name;
+	}
+
+	/** The number of individuals indexed. */
+	int size() {
+		return individuals.size();
+	}
+
+	/**
+	 * Index several ontologies, indexing each distinct model only once.
+	 *
+	 * @param ontologies
+	 *            The ontologies, keyed however the caller likes.
+	 * @return The indexes, with the same keys.
+	 */
+	static Map<String, OntologyIndex> index(Map<String, OntModel> ontologies) {
+		Map<OntModel, OntologyIndex> done = new IdentityHashMap<OntModel, OntologyIndex>();
+		Map<String, OntologyIndex> result = new HashMap<String, OntologyIndex>();
+		for (Map.Entry<String, OntModel> e : ontologies.entrySet()) {
+			if (e.getValue() == null)
+				continue;
+			OntologyIndex idx = done.get(e.getValue());
+			if (idx == null) {
+				idx = new OntologyIndex(e.getValue());
+				done.put(e.getValue(), idx);
+			}
+			result.put(e.getKey(), idx);
+		}
+		return result;
+	}
+}
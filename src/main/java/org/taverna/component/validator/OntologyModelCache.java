@@ -0,0 +1,237 @@
+package org.taverna.component.validator;
+
+import static java.lang.Long.getLong;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.hp.hpl.jena.ontology.OntModel;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * A bounded cache of loaded ontologies, keyed by URI, so that compiling
+ * profiles again in the same JVM does not fetch and parse their ontologies
+ * again. The size of each model is taken to be the number of triples in its
+ * base graph; when the total exceeds the budget, the least recently used
+ * models are discarded. When several threads want the same ontology at once,
+ * only one of them loads it and the others wait for it. A model is loaded
+ * again when the version of its document, as far as it can be known without
+ * reading it, changes.
+ * <p>
+ * The models handed out are shared. Callers must not modify them, and must
+ * hold a lock on a model while querying it, as the reasoner that sits behind
+ * it is not thread-safe. Unless told otherwise, all validators use the
+ * {@linkplain #getShared() shared} cache.
+ */
+public class OntologyModelCache {
+	/** System property giving the budget of the shared cache, in triples. */
+	public static final String MAX_TRIPLES_PROPERTY = "validator.ontology.maxTriples";
+	public static final long DEFAULT_MAX_TRIPLES = 2000000;
+	private static OntologyModelCache shared;
+
+	private final long maxTriples;
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(
+			16, 0.75f, true);
+	private final Map<String, FutureTask<OntModel>> loading = new HashMap<String, FutureTask<OntModel>>();
+	private long triples;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param maxTriples
+	 *            How many triples the cached models may have between them.
+	 *            Zero disables caching, though concurrent loads of the same
+	 *            ontology are still shared.
+	 */
+	public OntologyModelCache(long maxTriples) {
+		this.maxTriples = maxTriples;
+	}
+
+	/**
+	 * The cache shared by the whole process, with the budget given by the
+	 * {@value #MAX_TRIPLES_PROPERTY} system property.
+	 */
+	public static synchronized OntologyModelCache getShared() {
+		if (shared == null)
+			shared = new OntologyModelCache(getLong(MAX_TRIPLES_PROPERTY,
+					DEFAULT_MAX_TRIPLES));
+		return shared;
+	}
+
+	/**
+	 * Get an ontology, loading it if it is not already known.
+	 *
+	 * @param uri
+	 *            Where the ontology is.
+	 * @param loader
+	 *            How to load it.
+	 * @return The loaded model. Not to be modified.
+	 * @throws IOException
+	 *             If the ontology cannot be loaded. Failures are not
+	 *             remembered.
+	 */
+	public OntModel get(String uri, Callable<OntModel> loader)
+			throws IOException {
+		return get(uri, null, loader);
+	}
+
+	/**
+	 * Get a version of an ontology, loading it if it is not already known or
+	 * if a different version is.
+	 *
+	 * @param uri
+	 *            Where the ontology is.
+	 * @param version
+	 *            The version of the document, such as its ETag, or
+	 *            <tt>null</tt> if not known. A model loaded when the version
+	 *            was not known is taken to be of the first version asked for.
+	 * @param loader
+	 *            How to load it.
+	 * @return The loaded model. Not to be modified.
+	 * @throws IOException
+	 *             If the ontology cannot be loaded. Failures are not
+	 *             remembered.
+	 */
+	public OntModel get(String uri, @Nullable String version,
+			Callable<OntModel> loader) throws IOException {
+		for (;;) {
+			FutureTask<OntModel> task;
+			boolean mine = false;
+			synchronized (entries) {
+				Entry e = entries.get(uri);
+				if (e != null && e.version == null)
+					e.version = version;
+				if (e != null
+						&& (version == null || version.equals(e.version))) {
+					hits.incrementAndGet();
+					return e.model;
+				}
+				task = loading.get(uri);
+				if (task == null) {
+					task = new FutureTask<OntModel>(loader);
+					loading.put(uri, task);
+					mine = true;
+					misses.incrementAndGet();
+				} else
+					hits.incrementAndGet();
+			}
+			if (mine)
+				load(uri, version, task);
+			try {
+				return task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted loading " + uri);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				// Whoever was loading it gave up; try again ourselves
+				if (!mine && cause instanceof InterruptedException)
+					continue;
+				if (cause instanceof IOException)
+					throw (IOException) cause;
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof InterruptedException)
+					throw new InterruptedIOException("interrupted loading "
+							+ uri);
+				throw new IOException("failed to load ontology " + uri, cause);
+			}
+		}
+	}
+
+	private void load(String uri, @Nullable String version,
+			FutureTask<OntModel> task) {
+		task.run();
+		OntModel model = null;
+		try {
+			model = task.get();
+		} catch (Exception e) {
+			// Reported to every caller by get()
+		}
+		synchronized (entries) {
+			loading.remove(uri);
+			if (model == null)
+				return;
+			long size = model.getBaseModel().size();
+			Entry old = entries.remove(uri);
+			if (old != null)
+				triples -= old.triples;
+			if (size > maxTriples)
+				return;
+			entries.put(uri, new Entry(model, size, version));
+			triples += size;
+			Iterator<Entry> it = entries.values().iterator();
+			while (triples > maxTriples && it.hasNext()) {
+				triples -= it.next().triples;
+				it.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	/** Discard all cached ontologies. */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+			triples = 0;
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/** How many triples the cached models have between them. */
+	public long getTriples() {
+		synchronized (entries) {
+			return triples;
+		}
+	}
+
+	/** How many lookups did not have to load the ontology themselves. */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/** How many lookups loaded the ontology. */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "OntologyModelCache[entries=" + size() + ", triples="
+				+ getTriples() + ", hits=" + getHits() + ", misses="
+				+ getMisses() + ", evictions=" + getEvictions() + "]";
+	}
+
+	private static class Entry {
+		final OntModel model;
+		final long triples;
+		/** Guarded by the lock on the entries. */
+		@Nullable
+		String version;
+
+		Entry(OntModel model, long triples, @Nullable String version) {
+			this.model = model;
+			this.triples = triples;
+			this.version = version;
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package org.taverna.component.validator;
+
+/**
+ * The management interface of the metrics of one phase of validation, as
+ * published by {@link ValidationMetrics#register()}.
+ */
+public interface PhaseMetricsMXBean {
+	/** The name of the phase, as in {@link ValidationMetrics.Phase}. */
+	String getPhase();
+
+	/** How many times the phase has happened. */
+	long getCount();
+
+	/** How long the phase has taken, in total, in milliseconds. */
+	double getTotalMillis();
+
+	/** How long the phase has taken on average, in milliseconds. */
+	double getMeanMillis();
+
+	/** The longest the phase has taken, in milliseconds. */
+	double getMaxMillis();
+
+	/**
+	 * How many times the phase took less than the first of the
+	 * {@linkplain ValidationMetrics#BUCKETS bucket bounds}, then between each
+	 * pair of bounds, then longer than the last.
+	 */
+	long[] getHistogram();
+
+	/** Forget everything recorded so far about the phase. */
+	void reset();
+}
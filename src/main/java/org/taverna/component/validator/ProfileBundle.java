@@ -0,0 +1,505 @@
+package org.taverna.component.validator;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.taverna.component.validator.CompiledProfile.ActivityConstraint;
+import org.taverna.component.validator.CompiledProfile.AnnotationRequirement;
+import org.taverna.component.validator.CompiledProfile.ComponentAnnotationConstraint;
+import org.taverna.component.validator.CompiledProfile.ComponentSemanticConstraint;
+import org.taverna.component.validator.CompiledProfile.Constraint;
+import org.taverna.component.validator.CompiledProfile.PortConstraint;
+import org.taverna.component.validator.CompiledProfile.SemanticConstraint;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * A compiled profile chain saved in a compact binary form, together with the
+ * class memberships from its ontologies that checking needs, so that it can
+ * be loaded without unmarshalling any profile or parsing any ontology. Bundle
+ * files are memory-mapped when read.
+ * <p>
+ * The format is a magic number and version, a table of all the strings in
+ * the bundle, and then the profile IDs, the ontology indexes and the
+ * constraints, with every string given as its index in the table.
+ *
+ * @see #main(String...)
+ */
+public class ProfileBundle {
+	/** The file name extension of bundles. */
+	public static final String EXTENSION = ".bundle";
+	private static final int MAGIC = 0x54435042; // "TCPB"
+	private static final int VERSION = 1;
+	private static final int NONE = -1;
+	private static final byte COMPONENT_ANNOTATION = 1;
+	private static final byte COMPONENT_SEMANTIC = 2;
+	private static final byte PORT = 3;
+	private static final byte ACTIVITY = 4;
+
+	private ProfileBundle() {
+	}
+
+	/** Whether a file name is that of a bundle. */
+	public static boolean isBundle(String name) {
+		return name.toLowerCase().endsWith(EXTENSION);
+	}
+
+	/** Save a compiled profile as a bundle file. */
+	public static void write(CompiledProfile profile, File file)
+			throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			write(profile, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Write a compiled profile as a bundle. The stream is not closed. Equal
+	 * profiles give identical bundles.
+	 */
+	public static void write(CompiledProfile profile, OutputStream stream)
+			throws IOException {
+		Writer w = new Writer();
+		w.writeStrings(profile.getProfileIds());
+		Map<OntologyIndex, Integer> ontologies = new IdentityHashMap<OntologyIndex, Integer>();
+		for (Constraint c : profile.getConstraints())
+			for (SemanticConstraint sc : semantics(c))
+				if (!ontologies.containsKey(sc.ontology))
+					ontologies.put(sc.ontology, ontologies.size());
+		OntologyIndex[] indexes = new OntologyIndex[ontologies.size()];
+		for (Map.Entry<OntologyIndex, Integer> e : ontologies.entrySet())
+			indexes[e.getValue()] = e.getKey();
+		w.out.writeInt(indexes.length);
+		for (OntologyIndex index : indexes) {
+			w.writeStrings(index.getClassURIs());
+			// Sorted, so that the same index is always written the same way
+			Map<String, BitSet> individuals = new TreeMap<String, BitSet>(
+					index.getIndividuals());
+			w.out.writeInt(individuals.size());
+			for (Map.Entry<String, BitSet> e : individuals.entrySet()) {
+				w.writeString(e.getKey());
+				BitSet bits = e.getValue();
+				w.out.writeInt(bits.cardinality());
+				for (int i = bits.nextSetBit(0); i >= 0; i = bits
+						.nextSetBit(i + 1))
+					w.out.writeInt(i);
+			}
+		}
+		w.out.writeInt(profile.getConstraints().size());
+		for (Constraint c : profile.getConstraints())
+			w.writeConstraint(c, ontologies);
+		w.out.flush();
+
+		DataOutputStream out = new DataOutputStream(stream);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(w.strings.size());
+		for (String s : w.strings.keySet()) {
+			byte[] b = s.getBytes("UTF-8");
+			out.writeInt(b.length);
+			out.write(b);
+		}
+		w.body.writeTo(out);
+		out.flush();
+	}
+
+	/**
+	 * A SHA-256 digest of the bundle form of a compiled profile, which is
+	 * the same for profiles that check components the same way.
+	 */
+	static byte[] digest(CompiledProfile profile) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not supported", e);
+		}
+		try {
+			write(profile, new DigestOutputStream(new OutputStream() {
+				@Override
+				public void write(int b) {
+					// Only the digest is wanted
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+					// Only the digest is wanted
+				}
+			}, md));
+		} catch (IOException e) {
+			throw new IllegalStateException("failed to digest profile", e);
+		}
+		return md.digest();
+	}
+
+	/** Load a bundle, memory-mapping it if it is a local file. */
+	public static CompiledProfile read(URL bundle) throws IOException {
+		if (bundle.getProtocol().equals("file"))
+			try {
+				return read(new File(bundle.toURI()));
+			} catch (URISyntaxException e) {
+				// Fall through and read it as a stream
+			}
+		InputStream in = bundle.openStream();
+		try {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			byte[] b = new byte[8192];
+			int n;
+			while ((n = in.read(b)) >= 0)
+				buffer.write(b, 0, n);
+			return read(ByteBuffer.wrap(buffer.toByteArray()),
+					bundle.toString());
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Load a bundle file, memory-mapping it. */
+	public static CompiledProfile read(File bundle) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(bundle, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			// The mapping outlives the channel
+			return read(channel.map(READ_ONLY, 0, channel.size()),
+					bundle.toString());
+		} finally {
+			file.close();
+		}
+	}
+
+	private static CompiledProfile read(ByteBuffer buffer, String name)
+			throws IOException {
+		try {
+			if (buffer.getInt() != MAGIC)
+				throw new IOException("not a profile bundle: " + name);
+			int version = buffer.getInt();
+			if (version != VERSION)
+				throw new IOException("unsupported profile bundle version "
+						+ version + ": " + name);
+			return new Reader(buffer).readProfile();
+		} catch (BufferUnderflowException e) {
+			throw new IOException("truncated profile bundle: " + name);
+		}
+	}
+
+	private static List<SemanticConstraint> semantics(Constraint c) {
+		if (c instanceof ComponentSemanticConstraint)
+			return singletonList(((ComponentSemanticConstraint) c).semantic);
+		if (c instanceof PortConstraint)
+			return ((PortConstraint) c).semantics;
+		if (c instanceof ActivityConstraint)
+			return ((ActivityConstraint) c).semantics;
+		return emptyList();
+	}
+
+	/**
+	 * Compile a profile chain into a bundle.
+	 *
+	 * @param args
+	 *            The profile URL and the bundle file to write.
+	 */
+	public static void main(String... args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("wrong # args: should be \"java -cp Validator.jar "
+					+ ProfileBundle.class.getName()
+					+ " profile-url bundle-file\"");
+			System.exit(1);
+		}
+		URL pwd = new File(".").getAbsoluteFile().toURI().toURL();
+		Validator validator = new Validator();
+		validator.setOntologyCache(OntologyCache.fromSystemProperties());
+		validator.setProfileRegistry(ProfileRegistry.fromSystemProperties());
+		validator.setOntologyFetcher(OntologyFetcher.fromSystemProperties());
+		write(validator.compile(validator.getProfiles(new URL(pwd, args[0])
+				.toString())), new File(args[1]));
+	}
+
+	/** Writes the body of a bundle, collecting the string table as it goes. */
+	private static class Writer {
+		final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(body);
+
+		void writeString(@Nullable String s) throws IOException {
+			if (s == null) {
+				out.writeInt(NONE);
+				return;
+			}
+			Integer i = strings.get(s);
+			if (i == null) {
+				i = strings.size();
+				strings.put(s, i);
+			}
+			out.writeInt(i);
+		}
+
+		void writeStrings(List<String> list) throws IOException {
+			out.writeInt(list.size());
+			for (String s : list)
+				writeString(s);
+		}
+
+		void writeConstraint(Constraint c,
+				Map<OntologyIndex, Integer> ontologies) throws IOException {
+			if (c instanceof ComponentAnnotationConstraint) {
+				out.writeByte(COMPONENT_ANNOTATION);
+				writeString(c.profileId);
+				writeAnnotation(((ComponentAnnotationConstraint) c).annotation);
+			} else if (c instanceof ComponentSemanticConstraint) {
+				out.writeByte(COMPONENT_SEMANTIC);
+				writeString(c.profileId);
+				writeSemantic(((ComponentSemanticConstraint) c).semantic,
+						ontologies);
+			} else if (c instanceof PortConstraint) {
+				PortConstraint pc = (PortConstraint) c;
+				out.writeByte(PORT);
+				writeString(pc.profileId);
+				out.writeBoolean(pc.input);
+				writeString(pc.name);
+				out.writeInt(pc.minOccurs);
+				out.writeInt(pc.minDepth);
+				out.writeInt(pc.maxDepth);
+				writeString(pc.minDepthText);
+				writeString(pc.maxDepthText);
+				writeAnnotations(pc.annotations);
+				writeSemantics(pc.semantics, ontologies);
+				// The selection criteria are always some of the semantics
+				out.writeInt(pc.selectionCriteria.size());
+				for (SemanticConstraint sc : pc.selectionCriteria) {
+					int i = pc.semantics.indexOf(sc);
+					if (i < 0)
+						throw new IOException("selection criterion of port "
+								+ pc.name + " is not one of its semantics");
+					out.writeInt(i);
+				}
+				out.writeBoolean(pc.mandatory);
+			} else if (c instanceof ActivityConstraint) {
+				ActivityConstraint ac = (ActivityConstraint) c;
+				out.writeByte(ACTIVITY);
+				writeString(ac.profileId);
+				writeString(ac.description);
+				writeString(ac.activityClass);
+				out.writeInt(ac.minOccurs);
+				out.writeInt(ac.maxOccurs);
+				writeString(ac.minOccursText);
+				writeString(ac.maxOccursText);
+				writeAnnotations(ac.annotations);
+				writeSemantics(ac.semantics, ontologies);
+			} else
+				throw new IllegalArgumentException(
+						"unknown kind of constraint: " + c.getClass());
+		}
+
+		private void writeAnnotation(AnnotationRequirement ar)
+				throws IOException {
+			writeString(ar.term);
+			writeString(ar.label);
+			writeString(ar.absentLabel);
+		}
+
+		private void writeAnnotations(List<AnnotationRequirement> list)
+				throws IOException {
+			out.writeInt(list.size());
+			for (AnnotationRequirement ar : list)
+				writeAnnotation(ar);
+		}
+
+		private void writeSemantic(SemanticConstraint sc,
+				Map<OntologyIndex, Integer> ontologies) throws IOException {
+			out.writeInt(ontologies.get(sc.ontology));
+			writeString(sc.predicate.getURI());
+			writeString(sc.value == null ? null : sc.value.getURI());
+			writeString(sc.clazz);
+			out.writeInt(sc.minOccurs);
+			out.writeInt(sc.maxOccurs);
+			writeString(sc.minOccursText);
+			writeString(sc.maxOccursText);
+			writeString(sc.label);
+		}
+
+		private void writeSemantics(List<SemanticConstraint> list,
+				Map<OntologyIndex, Integer> ontologies) throws IOException {
+			out.writeInt(list.size());
+			for (SemanticConstraint sc : list)
+				writeSemantic(sc, ontologies);
+		}
+	}
+
+	/** Reads the string table and body of a bundle. */
+	private static class Reader {
+		private final ByteBuffer in;
+		private final String[] strings;
+		private OntologyIndex[] ontologies;
+
+		Reader(ByteBuffer in) throws IOException {
+			this.in = in;
+			strings = new String[in.getInt()];
+			for (int i = 0; i < strings.length; i++) {
+				byte[] b = new byte[in.getInt()];
+				in.get(b);
+				strings[i] = new String(b, "UTF-8");
+			}
+		}
+
+		CompiledProfile readProfile() throws IOException {
+			List<String> ids = readStrings();
+			ontologies = new OntologyIndex[in.getInt()];
+			for (int i = 0; i < ontologies.length; i++) {
+				List<String> classes = readStrings();
+				int n = in.getInt();
+				Map<String, BitSet> individuals = new HashMap<String, BitSet>(
+						n * 2);
+				for (int j = 0; j < n; j++) {
+					String uri = readString();
+					BitSet bits = new BitSet(classes.size());
+					for (int k = in.getInt(); k > 0; k--)
+						bits.set(in.getInt());
+					individuals.put(uri, bits);
+				}
+				ontologies[i] = new OntologyIndex(classes, individuals);
+			}
+			int n = in.getInt();
+			List<Constraint> constraints = new ArrayList<Constraint>(n);
+			for (int i = 0; i < n; i++)
+				constraints.add(readConstraint());
+			return new CompiledProfile(ids, constraints);
+		}
+
+		@Nullable
+		private String readString() throws IOException {
+			int i = in.getInt();
+			if (i == NONE)
+				return null;
+			if (i < 0 || i >= strings.length)
+				throw new IOException("bad string reference in profile bundle");
+			return strings[i];
+		}
+
+		private List<String> readStrings() throws IOException {
+			int n = in.getInt();
+			List<String> list = new ArrayList<String>(n);
+			for (int i = 0; i < n; i++)
+				list.add(readString());
+			return list;
+		}
+
+		private Constraint readConstraint() throws IOException {
+			byte tag = in.get();
+			String profileId = readString();
+			switch (tag) {
+			case COMPONENT_ANNOTATION:
+				return new ComponentAnnotationConstraint(profileId,
+						readAnnotation());
+			case COMPONENT_SEMANTIC:
+				return new ComponentSemanticConstraint(profileId,
+						readSemantic());
+			case PORT: {
+				boolean input = in.get() != 0;
+				String name = readString();
+				int minOccurs = in.getInt();
+				int minDepth = in.getInt();
+				int maxDepth = in.getInt();
+				String minDepthText = readString();
+				String maxDepthText = readString();
+				List<AnnotationRequirement> annotations = readAnnotations();
+				List<SemanticConstraint> semantics = readSemantics();
+				int n = in.getInt();
+				if (n < 0 || n > semantics.size())
+					throw new IOException(
+							"bad selection criteria in profile bundle");
+				List<SemanticConstraint> selectionCriteria = new ArrayList<SemanticConstraint>(
+						n);
+				for (int i = 0; i < n; i++) {
+					int criterion = in.getInt();
+					if (criterion < 0 || criterion >= semantics.size())
+						throw new IOException(
+								"bad selection criterion reference in profile bundle");
+					selectionCriteria.add(semantics.get(criterion));
+				}
+				boolean mandatory = in.get() != 0;
+				return new PortConstraint(profileId, input, name, minOccurs,
+						minDepth, maxDepth, minDepthText, maxDepthText,
+						annotations, semantics, selectionCriteria, mandatory);
+			}
+			case ACTIVITY: {
+				String description = readString();
+				String activityClass = readString();
+				int minOccurs = in.getInt();
+				int maxOccurs = in.getInt();
+				String minOccursText = readString();
+				String maxOccursText = readString();
+				List<AnnotationRequirement> annotations = readAnnotations();
+				return new ActivityConstraint(profileId, description,
+						activityClass, minOccurs, maxOccurs, minOccursText,
+						maxOccursText, annotations, readSemantics());
+			}
+			default:
+				throw new IOException("bad constraint in profile bundle: "
+						+ tag);
+			}
+		}
+
+		private AnnotationRequirement readAnnotation() throws IOException {
+			return new AnnotationRequirement(readString(), readString(),
+					readString());
+		}
+
+		private List<AnnotationRequirement> readAnnotations()
+				throws IOException {
+			int n = in.getInt();
+			List<AnnotationRequirement> list = new ArrayList<AnnotationRequirement>(
+					n);
+			for (int i = 0; i < n; i++)
+				list.add(readAnnotation());
+			return list;
+		}
+
+		private SemanticConstraint readSemantic() throws IOException {
+			int ontology = in.getInt();
+			if (ontology < 0 || ontology >= ontologies.length)
+				throw new IOException(
+						"bad ontology reference in profile bundle");
+			return new SemanticConstraint(readString(), readString(),
+					readString(), in.getInt(), in.getInt(), readString(),
+					readString(), readString(), ontologies[ontology]);
+		}
+
+		private List<SemanticConstraint> readSemantics() throws IOException {
+			int n = in.getInt();
+			List<SemanticConstraint> list = new ArrayList<SemanticConstraint>(
+					n);
+			for (int i = 0; i < n; i++)
+				list.add(readSemantic());
+			return list;
+		}
+	}
+}
@@ -0,0 +1,353 @@
+package org.taverna.component.validator;
+
+import static javax.xml.stream.XMLStreamConstants.CDATA;
+import static javax.xml.stream.XMLStreamConstants.CHARACTERS;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.SPACE;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.URL;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import uk.org.taverna.ns._2012.component.profile.Activity;
+import uk.org.taverna.ns._2012.component.profile.ActivityAnnotation;
+import uk.org.taverna.ns._2012.component.profile.ActivityAnnotations;
+import uk.org.taverna.ns._2012.component.profile.BasicAnnotations;
+import uk.org.taverna.ns._2012.component.profile.Component;
+import uk.org.taverna.ns._2012.component.profile.ComponentAnnotation;
+import uk.org.taverna.ns._2012.component.profile.ComponentAnnotations;
+import uk.org.taverna.ns._2012.component.profile.ExceptionHandling;
+import uk.org.taverna.ns._2012.component.profile.Extends;
+import uk.org.taverna.ns._2012.component.profile.FailLists;
+import uk.org.taverna.ns._2012.component.profile.HandleException;
+import uk.org.taverna.ns._2012.component.profile.Ontology;
+import uk.org.taverna.ns._2012.component.profile.Port;
+import uk.org.taverna.ns._2012.component.profile.PortAnnotation;
+import uk.org.taverna.ns._2012.component.profile.PortAnnotations;
+import uk.org.taverna.ns._2012.component.profile.Profile;
+import uk.org.taverna.ns._2012.component.profile.PruneStack;
+import uk.org.taverna.ns._2012.component.profile.Replacement;
+import uk.org.taverna.ns._2012.component.profile.SemanticAnnotation;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * Reads a component profile document in a single streaming pass into the
+ * same model that JAXB would produce, without the cost of setting up a
+ * {@link javax.xml.bind.JAXBContext}. Elements that the profile schema does
+ * not define are skipped, as JAXB does. Instances may be shared between
+ * threads.
+ */
+public class ProfileReader {
+	static final String PROFILE_NS = "http://ns.taverna.org.uk/2012/component/profile";
+	private final ThreadLocal<XMLInputFactory> factory = new ThreadLocal<XMLInputFactory>() {
+		@Override
+		protected XMLInputFactory initialValue() {
+			XMLInputFactory f = XMLInputFactory.newInstance();
+			f.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+			f.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			f.setProperty(XMLInputFactory.IS_COALESCING, true);
+			return f;
+		}
+	};
+
+	public Profile read(URL profileUrl) throws IOException, XMLStreamException {
+		InputStream in = new BufferedInputStream(profileUrl.openStream());
+		try {
+			return read(in, profileUrl.toString());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read a profile from a stream. The stream is not closed.
+	 *
+	 * @param in
+	 *            The profile document.
+	 * @param systemId
+	 *            Where the document came from, for error messages.
+	 */
+	public Profile read(InputStream in, String systemId)
+			throws XMLStreamException {
+		return read(in, systemId, false);
+	}
+
+	/**
+	 * Read just the part of a profile that says what it is: its ID, name and
+	 * description, what it extends, and its ontologies. Reading stops before
+	 * the constraints on components. The stream is not closed.
+	 *
+	 * @param in
+	 *            The profile document.
+	 * @param systemId
+	 *            Where the document came from, for error messages.
+	 */
+	public Profile readHeader(InputStream in, String systemId)
+			throws XMLStreamException {
+		return read(in, systemId, true);
+	}
+
+	private Profile read(InputStream in, String systemId, boolean headerOnly)
+			throws XMLStreamException {
+		XMLStreamReader r = factory.get().createXMLStreamReader(systemId, in);
+		try {
+			r.nextTag();
+			return new Parse(r).profile(headerOnly);
+		} finally {
+			r.close();
+		}
+	}
+
+	/**
+	 * The state of one parse. Each method is entered positioned on the start
+	 * of an element, and leaves positioned on its end.
+	 */
+	private static class Parse {
+		private final XMLStreamReader r;
+
+		Parse(XMLStreamReader r) {
+			this.r = r;
+		}
+
+		private boolean is(String localName) {
+			return localName.equals(r.getLocalName())
+					&& PROFILE_NS.equals(r.getNamespaceURI());
+		}
+
+		/** Advance to the next child element, or the end of this one. */
+		private boolean nextChild() throws XMLStreamException {
+			while (true) {
+				int event = r.next();
+				if (event == START_ELEMENT)
+					return true;
+				if (event == END_ELEMENT)
+					return false;
+			}
+		}
+
+		Profile profile(boolean headerOnly) throws XMLStreamException {
+			if (!is("profile"))
+				throw new XMLStreamException("not a component profile: "
+						+ r.getName(), r.getLocation());
+			Profile p = new Profile();
+			while (nextChild())
+				if (is("id"))
+					p.setId(text());
+				else if (is("name"))
+					p.setName(text());
+				else if (is("description"))
+					p.setDescription(text());
+				else if (is("extends")) {
+					Extends e = new Extends();
+					e.setProfileId(attribute("profileId"));
+					p.setExtends(e);
+					skip();
+				} else if (is("ontology")) {
+					Ontology o = new Ontology();
+					o.setId(attribute("id"));
+					o.setValue(text());
+					p.getOntology().add(o);
+				} else if (is("component")) {
+					if (headerOnly)
+						break;
+					p.setComponent(component());
+				} else
+					skip();
+			return p;
+		}
+
+		private Component component() throws XMLStreamException {
+			Component c = new Component();
+			while (nextChild())
+				if (is("inputPort"))
+					c.getInputPort().add(port());
+				else if (is("outputPort"))
+					c.getOutputPort().add(port());
+				else if (is("activity"))
+					c.getActivity().add(activity());
+				else if (is("annotation")) {
+					ComponentAnnotation ca = new ComponentAnnotation();
+					ca.setMinOccurs(integer("minOccurs"));
+					ca.setMaxOccurs(attribute("maxOccurs"));
+					BasicAnnotations b = basic();
+					try {
+						ca.setValue(ComponentAnnotations.fromValue(b));
+					} catch (IllegalArgumentException e) {
+						throw notAllowed(b, "components");
+					}
+					c.getAnnotation().add(ca);
+				} else if (is("semanticAnnotation"))
+					c.getSemanticAnnotation().add(semantic());
+				else if (is("exceptionHandling"))
+					c.setExceptionHandling(exceptionHandling());
+				else
+					skip();
+			return c;
+		}
+
+		private Port port() throws XMLStreamException {
+			Port p = new Port();
+			p.setName(attribute("name"));
+			p.setMinDepth(integer("minDepth"));
+			p.setMaxDepth(attribute("maxDepth"));
+			p.setMinOccurs(integer("minOccurs"));
+			p.setMaxOccurs(attribute("maxOccurs"));
+			while (nextChild())
+				if (is("annotation")) {
+					PortAnnotation pa = new PortAnnotation();
+					pa.setMinOccurs(integer("minOccurs"));
+					pa.setMaxOccurs(attribute("maxOccurs"));
+					BasicAnnotations b = basic();
+					try {
+						pa.setValue(PortAnnotations.fromValue(b));
+					} catch (IllegalArgumentException e) {
+						throw notAllowed(b, "ports");
+					}
+					p.getAnnotation().add(pa);
+				} else if (is("semanticAnnotation"))
+					p.getSemanticAnnotation().add(semantic());
+				else
+					skip();
+			return p;
+		}
+
+		private Activity activity() throws XMLStreamException {
+			Activity a = new Activity();
+			a.setType(attribute("type"));
+			a.setMinOccurs(integer("minOccurs"));
+			a.setMaxOccurs(attribute("maxOccurs"));
+			while (nextChild())
+				if (is("annotation")) {
+					ActivityAnnotation aa = new ActivityAnnotation();
+					aa.setMinOccurs(integer("minOccurs"));
+					aa.setMaxOccurs(attribute("maxOccurs"));
+					BasicAnnotations b = basic();
+					try {
+						aa.setValue(ActivityAnnotations.fromValue(b));
+					} catch (IllegalArgumentException e) {
+						throw notAllowed(b, "activities");
+					}
+					a.getAnnotation().add(aa);
+				} else if (is("semanticAnnotation"))
+					a.getSemanticAnnotation().add(semantic());
+				else
+					skip();
+			return a;
+		}
+
+		private SemanticAnnotation semantic() throws XMLStreamException {
+			SemanticAnnotation sa = new SemanticAnnotation();
+			sa.setOntology(attribute("ontology"));
+			sa.setPredicate(attribute("predicate"));
+			sa.setClazz(attribute("class"));
+			sa.setMinOccurs(integer("minOccurs"));
+			sa.setMaxOccurs(attribute("maxOccurs"));
+			sa.setValue(text());
+			return sa;
+		}
+
+		private ExceptionHandling exceptionHandling()
+				throws XMLStreamException {
+			ExceptionHandling eh = new ExceptionHandling();
+			while (nextChild())
+				if (is("failLists")) {
+					eh.setFailLists(new FailLists());
+					skip();
+				} else if (is("handleException"))
+					eh.getHandleException().add(handleException());
+				else
+					skip();
+			return eh;
+		}
+
+		private HandleException handleException() throws XMLStreamException {
+			HandleException he = new HandleException();
+			while (nextChild())
+				if (is("pattern"))
+					he.setPattern(text());
+				else if (is("pruneStack")) {
+					he.setPruneStack(new PruneStack());
+					skip();
+				} else if (is("replacement")) {
+					Replacement rep = new Replacement();
+					rep.setReplacementId(attribute("replacementId"));
+					rep.setReplacementMessage(attribute("replacementMessage"));
+					he.setReplacement(rep);
+					skip();
+				} else
+					skip();
+			return he;
+		}
+
+		@Nullable
+		private String attribute(String name) {
+			return r.getAttributeValue(null, name);
+		}
+
+		/** An integer attribute, or <tt>null</tt> if it is absent. */
+		@Nullable
+		private BigInteger integer(String name) throws XMLStreamException {
+			String value = attribute(name);
+			if (value == null)
+				return null;
+			try {
+				return new BigInteger(value.trim());
+			} catch (NumberFormatException e) {
+				throw new XMLStreamException("bad value for " + name + ": "
+						+ value, r.getLocation());
+			}
+		}
+
+		/** The content of the current element as a basic annotation. */
+		private BasicAnnotations basic() throws XMLStreamException {
+			String value = text().trim();
+			try {
+				return BasicAnnotations.fromValue(value);
+			} catch (IllegalArgumentException e) {
+				throw new XMLStreamException("unknown annotation: " + value,
+						r.getLocation());
+			}
+		}
+
+		private XMLStreamException notAllowed(BasicAnnotations annotation,
+				String what) {
+			return new XMLStreamException(annotation.value()
+					+ " annotations are not allowed on " + what,
+					r.getLocation());
+		}
+
+		private void skip() throws XMLStreamException {
+			while (nextChild())
+				skip();
+		}
+
+		/** The string value of the current element. */
+		private String text() throws XMLStreamException {
+			StringBuilder sb = new StringBuilder();
+			int depth = 0;
+			while (true) {
+				switch (r.next()) {
+				case CHARACTERS:
+				case CDATA:
+				case SPACE:
+					sb.append(r.getText());
+					break;
+				case START_ELEMENT:
+					depth++;
+					break;
+				case END_ELEMENT:
+					if (depth-- == 0)
+						return sb.toString();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,384 @@
+package org.taverna.component.validator;
+
+import static java.lang.Boolean.getBoolean;
+import static java.lang.System.getProperty;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.UnmarshalException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.sax.SAXSource;
+
+import org.slf4j.Logger;
+import org.xml.sax.InputSource;
+
+import uk.org.taverna.ns._2012.component.profile.Profile;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * Finds and loads component profiles, following the chain of profiles that
+ * each extends. Profile IDs are mapped to the documents that define them by a
+ * catalog, and by remembering the IDs of the profiles already loaded. Loaded
+ * documents and profiles are kept, so that validating many components against
+ * the same profiles reads and unmarshals each document only once; a profile
+ * loaded from a local file is reloaded if the file changes. Instances may be
+ * shared between threads and between validators.
+ * <p>
+ * The profiles handed out are shared. Callers must not modify them.
+ */
+public class ProfileRegistry {
+	/** System property naming a catalog file to load. */
+	public static final String CATALOG_PROPERTY = "validator.profile.catalog";
+	/** Where to load the base profile from, if not its usual location. */
+	public static final String BASE_PROFILE_PROPERTY = "validator.baseProfile";
+	/** System property saying to read profiles with JAXB instead of StAX. */
+	public static final String JAXB_PROPERTY = "validator.profile.jaxb";
+	private static final String BASE_PROFILE_URL = "http://build.mygrid.org.uk/taverna/BaseProfile.xml";
+
+	private final Logger log = getLogger(ProfileRegistry.class);
+	private final ProfileReader reader = new ProfileReader();
+	@Nullable
+	private final JAXBContext context;
+	private final Queue<Unmarshaller> unmarshallers = new ConcurrentLinkedQueue<Unmarshaller>();
+	private final Map<String, String> catalog = new ConcurrentHashMap<String, String>();
+	private final Map<String, String> known = new ConcurrentHashMap<String, String>();
+	private final Map<String, Document> documents = new ConcurrentHashMap<String, Document>();
+	private final Map<String, Entry> profiles = new ConcurrentHashMap<String, Entry>();
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+
+	/** Make a registry that reads profiles with a {@link ProfileReader}. */
+	public ProfileRegistry() {
+		context = null;
+	}
+
+	/**
+	 * @param useJAXB
+	 *            Whether to unmarshal profiles with JAXB rather than read them
+	 *            with a {@link ProfileReader}. The two give the same profiles,
+	 *            but JAXB takes much longer to start.
+	 */
+	public ProfileRegistry(boolean useJAXB) throws JAXBException {
+		context = useJAXB ? JAXBContext.newInstance(Profile.class) : null;
+	}
+
+	/**
+	 * Make a registry that uses the catalog named by the
+	 * {@value #CATALOG_PROPERTY} system property, if it is set.
+	 */
+	public static ProfileRegistry fromSystemProperties() throws JAXBException,
+			IOException {
+		ProfileRegistry registry = new ProfileRegistry(getBoolean(JAXB_PROPERTY));
+		String catalog = getProperty(CATALOG_PROPERTY);
+		if (catalog != null && !catalog.isEmpty())
+			registry.loadCatalog(new File(catalog).getAbsoluteFile().toURI()
+					.toURL());
+		return registry;
+	}
+
+	/** Where the base profile, which every chain ends with, is loaded from. */
+	public static String getBaseProfileLocation() {
+		return getProperty(BASE_PROFILE_PROPERTY, BASE_PROFILE_URL);
+	}
+
+	/**
+	 * Add the entries of a catalog. A catalog is a properties file that maps
+	 * profile IDs to the locations of their documents; relative locations are
+	 * relative to the catalog itself.
+	 */
+	public void loadCatalog(URL catalogUrl) throws IOException {
+		Properties props = new Properties();
+		InputStream in = catalogUrl.openStream();
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		for (String id : props.stringPropertyNames())
+			register(id, new URL(catalogUrl, props.getProperty(id).trim())
+					.toString());
+	}
+
+	/** Say where the document defining a profile is. */
+	/**
+	 * Where the catalog says a profile is.
+	 *
+	 * @return The location, or <tt>null</tt> if the catalog does not have the
+	 *         profile.
+	 */
+	@Nullable
+	public String getCatalogLocation(String profileId) {
+		return catalog.get(profileId);
+	}
+
+	public void register(String profileId, String location) {
+		catalog.put(profileId, location);
+	}
+
+	/**
+	 * Load a profile and every profile it extends, ending with the base
+	 * profile.
+	 *
+	 * @param location
+	 *            Where the most specific profile is.
+	 * @return The chain of profiles, most specific first.
+	 */
+	public List<Profile> getProfiles(String location) throws JAXBException {
+		List<Profile> result = new ArrayList<Profile>();
+		for (String where : getChain(location))
+			result.add(getProfile(where));
+		return result;
+	}
+
+	/**
+	 * Find where a profile and every profile it extends are, ending with the
+	 * base profile. Only as much of each document is parsed as is needed to
+	 * follow the chain.
+	 *
+	 * @param location
+	 *            Where the most specific profile is.
+	 * @return The locations of the documents of the chain, most specific
+	 *         first.
+	 */
+	public List<String> getChain(String location) throws JAXBException {
+		List<String> result = new ArrayList<String>();
+		String where = location;
+		Profile p = getHeader(where);
+		while (true) {
+			result.add(where);
+			if (p.getExtends() == null)
+				break;
+			String id = p.getExtends().getProfileId();
+			String next = resolve(id);
+			if (next != null) {
+				if (result.contains(next)) {
+					log.warn("profile " + id + " extends itself");
+					break;
+				}
+				where = next;
+				p = getHeader(where);
+				continue;
+			}
+			if (!isAbsolute(id) || result.contains(id)) {
+				log.warn("cannot resolve " + id + " to a profile document");
+				break;
+			}
+			// Last resort: perhaps the ID is where the profile is
+			try {
+				p = getHeader(id);
+				where = id;
+			} catch (JAXBException e) {
+				log.warn("cannot resolve " + id + " to a profile document", e);
+				break;
+			}
+		}
+		String base = getBaseProfileLocation();
+		if (!where.equals(base)) {
+			Profile b = getHeader(base);
+			if (b.getId() == null || !b.getId().equals(p.getId()))
+				result.add(base);
+		}
+		return result;
+	}
+
+	/**
+	 * Get a single profile, loading it if it is not already known or if its
+	 * file has changed.
+	 */
+	public Profile getProfile(String location) throws JAXBException {
+		Document d = document(location);
+		Entry e = profiles.get(location);
+		if (e != null && e.document == d) {
+			hits.incrementAndGet();
+			return e.profile;
+		}
+		/*
+		 * If two threads race to load the same profile, the results are
+		 * equivalent and either will do.
+		 */
+		Profile p = unmarshal(location, d.bytes);
+		profiles.put(location, new Entry(p, d));
+		if (p.getId() != null)
+			known.put(p.getId(), location);
+		return p;
+	}
+
+	/**
+	 * Get the part of a profile that says what it is, what it extends, and
+	 * which ontologies it uses, without the constraints on components.
+	 *
+	 * @see ProfileReader#readHeader(InputStream, String)
+	 */
+	public Profile getHeader(String location) throws JAXBException {
+		Document d = document(location);
+		Profile header = d.header;
+		if (header == null) {
+			try {
+				header = reader.readHeader(new ByteArrayInputStream(d.bytes),
+						location);
+			} catch (XMLStreamException e) {
+				throw new UnmarshalException(e);
+			}
+			d.header = header;
+		}
+		if (header.getId() != null)
+			known.put(header.getId(), location);
+		return header;
+	}
+
+	/**
+	 * Get the content of a profile document, reading it if it is not already
+	 * known or if its file has changed.
+	 *
+	 * @return The bytes of the document. Not to be modified.
+	 */
+	public byte[] getDocument(String location) throws JAXBException {
+		return document(location).bytes;
+	}
+
+	private Document document(String location) throws JAXBException {
+		// Stamp first, so that a change while reading is seen next time
+		long stamp = stamp(location);
+		Document d = documents.get(location);
+		if (d != null && d.stamp == stamp)
+			return d;
+		try {
+			d = new Document(read(new URL(location)), stamp);
+		} catch (IOException e) {
+			throw new UnmarshalException(e);
+		}
+		documents.put(location, d);
+		return d;
+	}
+
+	private static byte[] read(URL url) throws IOException {
+		InputStream in = url.openStream();
+		try {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			byte[] b = new byte[8192];
+			int n;
+			while ((n = in.read(b)) >= 0)
+				buffer.write(b, 0, n);
+			return buffer.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	@Nullable
+	private String resolve(String profileId) {
+		String location = catalog.get(profileId);
+		return location != null ? location : known.get(profileId);
+	}
+
+	private Profile unmarshal(String location, byte[] document)
+			throws JAXBException {
+		loads.incrementAndGet();
+		if (context == null)
+			try {
+				return reader.read(new ByteArrayInputStream(document),
+						location);
+			} catch (XMLStreamException e) {
+				throw new UnmarshalException(e);
+			}
+		Unmarshaller u = unmarshallers.poll();
+		if (u == null)
+			u = context.createUnmarshaller();
+		InputSource source = new InputSource(new ByteArrayInputStream(
+				document));
+		source.setSystemId(location);
+		Profile p = u.unmarshal(new SAXSource(source), Profile.class)
+				.getValue();
+		// Only returned to the pool if it did not fail
+		unmarshallers.offer(u);
+		return p;
+	}
+
+	/** The modification time of a local file, or zero for other URLs. */
+	private static long stamp(String location) {
+		try {
+			URI uri = new URI(location);
+			if ("file".equals(uri.getScheme()))
+				return new File(uri).lastModified();
+		} catch (URISyntaxException e) {
+			// Not a file, then
+		} catch (IllegalArgumentException e) {
+			// Not a file, then
+		}
+		return 0;
+	}
+
+	private static boolean isAbsolute(String id) {
+		try {
+			return new URI(id).isAbsolute();
+		} catch (URISyntaxException e) {
+			return false;
+		}
+	}
+
+	/** Forget all loaded profiles; the catalog is kept. */
+	public void clear() {
+		documents.clear();
+		profiles.clear();
+		known.clear();
+	}
+
+	/** How many profile documents have been unmarshalled. */
+	public long getLoadCount() {
+		return loads.get();
+	}
+
+	/** How many times a loaded profile has been reused. */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	@Override
+	public String toString() {
+		return "ProfileRegistry[profiles=" + profiles.size() + ", loads="
+				+ getLoadCount() + ", hits=" + getHitCount() + "]";
+	}
+
+	private static class Entry {
+		final Profile profile;
+		/** What the profile was read from. */
+		final Document document;
+
+		Entry(Profile profile, Document document) {
+			this.profile = profile;
+			this.document = document;
+		}
+	}
+
+	private static class Document {
+		final byte[] bytes;
+		final long stamp;
+		@Nullable
+		volatile Profile header;
+
+		Document(byte[] bytes, long stamp) {
+			this.bytes = bytes;
+			this.stamp = stamp;
+		}
+	}
+}
@@ -0,0 +1,375 @@
+package org.taverna.component.validator;
+
+import static java.lang.Long.getLong;
+import static java.lang.System.currentTimeMillis;
+import static java.lang.System.getProperty;
+import static java.util.Collections.unmodifiableList;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * A persistent store of validation results, keyed by a SHA-256 digest of the
+ * bytes of the component document together with a digest of the profile:
+ * either the {@linkplain CompiledProfile#getDigest() digest} of the compiled
+ * profile, or one of the profile documents and the versions of their
+ * ontologies. Looking up an unchanged component needs no parsing at all.
+ * Keys also depend on the version of the checks the validator makes and on
+ * the implementation version of the package, so that results made by another
+ * version are not used.
+ * <p>
+ * Entries are written to a temporary file and then renamed into place, so
+ * that any number of processes may share a store without seeing partial
+ * entries. When the store grows beyond its size limit, the entries least
+ * recently used are deleted. Instances may be shared between threads.
+ */
+public class ResultStore {
+	/** System property naming the store directory. */
+	public static final String DIRECTORY_PROPERTY = "validator.results";
+	/** System property giving the size limit of the store, in megabytes. */
+	public static final String MAX_SIZE_PROPERTY = "validator.results.maxSize";
+	private static final long DEFAULT_MAX_SIZE = 100;
+	private static final int MAGIC = 0x54435253; // "TCRS"
+	private static final int VERSION = 2;
+	private static final String SUFFIX = ".result";
+	/**
+	 * Identifies the checks that made the results, so that a validator that
+	 * checks differently does not use them.
+	 */
+	private static final String CHECKS = Validator.CHECKS_VERSION + " "
+			+ ResultStore.class.getPackage().getImplementationVersion();
+	private static final byte NULL = 0;
+	private static final byte STRING = 1;
+	private static final byte INTEGER = 2;
+	private static final byte LONG = 3;
+
+	private final Logger log = getLogger(ResultStore.class);
+	private final File directory;
+	private final long maxSize;
+	private final AtomicLong size = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param directory
+	 *            Where to keep the results. Created if necessary.
+	 * @param maxSize
+	 *            How many bytes the results may take up.
+	 */
+	public ResultStore(File directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+		if (!directory.isDirectory() && !directory.mkdirs())
+			log.warn("failed to create result store directory " + directory);
+		size.set(totalSize(entries()));
+	}
+
+	/**
+	 * Construct a store from the {@value #DIRECTORY_PROPERTY} and
+	 * {@value #MAX_SIZE_PROPERTY} system properties.
+	 *
+	 * @return The store, or <tt>null</tt> if no directory is configured.
+	 */
+	@Nullable
+	public static ResultStore fromSystemProperties() {
+		String dir = getProperty(DIRECTORY_PROPERTY);
+		if (dir == null || dir.isEmpty())
+			return null;
+		return new ResultStore(new File(dir), getLong(MAX_SIZE_PROPERTY,
+				DEFAULT_MAX_SIZE) * 1024 * 1024);
+	}
+
+	/** The key of the results of checking a component against a profile. */
+	public String key(byte[] component, CompiledProfile profile) {
+		return key(component, profile.getDigest());
+	}
+
+	/**
+	 * The key of the results of checking a component against a profile
+	 * identified by a digest of whatever determines it.
+	 */
+	public String key(byte[] component, byte[] profileDigest) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not supported", e);
+		}
+		md.update((byte) VERSION);
+		try {
+			md.update(CHECKS.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 not supported", e);
+		}
+		md.update(profileDigest);
+		md.update(component);
+		StringBuilder sb = new StringBuilder();
+		for (byte b : md.digest())
+			sb.append(String.format("%02x", b));
+		return sb.toString();
+	}
+
+	/**
+	 * Get stored results.
+	 *
+	 * @return The assertions, or <tt>null</tt> if there are none stored under
+	 *         the key.
+	 */
+	@Nullable
+	public List<Assertion> get(String key) {
+		File f = file(key);
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(f)));
+			List<Assertion> result;
+			try {
+				result = read(in);
+			} finally {
+				in.close();
+			}
+			// Remember the use, for eviction
+			f.setLastModified(currentTimeMillis());
+			hits.incrementAndGet();
+			return result;
+		} catch (FileNotFoundException e) {
+			misses.incrementAndGet();
+			return null;
+		} catch (IOException e) {
+			return discard(f, e);
+		} catch (RuntimeException e) {
+			// Such as an assertion code that no longer exists
+			return discard(f, e);
+		}
+	}
+
+	/** Delete an entry that cannot be used, so that it is computed again. */
+	@Nullable
+	private List<Assertion> discard(File f, Exception e) {
+		log.warn("discarding unreadable result store entry " + f + ": "
+				+ e.getMessage());
+		long length = f.length();
+		if (f.delete())
+			size.addAndGet(-length);
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Store results. Failing to store them is logged but is not an error.
+	 */
+	public void put(String key, List<Assertion> assertions) {
+		File f = file(key);
+		File dir = f.getParentFile();
+		try {
+			if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory())
+				throw new IOException("failed to create " + dir);
+			File tmp = File.createTempFile(key, ".tmp", dir);
+			try {
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(new FileOutputStream(tmp)));
+				try {
+					write(out, assertions);
+				} finally {
+					out.close();
+				}
+				long length = tmp.length();
+				// Replacing an entry only adds the difference
+				long old = f.length();
+				replace(tmp, f);
+				if (size.addAndGet(length - old) > maxSize)
+					evict(f);
+			} finally {
+				tmp.delete();
+			}
+		} catch (IOException e) {
+			log.warn("failed to store results in " + f + ": "
+					+ e.getMessage());
+		}
+	}
+
+	/** How many bytes the entries are thought to take up. */
+	long getSize() {
+		return size.get();
+	}
+
+	/** How many lookups found stored results. */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/** How many lookups found nothing. */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	private File file(String key) {
+		return new File(new File(directory, key.substring(0, 2)),
+				key.substring(2) + SUFFIX);
+	}
+
+	/**
+	 * Delete the least recently used entries until the store is down to
+	 * three quarters of its limit. Other processes may be doing the same;
+	 * deleting an entry twice does no harm.
+	 *
+	 * @param keep
+	 *            The entry just stored, which is never deleted.
+	 */
+	private synchronized void evict(File keep) {
+		List<File> entries = entries();
+		long total = totalSize(entries);
+		if (total > maxSize) {
+			final long[] used = new long[entries.size()];
+			File[] sorted = entries.toArray(new File[entries.size()]);
+			for (int i = 0; i < sorted.length; i++)
+				used[i] = sorted[i].lastModified();
+			Integer[] order = new Integer[sorted.length];
+			for (int i = 0; i < order.length; i++)
+				order[i] = i;
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return used[a] < used[b] ? -1 : used[a] > used[b] ? 1 : 0;
+				}
+			});
+			for (int i = 0; i < order.length && total > maxSize / 4 * 3; i++) {
+				File f = sorted[order[i]];
+				if (f.equals(keep))
+					continue;
+				long length = f.length();
+				if (f.delete())
+					total -= length;
+			}
+			log.info("evicted results to bring store down to " + total
+					+ " bytes");
+		}
+		size.set(total);
+	}
+
+	private List<File> entries() {
+		List<File> entries = new ArrayList<File>();
+		File[] dirs = directory.listFiles();
+		if (dirs != null)
+			for (File dir : dirs) {
+				File[] files = dir.listFiles();
+				if (files != null)
+					for (File f : files)
+						if (f.getName().endsWith(SUFFIX))
+							entries.add(f);
+			}
+		return entries;
+	}
+
+	private static long totalSize(List<File> entries) {
+		long total = 0;
+		for (File f : entries)
+			total += f.length();
+		return total;
+	}
+
+	/** Move a file into place, so that readers never see partial content. */
+	private static void replace(File from, File to) throws IOException {
+		if (!from.renameTo(to)) {
+			to.delete();
+			if (!from.renameTo(to))
+				throw new IOException("failed to update result store entry "
+						+ to);
+		}
+	}
+
+	private static void write(DataOutputStream out, List<Assertion> assertions)
+			throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(assertions.size());
+		for (Assertion a : assertions) {
+			out.writeBoolean(a.satisfied);
+			out.writeBoolean(a.warning);
+			AssertionCode code = a.getCode();
+			out.writeUTF(code == null ? "" : code.name());
+			out.writeUTF(a.getTemplate());
+			out.writeUTF(a.getConstraint() == null ? "" : a.getConstraint());
+			List<Object> args = a.getArguments();
+			out.writeInt(args.size());
+			for (Object arg : args)
+				if (arg == null)
+					out.writeByte(NULL);
+				else if (arg instanceof Integer) {
+					out.writeByte(INTEGER);
+					out.writeInt((Integer) arg);
+				} else if (arg instanceof Long) {
+					out.writeByte(LONG);
+					out.writeLong((Long) arg);
+				} else {
+					out.writeByte(STRING);
+					out.writeUTF(arg.toString());
+				}
+		}
+	}
+
+	private static List<Assertion> read(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION)
+			throw new IOException("not a result store entry");
+		int n = in.readInt();
+		List<Assertion> result = new ArrayList<Assertion>(n);
+		for (int i = 0; i < n; i++) {
+			boolean satisfied = in.readBoolean();
+			boolean warning = in.readBoolean();
+			String code = in.readUTF();
+			String template = in.readUTF();
+			String constraint = in.readUTF();
+			Object[] args = new Object[in.readInt()];
+			for (int j = 0; j < args.length; j++) {
+				byte tag = in.readByte();
+				switch (tag) {
+				case NULL:
+					break;
+				case INTEGER:
+					args[j] = in.readInt();
+					break;
+				case LONG:
+					args[j] = in.readLong();
+					break;
+				case STRING:
+					args[j] = in.readUTF();
+					break;
+				default:
+					throw new IOException("bad argument in result store entry");
+				}
+			}
+			Assertion a = new Stored(satisfied, warning, code.isEmpty() ? null
+					: AssertionCode.valueOf(code), template, args);
+			a.setConstraint(constraint.isEmpty() ? null : constraint);
+			result.add(a);
+		}
+		return unmodifiableList(result);
+	}
+
+	/** An assertion read back from the store. */
+	private static class Stored extends Assertion {
+		Stored(boolean satisfied, boolean warning,
+				@Nullable AssertionCode code, String template, Object[] args) {
+			super(satisfied, warning, code, template, args);
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package org.taverna.component.validator;
+
+import static java.lang.management.ManagementFactory.getPlatformMBeanServer;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * How often each phase of validation happens and how long it takes. Each
+ * phase has a counter, a total and maximum time, and a histogram of times in
+ * decades from 10&micro;s to 1s. Instances may be shared between threads,
+ * and may be published through JMX.
+ * <p>
+ * Each validator has its own metrics unless given others, and each instance
+ * is published under its own names; to see the totals for several
+ * validators in one place, give them all the same instance.
+ */
+public class ValidationMetrics {
+	/** The JMX domain that {@link #register()} publishes the metrics in. */
+	public static final String DOMAIN = "org.taverna.component.validator";
+	/** The upper bounds of the histogram buckets, in microseconds. */
+	public static final long[] BUCKETS = { 10, 100, 1000, 10000, 100000,
+			1000000 };
+
+	/** The phases of validation that are timed. */
+	public enum Phase {
+		/** Reading a component document. */
+		PARSE,
+		/** Forcing the attributes of a component DOM to be realized. */
+		REALIZE_ATTRS,
+		/** Getting a profile chain, whether from the registry or not. */
+		PROFILE_LOAD,
+		/** Loading all the ontologies that a profile chain uses. */
+		ONTOLOGY_LOAD,
+		/** Checking one constraint against a component. */
+		CONSTRAINT,
+		/** Getting the parsed form of a semantic annotation. */
+		PARSE_RDF,
+		/** Evaluating an XPath expression. */
+		XPATH
+	}
+
+	private static final AtomicInteger instances = new AtomicInteger();
+	private final Map<Phase, Timer> timers = new EnumMap<Phase, Timer>(
+			Phase.class);
+	private final String instance = Integer.toString(instances
+			.incrementAndGet());
+
+	public ValidationMetrics() {
+		for (Phase p : Phase.values())
+			timers.put(p, new Timer(p));
+	}
+
+	/** Note that a phase happened and how long it took. */
+	public void record(Phase phase, long nanos) {
+		timers.get(phase).record(nanos);
+	}
+
+	public long getCount(Phase phase) {
+		return timers.get(phase).count.get();
+	}
+
+	/** The metrics of one phase. */
+	public PhaseMetricsMXBean get(Phase phase) {
+		return timers.get(phase);
+	}
+
+	/** Forget everything recorded so far. */
+	public void reset() {
+		for (Timer t : timers.values())
+			t.reset();
+	}
+
+	/**
+	 * The name under which {@link #register()} publishes the metrics of a
+	 * phase: <tt>org.taverna.component.validator:type=ValidationMetrics,instance=<i>n</i>,phase=<i>PHASE</i></tt>,
+	 * where <i>n</i> tells this instance apart from any others.
+	 */
+	public ObjectName getObjectName(Phase phase) {
+		try {
+			return new ObjectName(DOMAIN + ":type=ValidationMetrics,instance="
+					+ instance + ",phase=" + phase.name());
+		} catch (MalformedObjectNameException e) {
+			throw new IllegalStateException("bad metrics name", e);
+		}
+	}
+
+	/**
+	 * Publish these metrics in the platform MBean server, as one MXBean per
+	 * phase. Publishing them again does nothing.
+	 */
+	public void register() throws JMException {
+		MBeanServer server = getPlatformMBeanServer();
+		for (Phase p : Phase.values()) {
+			ObjectName name = getObjectName(p);
+			if (!server.isRegistered(name))
+				server.registerMBean(timers.get(p), name);
+		}
+	}
+
+	/** Stop publishing these metrics. */
+	public void unregister() throws JMException {
+		MBeanServer server = getPlatformMBeanServer();
+		for (Phase p : Phase.values()) {
+			ObjectName name = getObjectName(p);
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+		}
+	}
+
+	/** The metrics of the phases that have happened, keyed by phase. */
+	JSONObject toJSON() {
+		JSONObject json = new JSONObject();
+		for (Phase p : Phase.values()) {
+			Timer t = timers.get(p);
+			if (t.count.get() > 0)
+				json.put(p.name(), new JSONObject()
+						.put("count", t.count.get())
+						.put("totalMillis", millis(t.total.get()))
+						.put("meanMillis", t.meanMillis())
+						.put("maxMillis", millis(t.max.get()))
+						.put("histogram", new JSONArray(t.histogram())));
+		}
+		return json;
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+
+	private static class Timer implements PhaseMetricsMXBean {
+		final Phase phase;
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong total = new AtomicLong();
+		final AtomicLong max = new AtomicLong();
+		final AtomicLongArray buckets = new AtomicLongArray(
+				BUCKETS.length + 1);
+
+		Timer(Phase phase) {
+			this.phase = phase;
+		}
+
+		void record(long nanos) {
+			count.incrementAndGet();
+			total.addAndGet(nanos);
+			long m;
+			while ((m = max.get()) < nanos && !max.compareAndSet(m, nanos))
+				continue;
+			long micros = NANOSECONDS.toMicros(nanos);
+			int i = 0;
+			while (i < BUCKETS.length && micros >= BUCKETS[i])
+				i++;
+			buckets.incrementAndGet(i);
+		}
+
+		@Override
+		public String getPhase() {
+			return phase.name();
+		}
+
+		@Override
+		public long getCount() {
+			return count.get();
+		}
+
+		@Override
+		public double getTotalMillis() {
+			return millis(total.get());
+		}
+
+		@Override
+		public double getMeanMillis() {
+			return meanMillis();
+		}
+
+		@Override
+		public double getMaxMillis() {
+			return millis(max.get());
+		}
+
+		@Override
+		public long[] getHistogram() {
+			return histogram();
+		}
+
+		@Override
+		public void reset() {
+			count.set(0);
+			total.set(0);
+			max.set(0);
+			for (int i = 0; i < buckets.length(); i++)
+				buckets.set(i, 0);
+		}
+
+		double meanMillis() {
+			long n = count.get();
+			return n == 0 ? 0 : millis(total.get()) / n;
+		}
+
+		long[] histogram() {
+			long[] h = new long[buckets.length()];
+			for (int i = 0; i < h.length; i++)
+				h[i] = buckets.get(i);
+			return h;
+		}
+	}
+}
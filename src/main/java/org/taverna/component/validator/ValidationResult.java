@@ -0,0 +1,72 @@
+package org.taverna.component.validator;
+
+import static java.util.Collections.unmodifiableList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outcome of validating a component, remembering enough about what each
+ * constraint looked at that a later, edited version of the component can be
+ * re-validated by checking only the constraints whose inputs changed.
+ *
+ * @see Validator#revalidate(ComponentModel, CompiledProfile, ValidationResult)
+ */
+public class ValidationResult {
+	private final CompiledProfile profile;
+	private final List<Fingerprint> inputs;
+	private final List<List<Assertion>> outcomes;
+	private final List<Assertion> assertions;
+	private final int reused;
+
+	/**
+	 * @param inputs
+	 *            The fingerprint of the inputs of each constraint of the
+	 *            profile, in order.
+	 * @param outcomes
+	 *            The assertions made by each constraint of the profile, in
+	 *            order.
+	 * @param reused
+	 *            How many of the outcomes were carried over from a previous
+	 *            result.
+	 */
+	ValidationResult(CompiledProfile profile, List<Fingerprint> inputs,
+			List<List<Assertion>> outcomes, int reused) {
+		this.profile = profile;
+		this.inputs = inputs;
+		this.outcomes = outcomes;
+		this.reused = reused;
+		List<Assertion> all = new ArrayList<Assertion>();
+		for (List<Assertion> outcome : outcomes)
+			all.addAll(outcome);
+		this.assertions = unmodifiableList(all);
+	}
+
+	/** The profile that this result is for. */
+	public CompiledProfile getProfile() {
+		return profile;
+	}
+
+	/** The assertions, exactly as a full validation would make them. */
+	public List<Assertion> getAssertions() {
+		return assertions;
+	}
+
+	/** How many constraints were not re-checked to make this result. */
+	public int getReusedCount() {
+		return reused;
+	}
+
+	/** How many constraints there are in the profile. */
+	public int getConstraintCount() {
+		return outcomes.size();
+	}
+
+	Fingerprint getInputs(int constraint) {
+		return inputs.get(constraint);
+	}
+
+	List<Assertion> getOutcome(int constraint) {
+		return outcomes.get(constraint);
+	}
+}
@@ -0,0 +1,488 @@
+package org.taverna.component.validator;
+
+import static java.lang.Boolean.getBoolean;
+import static java.lang.Integer.getInteger;
+import static java.lang.Long.getLong;
+import static java.lang.System.getProperty;
+import static java.lang.System.nanoTime;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.taverna.component.validator.AssertionReporter.JSONReporter.toJSON;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * A long-running validation service, so that validating many components does
+ * not pay for starting the JVM and loading profiles and ontologies every
+ * time. Profiles are compiled on first use and kept for a while, and the
+ * validator's other caches stay warm between requests.
+ * <p>
+ * <tt>POST /validate?profile=<i>id</i></tt> with a t2flow document as the
+ * body responds with the same JSON as
+ * {@link AssertionReporter.JSONReporter}. The profile is named by its ID in
+ * the {@linkplain ProfileRegistry#loadCatalog(java.net.URL) catalog}, or by a
+ * location under one of the {@linkplain #setAllowedProfiles(Collection)
+ * allowed prefixes}; other locations are refused with status 403, so that
+ * clients cannot have the service read arbitrary files or reach arbitrary
+ * hosts.
+ * <tt>GET /health</tt> responds with counts of the work done so far. At most a
+ * fixed number of components are validated at once, and a bounded number more
+ * wait their turn; requests beyond that are refused with status 503.
+ */
+public class ValidationServer {
+	public static final String PORT_PROPERTY = "validator.server.port";
+	/** System property giving the address to listen on. */
+	public static final String HOST_PROPERTY = "validator.server.host";
+	/**
+	 * System property listing, separated by spaces, the prefixes of the
+	 * locations that profiles may be loaded from when not named by catalog ID.
+	 */
+	public static final String ALLOWED_PROFILES_PROPERTY = "validator.server.allowedProfiles";
+	public static final String THREADS_PROPERTY = "validator.server.threads";
+	public static final String QUEUE_PROPERTY = "validator.server.queue";
+	/** How long, in seconds, to keep using a compiled profile. */
+	public static final String PROFILE_MAX_AGE_PROPERTY = "validator.server.profileMaxAge";
+	static final String DEFAULT_HOST = "localhost";
+	static final int DEFAULT_PORT = 8080;
+	static final int DEFAULT_QUEUE = 64;
+	static final long DEFAULT_PROFILE_MAX_AGE = 10 * 60;
+	static final int MAX_PROFILES = 32;
+	static final int MAX_BODY = 32 * 1024 * 1024;
+	private static final String JSON_TYPE = "application/json; charset=UTF-8";
+
+	private final Logger log = getLogger(ValidationServer.class);
+	private final Validator validator;
+	private final HttpServer server;
+	private final ThreadPoolExecutor workers;
+	private final ExecutorService exchanges;
+	private final int queueSize;
+	private final long profileMaxAge;
+	private volatile List<String> allowedProfiles = Collections.emptyList();
+	private final Map<String, CachedProfile> profiles = new LinkedHashMap<String, CachedProfile>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedProfile> e) {
+			return size() > MAX_PROFILES;
+		}
+	};
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong validated = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong validationNanos = new AtomicLong();
+
+	/**
+	 * @param validator
+	 *            The validator to use for all requests.
+	 * @param address
+	 *            Where to listen.
+	 * @param threads
+	 *            How many components to validate at once.
+	 * @param queueSize
+	 *            How many more components may wait to be validated.
+	 * @param profileMaxAge
+	 *            How long, in milliseconds, to keep a compiled profile.
+	 */
+	public ValidationServer(Validator validator, InetSocketAddress address,
+			int threads, int queueSize, long profileMaxAge) throws IOException {
+		if (threads < 1 || queueSize < 0)
+			throw new IllegalArgumentException("bad pool size");
+		this.validator = validator;
+		this.queueSize = queueSize;
+		this.profileMaxAge = profileMaxAge;
+		BlockingQueue<Runnable> queue = queueSize == 0 ? new SynchronousQueue<Runnable>()
+				: new ArrayBlockingQueue<Runnable>(queueSize);
+		workers = new ThreadPoolExecutor(threads, threads, 0, MILLISECONDS,
+				queue, new DaemonThreadFactory("validator-worker"));
+		/*
+		 * Each admitted request holds an exchange thread while it waits for
+		 * its worker, so there must be enough of them for every admitted
+		 * request and a few more for refusals and health checks.
+		 */
+		exchanges = Executors.newFixedThreadPool(threads + queueSize + 2,
+				new DaemonThreadFactory("validator-http"));
+		server = HttpServer.create(address, 0);
+		server.setExecutor(exchanges);
+		server.createContext("/validate", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					validate(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.createContext("/health", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					respond(exchange, 200, health());
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+	}
+
+	public void start() {
+		server.start();
+		log.info("validation server listening on " + getAddress());
+	}
+
+	/**
+	 * Stop accepting requests, and stop once those in progress are done or
+	 * the delay has passed.
+	 */
+	public void stop(int delaySeconds) {
+		server.stop(delaySeconds);
+		workers.shutdown();
+		exchanges.shutdown();
+	}
+
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	/**
+	 * Set where profiles may be loaded from when a request does not name one
+	 * by its catalog ID. By default, only catalog IDs are accepted.
+	 *
+	 * @param prefixes
+	 *            The prefixes of the allowed locations, such as
+	 *            <tt>file:/srv/profiles/</tt>. They should end with a
+	 *            <tt>/</tt>, or they allow sibling locations too.
+	 */
+	public void setAllowedProfiles(Collection<String> prefixes) {
+		allowedProfiles = Collections.unmodifiableList(new ArrayList<String>(
+				prefixes));
+	}
+
+	/**
+	 * Work out where the profile that a client asked for is.
+	 *
+	 * @return The location, or <tt>null</tt> if the profile is neither in the
+	 *         catalog nor under an allowed prefix.
+	 */
+	@Nullable
+	String locate(String profile) {
+		String location = validator.getProfileRegistry().getCatalogLocation(
+				profile);
+		if (location != null)
+			return location;
+		String normal;
+		try {
+			URI uri = new URI(profile);
+			if (!uri.isAbsolute() || uri.getPath() == null)
+				return null;
+			// Decode and normalize the path, so that "%2e%2e" cannot escape
+			normal = new URI(uri.getScheme(), uri.getAuthority(),
+					uri.getPath(), uri.getQuery(), null).normalize()
+					.toString();
+		} catch (URISyntaxException e) {
+			return null;
+		}
+		for (String prefix : allowedProfiles)
+			if (normal.startsWith(prefix))
+				return normal;
+		return null;
+	}
+
+	private void validate(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		if (!"POST".equals(exchange.getRequestMethod())) {
+			exchange.getResponseHeaders().set("Allow", "POST");
+			respond(exchange, 405, error("POST a component to validate"));
+			return;
+		}
+		final String profile = getParameter(exchange, "profile");
+		if (profile == null || profile.isEmpty()) {
+			respond(exchange, 400, error("no profile given"));
+			return;
+		}
+		final String location = locate(profile);
+		if (location == null) {
+			respond(exchange, 403, error("profile not allowed: " + profile));
+			return;
+		}
+		final byte[] body;
+		try {
+			body = read(exchange.getRequestBody());
+		} catch (TooLarge e) {
+			respond(exchange, 413, error("component too large"));
+			return;
+		}
+
+		Future<JSONObject> result;
+		try {
+			result = workers.submit(new Callable<JSONObject>() {
+				@Override
+				public JSONObject call() throws Exception {
+					return validate(body, location);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			exchange.getResponseHeaders().set("Retry-After", "1");
+			respond(exchange, 503, error("too busy; try again later"));
+			return;
+		}
+
+		try {
+			respond(exchange, 200, result.get());
+		} catch (InterruptedException e) {
+			failed.incrementAndGet();
+			result.cancel(true);
+			respond(exchange, 503, error("shutting down"));
+		} catch (ExecutionException e) {
+			failed.incrementAndGet();
+			Throwable t = e.getCause();
+			if (t instanceof XMLStreamException)
+				respond(exchange, 400, error("failed to parse component: "
+						+ t.getMessage()));
+			else if (t instanceof JAXBException || t instanceof IOException)
+				respond(exchange, 400, error("failed to load profile "
+						+ profile + ": " + describe(t)));
+			else {
+				log.error("failed to validate against " + profile, t);
+				respond(exchange, 500, error("internal error: " + describe(t)));
+			}
+		}
+	}
+
+	private JSONObject validate(byte[] component, String profile)
+			throws Exception {
+		long start = nanoTime();
+		List<Assertion> assertions = validator.validate(
+				new ByteArrayInputStream(component), "request",
+				getProfile(profile));
+		validationNanos.addAndGet(nanoTime() - start);
+		validated.incrementAndGet();
+		return toJSON(assertions);
+	}
+
+	/**
+	 * Get a compiled profile, compiling it if it is not already known. When
+	 * several requests want the same profile at once, only one compiles it.
+	 * A location naming a {@linkplain ProfileBundle bundle} is read rather
+	 * than compiled.
+	 */
+	CompiledProfile getProfile(final String location) throws Exception {
+		CachedProfile cached;
+		boolean mine = false;
+		synchronized (profiles) {
+			cached = profiles.get(location);
+			if (cached == null || cached.isExpired()) {
+				cached = new CachedProfile(new Callable<CompiledProfile>() {
+					@Override
+					public CompiledProfile call() throws Exception {
+						return validator.loadProfile(new URL(location));
+					}
+				});
+				profiles.put(location, cached);
+				mine = true;
+			}
+		}
+		if (mine)
+			cached.task.run();
+		try {
+			return cached.task.get();
+		} catch (ExecutionException e) {
+			// Do not remember failures
+			synchronized (profiles) {
+				if (profiles.get(location) == cached)
+					profiles.remove(location);
+			}
+			Throwable t = e.getCause();
+			if (t instanceof Exception)
+				throw (Exception) t;
+			throw e;
+		}
+	}
+
+	private class CachedProfile {
+		final FutureTask<CompiledProfile> task;
+		final long created = nanoTime();
+
+		CachedProfile(Callable<CompiledProfile> compiler) {
+			task = new FutureTask<CompiledProfile>(compiler);
+		}
+
+		boolean isExpired() {
+			return NANOSECONDS.toMillis(nanoTime() - created) > profileMaxAge;
+		}
+	}
+
+	JSONObject health() {
+		int cachedProfiles;
+		synchronized (profiles) {
+			cachedProfiles = profiles.size();
+		}
+		long done = validated.get();
+		AnnotationCache ac = validator.getAnnotationCache();
+		return new JSONObject()
+				.put("status", "ok")
+				.put("workers", workers.getMaximumPoolSize())
+				.put("active", workers.getActiveCount())
+				.put("queued", workers.getQueue().size())
+				.put("queueCapacity", queueSize)
+				.put("requests", requests.get())
+				.put("validated", done)
+				.put("rejected", rejected.get())
+				.put("failed", failed.get())
+				.put("meanValidationMillis",
+						done == 0 ? 0 : NANOSECONDS.toMillis(validationNanos
+								.get() / done))
+				.put("profilesCached", cachedProfiles)
+				.put("annotationCache",
+						new JSONObject().put("size", ac.size())
+								.put("hits", ac.getHits())
+								.put("misses", ac.getMisses()))
+				.put("ontologyModels", ontologyModels())
+				.put("xpath",
+						new JSONObject().put("compiles",
+								validator.getXPathCompileCount()).put("hits",
+								validator.getXPathHitCount()));
+	}
+
+	private JSONObject ontologyModels() {
+		OntologyModelCache oc = validator.getOntologyModelCache();
+		if (oc == null)
+			return new JSONObject().put("enabled", false);
+		return new JSONObject().put("size", oc.size())
+				.put("triples", oc.getTriples()).put("hits", oc.getHits())
+				.put("misses", oc.getMisses())
+				.put("evictions", oc.getEvictions());
+	}
+
+	private static JSONObject error(String message) {
+		return new JSONObject().put("error", message);
+	}
+
+	private static String describe(Throwable t) {
+		while (t.getCause() != null && t.getMessage() == null)
+			t = t.getCause();
+		return t.getMessage() != null ? t.getMessage() : t.toString();
+	}
+
+	private static void respond(HttpExchange exchange, int status,
+			JSONObject body) throws IOException {
+		byte[] bytes = body.toString().getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", JSON_TYPE);
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	@Nullable
+	private static String getParameter(HttpExchange exchange, String name)
+			throws UnsupportedEncodingException {
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null)
+			return null;
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			String key = eq < 0 ? pair : pair.substring(0, eq);
+			if (URLDecoder.decode(key, "UTF-8").equals(name))
+				return eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1),
+						"UTF-8");
+		}
+		return null;
+	}
+
+	@SuppressWarnings("serial")
+	private static class TooLarge extends IOException {
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			byte[] chunk = new byte[8192];
+			int n;
+			while ((n = in.read(chunk)) >= 0) {
+				buffer.write(chunk, 0, n);
+				if (buffer.size() > MAX_BODY)
+					throw new TooLarge();
+			}
+			return buffer.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Usage: <tt>java -cp validator.jar
+	 * org.taverna.component.validator.ValidationServer [port]</tt>
+	 */
+	public static void main(String... args) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : getInteger(
+				PORT_PROPERTY, DEFAULT_PORT);
+		Validator validator = new Validator();
+		validator.setOntologyCache(OntologyCache.fromSystemProperties());
+		validator.setResultStore(ResultStore.fromSystemProperties());
+		validator.setProfileRegistry(ProfileRegistry.fromSystemProperties());
+		validator.setOntologyFetcher(OntologyFetcher.fromSystemProperties());
+		validator.setParallelism(getInteger(Validator.PARALLELISM_PROPERTY, 1));
+		validator.setBatchSemantics(getBoolean(Validator.BATCH_SEMANTICS_PROPERTY));
+		validator.getMetrics().register();
+		ValidationServer server = new ValidationServer(validator,
+				new InetSocketAddress(getProperty(HOST_PROPERTY, DEFAULT_HOST),
+						port), getInteger(THREADS_PROPERTY,
+						Runtime.getRuntime().availableProcessors()),
+				getInteger(QUEUE_PROPERTY, DEFAULT_QUEUE), SECONDS.toMillis(getLong(
+						PROFILE_MAX_AGE_PROPERTY, DEFAULT_PROFILE_MAX_AGE)));
+		String allowed = getProperty(ALLOWED_PROFILES_PROPERTY, "").trim();
+		if (!allowed.isEmpty())
+			server.setAllowedProfiles(asList(allowed.split("\\s+")));
+		server.start();
+	}
+}
@@ -1,40 +1,85 @@
 package org.taverna.component.validator;
 
-import static com.hp.hpl.jena.rdf.model.ModelFactory.createOntologyModel;
+import static java.lang.Boolean.getBoolean;
 import static java.lang.Class.forName;
-import static java.lang.Integer.parseInt;
-import static java.lang.String.format;
+import static java.lang.Integer.getInteger;
+import static java.lang.Long.getLong;
 import static java.lang.System.getProperty;
+import static java.lang.System.nanoTime;
 import static java.util.Arrays.asList;
-import static java.util.Collections.unmodifiableMap;
-import static java.util.UUID.randomUUID;
+import static java.util.Arrays.copyOfRange;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.slf4j.LoggerFactory.getLogger;
+import static org.taverna.component.validator.AssertionCode.ABSENT_PORT_ANNOTATION_IGNORED;
+import static org.taverna.component.validator.AssertionCode.ABSENT_PORT_DEPTH_IGNORED;
+import static org.taverna.component.validator.AssertionCode.ACTIVITY_ANNOTATION_MISSING;
+import static org.taverna.component.validator.AssertionCode.ACTIVITY_CONFIRMED;
+import static org.taverna.component.validator.AssertionCode.ACTIVITY_NONE_SELECTED;
+import static org.taverna.component.validator.AssertionCode.ACTIVITY_TOO_FEW;
+import static org.taverna.component.validator.AssertionCode.ACTIVITY_TOO_MANY;
+import static org.taverna.component.validator.AssertionCode.COMPONENT_ANNOTATION_FOUND;
+import static org.taverna.component.validator.AssertionCode.COMPONENT_ANNOTATION_MISSING;
+import static org.taverna.component.validator.AssertionCode.COMPONENT_SEMANTIC_FAILED;
+import static org.taverna.component.validator.AssertionCode.COMPONENT_SEMANTIC_FOUND;
+import static org.taverna.component.validator.AssertionCode.COMPONENT_SEMANTIC_IN_RANGE;
+import static org.taverna.component.validator.AssertionCode.COMPONENT_SEMANTIC_TOO_FEW;
+import static org.taverna.component.validator.AssertionCode.COMPONENT_SEMANTIC_TOO_MANY;
+import static org.taverna.component.validator.AssertionCode.COMPONENT_SEMANTIC_UNCHECKABLE;
+import static org.taverna.component.validator.AssertionCode.COMPONENT_UNREADABLE;
+import static org.taverna.component.validator.AssertionCode.PORT_ANNOTATION_FOUND;
+import static org.taverna.component.validator.AssertionCode.PORT_ANNOTATION_MISSING;
+import static org.taverna.component.validator.AssertionCode.PORT_DEPTH_IN_RANGE;
+import static org.taverna.component.validator.AssertionCode.PORT_DEPTH_UNKNOWN;
+import static org.taverna.component.validator.AssertionCode.PORT_FOUND;
+import static org.taverna.component.validator.AssertionCode.PORT_MISSING;
+import static org.taverna.component.validator.AssertionCode.PORT_NONE_SELECTED;
+import static org.taverna.component.validator.AssertionCode.PORT_OPTIONAL_ABSENT;
+import static org.taverna.component.validator.AssertionCode.PORT_SEMANTIC_ABSENT;
+import static org.taverna.component.validator.AssertionCode.PORT_SEMANTIC_FAILED;
+import static org.taverna.component.validator.AssertionCode.PORT_SEMANTIC_SATISFIED;
+import static org.taverna.component.validator.AssertionCode.PORT_TOO_DEEP;
+import static org.taverna.component.validator.AssertionCode.PORT_TOO_SHALLOW;
+import static org.taverna.component.validator.CompiledProfile.compileComponent;
+import static org.taverna.component.validator.ValidationMetrics.Phase.CONSTRAINT;
+import static org.taverna.component.validator.ValidationMetrics.Phase.ONTOLOGY_LOAD;
+import static org.taverna.component.validator.ValidationMetrics.Phase.PARSE;
+import static org.taverna.component.validator.ValidationMetrics.Phase.PARSE_RDF;
+import static org.taverna.component.validator.ValidationMetrics.Phase.PROFILE_LOAD;
+import static org.taverna.component.validator.ValidationMetrics.Phase.REALIZE_ATTRS;
+import static org.taverna.component.validator.ValidationMetrics.Phase.XPATH;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.StringReader;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.SocketException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.UnmarshalException;
-import javax.xml.bind.Unmarshaller;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.sax.SAXSource;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.xpath.XPathExpressionException;
 
 import org.slf4j.Logger;
@@ -42,6 +87,17 @@ import org.taverna.component.validator.Assertion.Fail;
 import org.taverna.component.validator.Assertion.Pass;
 import org.taverna.component.validator.Assertion.Warn;
 import org.taverna.component.validator.AssertionReporter.JSONReporter;
+import org.taverna.component.validator.CompiledProfile.ActivityConstraint;
+import org.taverna.component.validator.CompiledProfile.AnnotationRequirement;
+import org.taverna.component.validator.CompiledProfile.ComponentAnnotationConstraint;
+import org.taverna.component.validator.CompiledProfile.Constraint;
+import org.taverna.component.validator.CompiledProfile.PortConstraint;
+import org.taverna.component.validator.CompiledProfile.SemanticConstraint;
+import org.taverna.component.validator.ComponentModel.Activity;
+import org.taverna.component.validator.ComponentModel.Annotations;
+import org.taverna.component.validator.ComponentModel.AnnotationsBuilder;
+import org.taverna.component.validator.ComponentModel.Port;
+import org.taverna.component.validator.ValidationMetrics.Phase;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -50,52 +106,93 @@ import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
-import uk.org.taverna.ns._2012.component.profile.Activity;
-import uk.org.taverna.ns._2012.component.profile.ActivityAnnotation;
-import uk.org.taverna.ns._2012.component.profile.BasicAnnotations;
 import uk.org.taverna.ns._2012.component.profile.Component;
-import uk.org.taverna.ns._2012.component.profile.ComponentAnnotation;
 import uk.org.taverna.ns._2012.component.profile.Ontology;
-import uk.org.taverna.ns._2012.component.profile.Port;
-import uk.org.taverna.ns._2012.component.profile.PortAnnotation;
 import uk.org.taverna.ns._2012.component.profile.Profile;
-import uk.org.taverna.ns._2012.component.profile.SemanticAnnotation;
 
 import com.hp.hpl.jena.ontology.Individual;
 import com.hp.hpl.jena.ontology.OntModel;
-import com.hp.hpl.jena.rdf.model.Model;
-import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
-import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
 
 import edu.umd.cs.findbugs.annotations.Nullable;
 
+/**
+ * Checks Taverna components against component profiles. Instances may be
+ * shared between threads; each thread gets its own document parser and XPath
+ * engine, and the only cross-thread state (the caches of profiles and
+ * annotations) is thread-safe.
+ */
 public class Validator extends XPathSupport {
 	private static final String TOP = "/t:workflow/t:dataflow[@role='top']";
-	private static final String ANNOTATION_OF_CLASS = "./t:annotations//annotationBean[@class='%s']";
-	private static final String SKOS_LABEL = "http://www.w3.org/2004/02/skos/core#prefLabel";
-	private static final String ACTIVITIES_PKG = "net.sf.taverna.t2.activities.";
 	private static final String ANNOTATION_PKG = "net.sf.taverna.t2.annotation.annotationbeans.";
-	private static final String ANNOTATION_BEAN = ANNOTATION_PKG
+	static final String ANNOTATION_BEAN = ANNOTATION_PKG
 			+ "SemanticAnnotation";
-	private final DocumentBuilderFactory docBuilderFactory;
-	private final JAXBContext context;
+	private final ThreadLocal<DocumentBuilder> docBuilder;
+	private final ComponentReader componentReader = new ComponentReader();
 	private final Logger log;
-	private static final RDFNode any = null;
+	private volatile OntologyCache ontologyCache;
+	private volatile AnnotationCache annotationCache = new AnnotationCache();
+	private volatile ProfileRegistry profileRegistry;
+	@Nullable
+	private volatile ResultStore resultStore;
+	private volatile OntologyFetcher ontologyFetcher = new OntologyFetcher();
+	@Nullable
+	private volatile OntologyModelCache ontologyModelCache = OntologyModelCache
+			.getShared();
+	private volatile ExecutorService checker;
+	private volatile ValidationMetrics metrics = new ValidationMetrics();
+	private volatile long slowConstraint = MILLISECONDS
+			.toNanos(getLong(SLOW_CONSTRAINT_PROPERTY, 1000));
+	private int parallelism = 1;
+	private volatile boolean batchSemantics;
 
 	public static void main(String... args) throws Exception {
+		boolean watch = args.length > 0 && "--watch".equals(args[0]);
+		if (watch)
+			args = copyOfRange(args, 1, args.length);
 		if (args.length < 2) {
 			System.err.println("wrong # args: should be "
-					+ "\"java -jar Validator.jar component-url profile-url\"");
+					+ "\"java -jar Validator.jar component-url profile-url\""
+					+ " or \"java -jar Validator.jar --watch directory profile-url\"");
 			System.exit(1);
 		}
 		URL pwd = new File(".").getAbsoluteFile().toURI().toURL();
-		List<Assertion> assertions;
+		AssertionReporter reporter = (AssertionReporter) forName(
+				getProperty("validator.reporter.class",
+						JSONReporter.class.getName())).newInstance();
 		try {
 			// TODO separate loading model from actual validation
-			assertions = new Validator().validate(new URL(pwd, args[0]),
-					new URL(pwd, args[1]));
+			Validator validator = new Validator();
+			validator.setOntologyCache(OntologyCache.fromSystemProperties());
+			validator.setResultStore(ResultStore.fromSystemProperties());
+			validator.setProfileRegistry(ProfileRegistry.fromSystemProperties());
+			validator.setOntologyFetcher(OntologyFetcher.fromSystemProperties());
+			validator.setParallelism(getInteger(PARALLELISM_PROPERTY, 1));
+			validator.setBatchSemantics(getBoolean(BATCH_SEMANTICS_PROPERTY));
+			if (getBoolean(JMX_PROPERTY))
+				validator.getMetrics().register();
+			if (reporter instanceof JSONReporter
+					&& getBoolean(TIMINGS_PROPERTY))
+				((JSONReporter) reporter).setTimings(validator.getMetrics());
+			if (watch) {
+				new ComponentWatcher(validator, validator.loadProfile(new URL(
+						pwd, args[1])), new File(args[0]), reporter, getLong(
+						ComponentWatcher.INTERVAL_PROPERTY,
+						ComponentWatcher.DEFAULT_INTERVAL), getLong(
+						ComponentWatcher.QUIET_PROPERTY,
+						ComponentWatcher.DEFAULT_QUIET)).run();
+				return;
+			}
+			if (ComponentArchive.isArchive(args[0])) {
+				validator.validateArchive(new URL(pwd, args[0]),
+						validator.loadProfile(new URL(pwd, args[1])), reporter);
+				reporter.finishComponents();
+				return;
+			}
+			validator.validate(new URL(pwd, args[0]), new URL(pwd, args[1]),
+					reporter);
 		} catch (FileNotFoundException e) {
 			System.err.println(e.getMessage());
 			System.exit(1);
@@ -110,26 +207,16 @@ public class Validator extends XPathSupport {
 			}
 			throw e;
 		}
-		((AssertionReporter) forName(
-				getProperty("validator.reporter.class",
-						JSONReporter.class.getName())).newInstance())
-				.reportAssertions(assertions);
+		reporter.finish();
 	}
 
 	public Validator() throws JAXBException {
 		super(getLogger(XPathSupport.class), "t",
 				"http://taverna.sf.net/2008/xml/t2flow", "", "");
 		log = getLogger(Validator.class);
-		docBuilderFactory = DocumentBuilderFactory.newInstance();
-		docBuilderFactory.setNamespaceAware(true);
-		context = JAXBContext.newInstance(Profile.class);
-	}
-
-	public List<Assertion> validate(URL componentUrl, URL profileUrl)
-			throws IOException, SAXException, ParserConfigurationException,
-			JAXBException, XPathExpressionException {
-		DocumentBuilder db = docBuilderFactory.newDocumentBuilder();
-		db.setErrorHandler(new ErrorHandler() {
+		final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+		dbf.setNamespaceAware(true);
+		final ErrorHandler errorHandler = new ErrorHandler() {
 			@Override
 			public void error(SAXParseException error) throws SAXException {
 				log.error(
@@ -148,131 +235,726 @@ public class Validator extends XPathSupport {
 			public void warning(SAXParseException warning) throws SAXException {
 				log.warn(warning.getMessage());
 			}
+		};
+		docBuilder = new ThreadLocal<DocumentBuilder>() {
+			@Override
+			protected DocumentBuilder initialValue() {
+				try {
+					DocumentBuilder db;
+					// The factory itself is not thread-safe
+					synchronized (dbf) {
+						db = dbf.newDocumentBuilder();
+					}
+					db.setErrorHandler(errorHandler);
+					return db;
+				} catch (ParserConfigurationException e) {
+					throw new IllegalStateException(
+							"failed to configure document parser", e);
+				}
+			}
+		};
+		profileRegistry = new ProfileRegistry();
+	}
+
+	public List<Assertion> validate(URL componentUrl, URL profileUrl)
+			throws IOException, SAXException, ParserConfigurationException,
+			JAXBException, XPathExpressionException {
+		Collector collector = new Collector();
+		validate(componentUrl, profileUrl, collector);
+		return collector.assertions;
+	}
+
+	/**
+	 * Validate a component, passing each assertion to the listener as soon as
+	 * it is made.
+	 */
+	public void validate(URL componentUrl, URL profileUrl,
+			AssertionListener listener) throws IOException, SAXException,
+			ParserConfigurationException, JAXBException,
+			XPathExpressionException {
+		ResultStore store = resultStore;
+		if (store != null) {
+			byte[] bytes = read(componentUrl.openStream());
+			// Compile the profile only if the results are not stored
+			CompiledProfile profile = null;
+			byte[] profileDigest = profileDigest(profileUrl);
+			if (profileDigest == null) {
+				profile = loadProfile(profileUrl);
+				profileDigest = profile.getDigest();
+			}
+			String key = store.key(bytes, profileDigest);
+			List<Assertion> result = store.get(key);
+			if (result == null) {
+				if (profile == null)
+					profile = loadProfile(profileUrl);
+				try {
+					result = validate(readComponent(new ByteArrayInputStream(
+							bytes), componentUrl.toString()), profile);
+				} catch (XMLStreamException e) {
+					throw new SAXException("failed to parse component: "
+							+ e.getMessage(), e);
+				}
+				store.put(key, result);
+			}
+			for (Assertion a : result)
+				listener.assertion(a);
+			return;
+		}
+		ComponentModel component;
+		try {
+			component = readComponent(componentUrl);
+		} catch (XMLStreamException e) {
+			throw new SAXException("failed to parse component: "
+					+ e.getMessage(), e);
+		}
+		validate(component, loadProfile(profileUrl), listener);
+	}
+
+	/**
+	 * Validate a component read from a stream, which is not closed. If there
+	 * is a {@linkplain #setResultStore(ResultStore) result store} and it has
+	 * the results for the same document and profile, they are returned
+	 * without parsing the component.
+	 */
+	public List<Assertion> validate(InputStream component, String systemId,
+			CompiledProfile profile) throws IOException, XMLStreamException {
+		ResultStore store = resultStore;
+		if (store == null)
+			return validate(readComponent(component, systemId), profile);
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		copy(component, buffer);
+		byte[] bytes = buffer.toByteArray();
+		String key = store.key(bytes, profile);
+		List<Assertion> result = store.get(key);
+		if (result == null) {
+			result = validate(readComponent(new ByteArrayInputStream(bytes),
+					systemId), profile);
+			store.put(key, result);
+		}
+		return result;
+	}
+
+	private static void copy(InputStream in, OutputStream out)
+			throws IOException {
+		byte[] b = new byte[8192];
+		int n;
+		while ((n = in.read(b)) >= 0)
+			out.write(b, 0, n);
+	}
+
+	/** Read the whole of a stream, and close it. */
+	private static byte[] read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			copy(in, buffer);
+			return buffer.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Digest what determines the compiled form of a profile, without compiling
+	 * it: the bytes of a bundle, or the documents of the profile chain and the
+	 * versions of the ontologies they use.
+	 *
+	 * @return The digest, or <tt>null</tt> if the version of some ontology
+	 *         cannot be known without loading it.
+	 */
+	@Nullable
+	private byte[] profileDigest(URL profileUrl) throws IOException,
+			JAXBException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not supported", e);
+		}
+		if (ProfileBundle.isBundle(profileUrl.getPath())) {
+			update(md, "bundle");
+			update(md, read(profileUrl.openStream()));
+			return md.digest();
+		}
+		for (String location : profileRegistry.getChain(profileUrl.toString())) {
+			update(md, location);
+			update(md, profileRegistry.getDocument(location));
+			for (Ontology o : profileRegistry.getHeader(location).getOntology()) {
+				String version = ontologyFetcher.version(o.getValue(),
+						ontologyCache);
+				if (version == null)
+					return null;
+				update(md, o.getValue());
+				update(md, version);
+			}
+		}
+		return md.digest();
+	}
+
+	/** Add a part to a digest, so that where parts begin and end counts. */
+	private static void update(MessageDigest md, byte[] part) {
+		int n = part.length;
+		md.update(new byte[] { (byte) (n >>> 24), (byte) (n >>> 16),
+				(byte) (n >>> 8), (byte) n });
+		md.update(part);
+	}
+
+	private static void update(MessageDigest md, String part) {
+		try {
+			update(md, part.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 not supported", e);
+		}
+	}
+
+	/**
+	 * Load and compile a profile chain, or load a precompiled one if the URL
+	 * names a {@linkplain ProfileBundle bundle}.
+	 */
+	public CompiledProfile loadProfile(URL profileUrl) throws IOException,
+			JAXBException {
+		if (!ProfileBundle.isBundle(profileUrl.getPath()))
+			return compile(getProfiles(profileUrl.toString()));
+		long start = nanoTime();
+		try {
+			return ProfileBundle.read(profileUrl);
+		} finally {
+			timed(PROFILE_LOAD, start);
+		}
+	}
+
+	/**
+	 * Validate every component in an archive against a profile, reading each
+	 * straight out of the archive. A component that cannot be read gets a
+	 * single failed assertion saying why.
+	 *
+	 * @return The assertions about each component, keyed by the name of its
+	 *         entry, in archive order. If several entries have the same name,
+	 *         as a tar archive may, only the results for the last are kept;
+	 *         use {@link #validateArchive(URL, CompiledProfile, AssertionReporter)}
+	 *         to see them all.
+	 * @see ComponentArchive
+	 */
+	public Map<String, List<Assertion>> validateArchive(URL archiveUrl,
+			CompiledProfile profile) throws IOException {
+		final Map<String, List<Assertion>> result = new LinkedHashMap<String, List<Assertion>>();
+		validateArchive(archiveUrl, profile, new AssertionReporter() {
+			@Override
+			public void component(String name, List<Assertion> assertions) {
+				result.put(name, assertions);
+			}
 		});
-		Element component = db.parse(new InputSource(componentUrl.toString()))
-				.getDocumentElement();
+		return result;
+	}
+
+	/**
+	 * Validate every component in an archive against a profile, telling the
+	 * reporter about each as soon as it is done, so that nothing need be kept
+	 * for the components already validated. A component that cannot be read
+	 * gets a single failed assertion saying why.
+	 *
+	 * @param reporter
+	 *            Told about each component, with the name of its entry, in
+	 *            archive order; its
+	 *            {@link AssertionReporter#finishComponents()} is left for the
+	 *            caller.
+	 * @see ComponentArchive
+	 */
+	public void validateArchive(URL archiveUrl, CompiledProfile profile,
+			AssertionReporter reporter) throws IOException {
+		ComponentArchive archive = new ComponentArchive(archiveUrl);
+		try {
+			String name;
+			while ((name = archive.next()) != null) {
+				List<Assertion> assertions;
+				try {
+					assertions = validate(archive.getContent(), archiveUrl
+							+ "!/" + name, profile);
+				} catch (XMLStreamException e) {
+					log.warn("failed to read " + name + " from " + archiveUrl
+							+ ": " + e.getMessage());
+					assertions = Collections.<Assertion> singletonList(new Fail(
+							COMPONENT_UNREADABLE, e.getMessage()));
+				}
+				reporter.component(name, assertions);
+			}
+		} finally {
+			archive.close();
+		}
+	}
+
+	/**
+	 * Read the parts of a component that are subject to validation, without
+	 * building a DOM of it.
+	 */
+	public ComponentModel readComponent(URL componentUrl) throws IOException,
+			XMLStreamException {
+		long start = nanoTime();
+		try {
+			return componentReader.read(componentUrl);
+		} finally {
+			timed(PARSE, start);
+		}
+	}
+
+	/**
+	 * Read the parts of a component that are subject to validation from a
+	 * stream, which is not closed.
+	 */
+	public ComponentModel readComponent(InputStream in, String systemId)
+			throws XMLStreamException {
+		long start = nanoTime();
+		try {
+			return componentReader.read(in, systemId);
+		} finally {
+			timed(PARSE, start);
+		}
+	}
+
+	/**
+	 * Parse a component and prepare it for validation. The resulting DOM is
+	 * not safe to share between threads.
+	 */
+	public Element loadComponent(URL componentUrl) throws IOException,
+			SAXException, XPathExpressionException {
+		DocumentBuilder db = docBuilder.get();
+		long start = nanoTime();
+		Element component;
+		try {
+			component = db.parse(new InputSource(componentUrl.toString()))
+					.getDocumentElement();
+		} finally {
+			db.reset();
+			timed(PARSE, start);
+		}
+		start = nanoTime();
 		realizeAttrs(component);
-		List<Profile> profiles = getProfiles(profileUrl.toString());
-		return validate(component, profiles);
+		timed(REALIZE_ATTRS, start);
+		return component;
 	}
 
+	/**
+	 * Load a profile and the chain of profiles that it extends.
+	 *
+	 * @see ProfileRegistry#getProfiles(String)
+	 */
 	public List<Profile> getProfiles(String root) throws JAXBException {
-		Unmarshaller u = context.createUnmarshaller();
-		List<Profile> result = new ArrayList<Profile>();
-		String where = root;
-		while (true) {
-			Profile p = u.unmarshal(new SAXSource(new InputSource(where)),
-					Profile.class).getValue();
-			result.add(p);
-			if (p.getExtends() == null)
-				break;
-			// FIXME how to map this to a URL!?
-			where = p.getExtends().getProfileId();
-			log.warn("cannot resolve " + where + " to a profile document");
-			break;
-		}
-		// FIXME should be what we've last reached, not where we started
-		if (!root.equals(BASE_PROFILE_URL))
-			result.add(getBaseProfile());
-		return result;
+		long start = nanoTime();
+		try {
+			return profileRegistry.getProfiles(root);
+		} finally {
+			timed(PROFILE_LOAD, start);
+		}
 	}
 
 	public List<Assertion> validate(Element component, List<Profile> profiles)
 			throws IOException, XPathExpressionException {
-		List<Assertion> assertions = new ArrayList<Assertion>();
-		Map<String, OntModel> ontocache = new HashMap<String, OntModel>();
-		for (Profile p : profiles) {
-			Map<String, OntModel> ontomap = new HashMap<String, OntModel>();
-			for (Ontology o : p.getOntology()) {
-				if (!ontocache.containsKey(o.getValue()))
-					ontocache.put(o.getValue(), loadOntology(o.getValue()));
-				ontomap.put(o.getId(), ontocache.get(o.getValue()));
-			}
-			assertions.addAll(validateComponent(component, p.getComponent(),
-					ontomap));
+		return validate(component, compile(profiles));
+	}
+
+	/**
+	 * Prepare a chain of profiles for checking components against. This loads
+	 * all the ontologies that the profiles use, in parallel.
+	 *
+	 * @param profiles
+	 *            The profile chain, as produced by {@link #getProfiles(String)}.
+	 * @return The compiled profile, which may be shared between threads.
+	 */
+	public CompiledProfile compile(List<Profile> profiles) throws IOException {
+		Set<String> uris = new LinkedHashSet<String>();
+		for (Profile p : profiles)
+			for (Ontology o : p.getOntology())
+				uris.add(o.getValue());
+		long start = nanoTime();
+		Map<String, OntModel> ontocache;
+		try {
+			ontocache = ontologyFetcher.fetchAll(uris, ontologyCache,
+					ontologyModelCache);
+		} finally {
+			timed(ONTOLOGY_LOAD, start);
 		}
-		return assertions;
+		return new CompiledProfile(profiles, OntologyIndex.index(ontocache));
+	}
+
+	public List<Assertion> validate(Element component, CompiledProfile profile)
+			throws XPathExpressionException {
+		return validate(extract(component), profile);
 	}
 
-	private OntModel loadOntology(String ontologyURI) throws IOException {
-		OntModel model = createOntologyModel();
-		InputStream in = null;
+	public List<Assertion> validate(ComponentModel component,
+			CompiledProfile profile) {
+		Collector collector = new Collector();
+		validate(component, profile, collector);
+		return collector.assertions;
+	}
+
+	/**
+	 * Validate a component, passing each assertion to the listener as soon as
+	 * it is made.
+	 */
+	public void validate(ComponentModel component, CompiledProfile profile,
+			AssertionListener listener) {
+		ComponentIndex index = new ComponentIndex(component);
+		List<Constraint> constraints = profile.getConstraints();
+		List<Future<List<Assertion>>> pending = submit(constraints, index);
 		try {
-			URL url = new URL(ontologyURI);
-			HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-			/* CRITICAL: must be retrieved as correct content type */
-			conn.addRequestProperty("Accept",
-					"application/rdf+xml,application/xml;q=0.9");
-			in = conn.getInputStream();
-			if (conn.getContentEncoding() != null)
-				model.read(new InputStreamReader(new BufferedInputStream(in),
-						conn.getContentEncoding()), url.toString());
-			else
-				// Default the guessing to Jena...
-				model.read(new BufferedInputStream(in), url.toString());
-			return model;
-		} catch (SocketException e) {
-			log.error("failed to load ontology from " + ontologyURI
-					+ " because of " + e.getMessage());
-			throw e;
+			for (int i = 0; i < constraints.size(); i++)
+				for (Assertion a : outcome(pending, i, constraints.get(i),
+						index))
+					listener.assertion(a);
+		} finally {
+			cancel(pending);
+		}
+	}
+
+	/**
+	 * In parallel mode, start checking some constraints on the checking
+	 * threads.
+	 *
+	 * @param constraints
+	 *            The constraints; <tt>null</tt> entries are skipped.
+	 * @return The pending outcomes, in the same order as the constraints, or
+	 *         <tt>null</tt> if not in parallel mode.
+	 */
+	@Nullable
+	private List<Future<List<Assertion>>> submit(List<Constraint> constraints,
+			final ComponentIndex index) {
+		ExecutorService checker = this.checker;
+		if (checker == null || constraints.size() < 2)
+			return null;
+		List<Future<List<Assertion>>> pending = new ArrayList<Future<List<Assertion>>>(
+				constraints.size());
+		for (final Constraint c : constraints)
+			pending.add(c == null ? null : checker
+					.submit(new Callable<List<Assertion>>() {
+						@Override
+						public List<Assertion> call() {
+							return check(c, index);
+						}
+					}));
+		return pending;
+	}
+
+	/**
+	 * The outcome of checking a constraint, waiting for it if it is being
+	 * checked on another thread.
+	 */
+	private List<Assertion> outcome(
+			@Nullable List<Future<List<Assertion>>> pending, int i,
+			Constraint constraint, ComponentIndex index) {
+		if (pending == null)
+			return check(constraint, index);
+		try {
+			return pending.get(i).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while validating", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new IllegalStateException("failed to check constraint",
+					e.getCause());
+		}
+	}
+
+	/** Check a constraint, noting how long it took. */
+	private List<Assertion> check(Constraint constraint, ComponentIndex index) {
+		long start = nanoTime();
+		try {
+			return constraint.apply(this, index);
 		} finally {
-			if (in != null)
-				in.close();
+			long elapsed = nanoTime() - start;
+			metrics.record(CONSTRAINT, elapsed);
+			if (elapsed > slowConstraint)
+				log.warn("checking " + constraint + " took "
+						+ NANOSECONDS.toMillis(elapsed) + "ms");
 		}
 	}
 
+	private void timed(Phase phase, long start) {
+		metrics.record(phase, nanoTime() - start);
+	}
+
+	@Override
+	protected void evaluated(long nanos) {
+		metrics.record(XPATH, nanos);
+	}
+
+	/**
+	 * Set where the timings of the phases of validation are recorded. By
+	 * default, each validator has its own metrics, published through JMX
+	 * under their own names; this allows several to share one set.
+	 */
+	public void setMetrics(ValidationMetrics metrics) {
+		if (metrics == null)
+			throw new IllegalArgumentException("metrics must not be null");
+		this.metrics = metrics;
+	}
+
+	public ValidationMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Set how long checking a constraint may take before it is logged as
+	 * slow.
+	 *
+	 * @param millis
+	 *            The threshold, in milliseconds.
+	 */
+	public void setSlowConstraintThreshold(long millis) {
+		slowConstraint = MILLISECONDS.toNanos(millis);
+	}
+
+	private static void cancel(@Nullable List<Future<List<Assertion>>> pending) {
+		if (pending != null)
+			for (Future<List<Assertion>> f : pending)
+				if (f != null)
+					f.cancel(true);
+	}
+
+	/**
+	 * Set how many threads check the constraints of a single component. With
+	 * more than one, the constraints are checked in parallel, which reduces
+	 * the time taken to validate a large component; the assertions are made
+	 * in the same order either way.
+	 *
+	 * @param threads
+	 *            How many threads to use; 1 (the default) for serial checking.
+	 */
+	public synchronized void setParallelism(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("need at least one thread");
+		if (checker != null)
+			checker.shutdown();
+		checker = threads == 1 ? null : newFixedThreadPool(threads,
+				new DaemonThreadFactory("constraint-checker"));
+		parallelism = threads;
+	}
+
+	/**
+	 * Set how semantic constraints are evaluated. By default, each annotation
+	 * is parsed into its own model, through the annotation cache, and each
+	 * constraint is checked against it separately. In batch mode, all the
+	 * annotations of a component are parsed together into an
+	 * {@link AnnotationDataset}, and each constraint is evaluated against all
+	 * of them at once.
+	 */
+	public void setBatchSemantics(boolean batch) {
+		batchSemantics = batch;
+	}
+
+	public boolean isBatchSemantics() {
+		return batchSemantics;
+	}
+
+	public synchronized int getParallelism() {
+		return parallelism;
+	}
+
+	private static class Collector implements AssertionListener {
+		final List<Assertion> assertions = new ArrayList<Assertion>();
+
+		@Override
+		public void assertion(Assertion assertion) {
+			assertions.add(assertion);
+		}
+	}
+
+	/**
+	 * Validate a component, reusing what can be reused from validating an
+	 * earlier version of it. Only the constraints that look at a port,
+	 * activity or set of component annotations that has changed are checked
+	 * again; the assertions are the same as a full validation would make.
+	 *
+	 * @param previous
+	 *            The result of validating the earlier version, or
+	 *            <tt>null</tt> to validate in full. Ignored if it was made
+	 *            with a different compiled profile.
+	 */
+	public ValidationResult revalidate(ComponentModel component,
+			CompiledProfile profile, @Nullable ValidationResult previous) {
+		if (previous != null && previous.getProfile() != profile)
+			previous = null;
+		Fingerprint.Sections sections = new Fingerprint.Sections(
+				new ComponentIndex(component));
+		List<Constraint> constraints = profile.getConstraints();
+		List<Fingerprint> inputs = new ArrayList<Fingerprint>(
+				constraints.size());
+		List<List<Assertion>> outcomes = new ArrayList<List<Assertion>>(
+				constraints.size());
+		List<Constraint> changed = new ArrayList<Constraint>(
+				constraints.size());
+		int reused = 0;
+		for (int i = 0; i < constraints.size(); i++) {
+			Constraint c = constraints.get(i);
+			Fingerprint f = c.inputs(sections);
+			inputs.add(f);
+			if (previous != null && f.equals(previous.getInputs(i))) {
+				changed.add(null);
+				reused++;
+			} else
+				changed.add(c);
+		}
+		ComponentIndex index = sections.getComponent();
+		List<Future<List<Assertion>>> pending = submit(changed, index);
+		try {
+			for (int i = 0; i < constraints.size(); i++)
+				outcomes.add(changed.get(i) == null ? previous.getOutcome(i)
+						: outcome(pending, i, changed.get(i), index));
+		} finally {
+			cancel(pending);
+		}
+		return new ValidationResult(profile, inputs, outcomes, reused);
+	}
+
+	/**
+	 * Extract the parts of a parsed component that are subject to validation.
+	 */
+	public ComponentModel extract(Element component)
+			throws XPathExpressionException {
+		List<Port> inputs = new ArrayList<Port>();
+		List<Port> outputs = new ArrayList<Port>();
+		Annotations annotations = Annotations.NONE;
+		Element top = getMaybe(component, TOP);
+		if (top != null) {
+			for (Element port : select(top, "./t:inputPorts[1]/t:port"))
+				inputs.add(new Port(text(port, "./t:name"), text(port,
+						"./t:depth"), extractAnnotations(port)));
+			for (Element port : select(top, "./t:outputPorts[1]/t:port"))
+				outputs.add(new Port(text(port, "./t:name"), text(port,
+						"./t:depth"), extractAnnotations(port)));
+			annotations = extractAnnotations(top);
+		}
+		List<Activity> activities = new ArrayList<Activity>();
+		for (Element activity : select(component, ".//t:activities/t:activity"))
+			activities.add(new Activity(text(activity, "./t:class"),
+					extractAnnotations(activity)));
+		return new ComponentModel(inputs, outputs, annotations, activities);
+	}
+
+	private Annotations extractAnnotations(Element owner)
+			throws XPathExpressionException {
+		AnnotationsBuilder ab = new AnnotationsBuilder();
+		for (Element bean : select(owner, "./t:annotations//annotationBean")) {
+			Element content = getMaybe(bean, "./content");
+			ab.add(bean.getAttribute("class"),
+					content == null ? null : content.getTextContent());
+		}
+		return ab.build();
+	}
+
+	/**
+	 * Set where ontology documents are cached between runs.
+	 *
+	 * @param ontologyCache
+	 *            The cache, or <tt>null</tt> to always fetch ontologies
+	 *            directly.
+	 */
+	public void setOntologyCache(@Nullable OntologyCache ontologyCache) {
+		this.ontologyCache = ontologyCache;
+	}
+
+	/**
+	 * Set the cache of parsed semantic annotations. By default, each validator
+	 * has its own cache; this allows several to share one.
+	 */
+	public void setAnnotationCache(AnnotationCache annotationCache) {
+		if (annotationCache == null)
+			throw new IllegalArgumentException("cache must not be null");
+		this.annotationCache = annotationCache;
+	}
+
+	/** Set how ontologies are fetched when a profile is compiled. */
+	public void setOntologyFetcher(OntologyFetcher ontologyFetcher) {
+		if (ontologyFetcher == null)
+			throw new IllegalArgumentException("fetcher must not be null");
+		this.ontologyFetcher = ontologyFetcher;
+	}
+
+	public OntologyFetcher getOntologyFetcher() {
+		return ontologyFetcher;
+	}
+
+	/**
+	 * Set where loaded ontologies are kept between compilations of profiles.
+	 * By default, all validators use the
+	 * {@linkplain OntologyModelCache#getShared() shared} cache.
+	 *
+	 * @param ontologyModelCache
+	 *            The cache, or <tt>null</tt> to load ontologies every time.
+	 */
+	public void setOntologyModelCache(
+			@Nullable OntologyModelCache ontologyModelCache) {
+		this.ontologyModelCache = ontologyModelCache;
+	}
+
+	@Nullable
+	public OntologyModelCache getOntologyModelCache() {
+		return ontologyModelCache;
+	}
+
+	public AnnotationCache getAnnotationCache() {
+		return annotationCache;
+	}
+
+	/**
+	 * Set where profiles are found and kept. By default, each validator has
+	 * its own registry, with an empty catalog; this allows several to share
+	 * one.
+	 */
+	public void setProfileRegistry(ProfileRegistry profileRegistry) {
+		if (profileRegistry == null)
+			throw new IllegalArgumentException("registry must not be null");
+		this.profileRegistry = profileRegistry;
+	}
+
+	public ProfileRegistry getProfileRegistry() {
+		return profileRegistry;
+	}
+
+	/**
+	 * Set where the results of validating components are kept, so that
+	 * components that have not changed are not validated again. By default,
+	 * results are not kept.
+	 */
+	public void setResultStore(@Nullable ResultStore resultStore) {
+		this.resultStore = resultStore;
+	}
+
+	@Nullable
+	public ResultStore getResultStore() {
+		return resultStore;
+	}
+
 	protected List<Assertion> validateComponent(Element component,
 			Component constraint, Map<String, OntModel> ontology)
 			throws XPathExpressionException {
+		List<Constraint> constraints = new ArrayList<Constraint>();
+		compileComponent(null, constraint, OntologyIndex.index(ontology),
+				constraints);
+		ComponentIndex index = new ComponentIndex(extract(component));
 		List<Assertion> result = new ArrayList<Assertion>();
-		for (ComponentAnnotation ca : constraint.getAnnotation())
-			result.add(validateComponentBasicAnnotation(component, ca));
-		for (SemanticAnnotation sa : constraint.getSemanticAnnotation())
-			result.addAll(validateComponentSemanticAnnotation(component, sa,
-					ontology));
-		for (Port ip : constraint.getInputPort())
-			result.addAll(validateInputPort(component, ip, ontology));
-		for (Port op : constraint.getOutputPort())
-			result.addAll(validateOutputPort(component, op, ontology));
-		for (Activity ac : constraint.getActivity())
-			result.add(validateActivity(component, ac, ontology));
+		for (Constraint c : constraints)
+			result.addAll(c.apply(this, index));
 		return result;
 	}
 
-	private static final Map<String, String> TYPE_MAP;
-	static {
-		Map<String, String> map = new HashMap<String, String>();
-		map.put("Tool", ACTIVITIES_PKG + "externaltool.ExternalToolActivity");
-		map.put("XPath", ACTIVITIES_PKG + "xpath.XPathActivity");
-		map.put("Beanshell", ACTIVITIES_PKG + "beanshell.BeanshellActivity");
-		TYPE_MAP = unmodifiableMap(map);
-	}
-
-	private Assertion validateActivity(Element component, Activity constraint,
-			Map<String, OntModel> ontology) throws XPathExpressionException {
-		String type = constraint.getType();
-		if (type != null) {
-			String repltype = TYPE_MAP.get(type);
-			if (repltype != null)
-				type = repltype;
-		}
-		List<Element> activities;
-		if (type == null)
-			activities = select(component, ".//t:activities/t:activity");
-		else
-			activities = select(component, ".//t:activities/t:activity"
-					+ "[t:class='%s']", type);
-		for (SemanticAnnotation sa : constraint.getSemanticAnnotation()) {
-			Iterator<Element> acit = activities.iterator();
+	Assertion validateActivity(ComponentIndex component,
+			ActivityConstraint constraint) {
+		List<Activity> activities = new ArrayList<Activity>(
+				component.getActivities(constraint.activityClass));
+		for (SemanticConstraint sa : constraint.semantics) {
+			Iterator<Activity> acit = activities.iterator();
 			while (acit.hasNext()) {
-				Element activity = acit.next();
-				String rdf = text(activity, ANNOTATION_OF_CLASS + "/content",
-						ANNOTATION_BEAN);
+				Activity activity = acit.next();
+				String rdf = activity.getAnnotations().content(ANNOTATION_BEAN);
 				if (rdf == null || rdf.isEmpty()) {
 					acit.remove();
 					continue;
 				}
-				if (!satisfy(rdf, sa, ontology.get(sa.getOntology()))) {
+				if (!graph(component, rdf).satisfies(sa)) {
 					// TODO warn in this case?
 					acit.remove();
 					continue;
@@ -280,346 +962,264 @@ public class Validator extends XPathSupport {
 			}
 		}
 
-		String desc = constraint.getType() == null ? "" : constraint.getType()
-				+ " ";
-		if (activities.size() < constraint.getMinOccurs().intValue())
-			return new Fail("not enough %sactivities in component to "
-					+ "satisfy minimum (%s)", desc, constraint.getMinOccurs());
-		if (!constraint.getMaxOccurs().equals("unbounded"))
-			if (parseInt(constraint.getMaxOccurs()) < activities.size())
-				return new Fail("too many %sactivities to "
-						+ "satisfy maximum (%s)", desc,
-						constraint.getMaxOccurs());
-		if (!constraint.getSemanticAnnotation().isEmpty()
-				&& activities.isEmpty())
-			return new Warn("no %sactivity satisfies semantic constraints",
-					desc);
-
-		for (Element activity : activities)
-			for (ActivityAnnotation ba : constraint.getAnnotation())
-				if (!isMatched(activity, ANNOTATION_OF_CLASS,
-						getBasicAnnotationTerm(ba.getValue().value())))
+		String desc = constraint.description;
+		if (activities.size() < constraint.minOccurs)
+			return new Fail(ACTIVITY_TOO_FEW, desc, constraint.minOccursText);
+		if (constraint.maxOccurs < activities.size())
+			return new Fail(ACTIVITY_TOO_MANY, desc, constraint.maxOccursText);
+		if (!constraint.semantics.isEmpty() && activities.isEmpty())
+			return new Warn(ACTIVITY_NONE_SELECTED, desc);
+
+		for (Activity activity : activities)
+			for (AnnotationRequirement ba : constraint.annotations)
+				if (!activity.getAnnotations().has(ba.term))
 					// TODO should this be a warning?
-					return new Fail("no %s for %sactivity in component",
-							ba.getValue(), desc);
+					return new Fail(ACTIVITY_ANNOTATION_MISSING, ba.label,
+							desc);
 
-		return new Pass("confirmed semantic and cardinality "
-				+ "constraints for %sactivity(s)", desc);
+		return new Pass(ACTIVITY_CONFIRMED, desc);
 	}
 
-	private List<Assertion> validatePorts(String portType, Element portList,
-			Port constraint, Map<String, OntModel> ontology)
-			throws XPathExpressionException {
+	List<Assertion> validatePort(ComponentIndex component,
+			PortConstraint constraint) {
+		String portType = constraint.portType;
 		List<Assertion> result = new ArrayList<Assertion>();
-		List<Element> restrictedPortList;
-		if (constraint.getName() != null) {
-			if (!isMatched(portList, "./t:port[t:name = '%s']",
-					constraint.getName())) {
-				if (constraint.getMinOccurs().intValue() > 0)
-					result.add(new Fail("no %s port called '%s'", portType,
-							constraint.getName()));
+		List<Port> restrictedPortList;
+		if (constraint.name != null) {
+			Port port = component.getPort(constraint.input, constraint.name);
+			if (port == null) {
+				if (constraint.minOccurs > 0)
+					result.add(new Fail(PORT_MISSING, portType,
+							constraint.name));
 				else
-					result.add(new Pass("%s port '%s' is optional and absent",
-							portType, constraint.getName()));
-				result.addAll(validateAbsentPort(portType, constraint, ontology));
+					result.add(new Pass(PORT_OPTIONAL_ABSENT, portType,
+							constraint.name));
+				result.addAll(validateAbsentPort(component, constraint));
 				return result;
 			}
-			result.add(new Pass("found %s port called '%s'", portType,
-					constraint.getName()));
-			Element port = get(portList, "./t:port[t:name='%s']",
-					constraint.getName());
-			Element rdfElement = getMaybe(port, ANNOTATION_OF_CLASS
-					+ "/content", ANNOTATION_BEAN);
-			if (rdfElement == null
-					&& !constraint.getSemanticAnnotation().isEmpty())
-				result.add(new Warn("no semantic annotation present for "
-						+ "%s port '%s'", portType, constraint.getName()));
-			else {
-				OntModel rdf = parseRDF(rdfElement);
-				for (SemanticAnnotation sa : constraint.getSemanticAnnotation()) {
-					OntModel om = ontology.get(sa.getOntology());
-					String predName = getName(
-							om.getProperty(sa.getPredicate()), sa.getValue());
-					if (satisfy(rdf, sa, om))
-						result.add(new Pass("satisfied semantic annotation "
-								+ "for property '%s' on %s port '%s'",
-								predName, portType, constraint.getName()));
+			result.add(new Pass(PORT_FOUND, portType, constraint.name));
+			String rdfString = port.getAnnotations().content(ANNOTATION_BEAN);
+			if (rdfString == null && !constraint.semantics.isEmpty())
+				result.add(new Warn(PORT_SEMANTIC_ABSENT, portType,
+						constraint.name));
+			else if (!constraint.semantics.isEmpty()) {
+				AnnotationDataset.Graph rdf = graph(component, rdfString);
+				for (SemanticConstraint sa : constraint.semantics)
+					if (rdf.satisfies(sa))
+						result.add(new Pass(PORT_SEMANTIC_SATISFIED, sa.label,
+								portType, constraint.name));
 					else
-						result.add(new Fail("failed semantic annotation "
-								+ "for property '%s' on %s port '%s'",
-								predName, portType, constraint.getName()));
-				}
+						result.add(new Fail(PORT_SEMANTIC_FAILED, sa.label,
+								portType, constraint.name));
 			}
 			restrictedPortList = asList(port);
 		} else {
-			List<SemanticAnnotation> selectionCriteria = new ArrayList<SemanticAnnotation>();
-			for (SemanticAnnotation sa : constraint.getSemanticAnnotation())
-				if (sa.getMinOccurs().intValue() >= 1)
-					selectionCriteria.add(sa);
-			boolean mandate = !selectionCriteria.isEmpty();
-			if (selectionCriteria.isEmpty())
-				for (SemanticAnnotation sa : constraint.getSemanticAnnotation())
-					if (sa.getMinOccurs().intValue() == 0
-							&& !sa.getMaxOccurs().equals("0"))
-						selectionCriteria.add(sa);
-			restrictedPortList = selectPorts(portList, selectionCriteria,
-					ontology);
-			if (restrictedPortList.isEmpty() && mandate)
-				result.add(new Fail("no %s port matches semantic constraints",
-						portType));
-		}
-
-		Map<Element, String> name = new HashMap<Element, String>();
-		for (Element port : restrictedPortList)
-			name.put(port, text(port, "./t:name"));
-
-		for (PortAnnotation pa : constraint.getAnnotation())
-			for (Element port : restrictedPortList)
-				if (!isMatched(port, ANNOTATION_OF_CLASS,
-						getBasicAnnotationTerm(pa.getValue().value())))
-					result.add(new Fail("%s port '%s' lacks %s annotation",
-							portType, name.get(port), pa.getValue().value()));
+			restrictedPortList = selectPorts(component,
+					component.getPorts(constraint.input),
+					constraint.selectionCriteria);
+			if (restrictedPortList.isEmpty() && constraint.mandatory)
+				result.add(new Fail(PORT_NONE_SELECTED, portType));
+		}
+
+		for (AnnotationRequirement pa : constraint.annotations)
+			for (Port port : restrictedPortList)
+				if (!port.getAnnotations().has(pa.term))
+					result.add(new Fail(PORT_ANNOTATION_MISSING, portType,
+							port.getName(), pa.label));
 				else
-					result.add(new Pass("%s port '%s' has %s annotation",
-							portType, name.get(port), pa.getValue().value()));
+					result.add(new Pass(PORT_ANNOTATION_FOUND, portType,
+							port.getName(), pa.label));
 
-		for (Element port : restrictedPortList) {
-			if (text(port, "./t:depth").isEmpty()) {
-				result.add(new Warn("no depth information for port '%s'",
-						portType, name.get(port)));
+		for (Port port : restrictedPortList) {
+			if (port.getDepth().isEmpty()) {
+				result.add(new Warn(PORT_DEPTH_UNKNOWN, portType,
+						port.getName()));
 				continue;
 			}
-			int depth = parseInt(text(port, "./t:depth"));
-			if (depth < constraint.getMinDepth().intValue())
-				result.add(new Fail("%s port '%s' is too shallow: "
-						+ "%d instead of %s", portType, name.get(port), depth,
-						constraint.getMinDepth()));
-			else if (!constraint.getMaxDepth().equals("unbounded")
-					&& depth > parseInt(constraint.getMaxDepth()))
-				result.add(new Fail("%s port '%s' is too deep: "
-						+ "%d instead of %s", portType, name.get(port), depth,
-						constraint.getMaxDepth()));
+			int depth = component.getDepth(port);
+			if (depth < constraint.minDepth)
+				result.add(new Fail(PORT_TOO_SHALLOW, portType, port.getName(),
+						depth, constraint.minDepthText));
+			else if (depth > constraint.maxDepth)
+				result.add(new Fail(PORT_TOO_DEEP, portType, port.getName(),
+						depth, constraint.maxDepthText));
 			else
-				result.add(new Pass("%s port '%s' depth is in permitted range",
-						portType, name.get(port)));
+				result.add(new Pass(PORT_DEPTH_IN_RANGE, portType,
+						port.getName()));
 		}
 		return result;
 	}
 
-	private List<Element> selectPorts(Element portList,
-			List<SemanticAnnotation> restrict, Map<String, OntModel> ontology)
-			throws XPathExpressionException {
-		List<Element> ports = select(portList, "./t:port");
-		Iterator<Element> it = ports.iterator();
-		mainloop: while (it.hasNext()) {
-			Element port = it.next();
-			Element content = getMaybe(port, ANNOTATION_OF_CLASS + "/content",
-					ANNOTATION_BEAN);
-			if (content == null) {
-				it.remove();
+	private List<Port> selectPorts(ComponentIndex component,
+			List<Port> portList, List<SemanticConstraint> restrict) {
+		List<Port> ports = new ArrayList<Port>();
+		mainloop: for (Port port : portList) {
+			String content = port.getAnnotations().content(ANNOTATION_BEAN);
+			if (content == null)
 				continue;
-			}
-			OntModel rdf = parseRDF(content);
+			AnnotationDataset.Graph rdf = graph(component, content);
 
-			for (SemanticAnnotation sa : restrict) {
-				OntModel om = ontology.get(sa.getOntology());
-				if (!satisfy(rdf, sa, om)) {
-					it.remove();
+			for (SemanticConstraint sa : restrict)
+				if (!rdf.satisfies(sa))
 					continue mainloop;
-				}
-			}
+			ports.add(port);
 		}
 		return ports;
 	}
 
-	private String getName(Resource node, String instance) {
-		Statement s = node.getProperty(node.getModel().createProperty(
-				SKOS_LABEL));
-		String name = (s == null ? node.getLocalName() : s.getObject()
-				.asLiteral().getString());
-		if (instance != null && !instance.isEmpty()) {
-			Model model = node.getModel();
-			assert model != null;
-			name += "(" + getName(model.createResource(instance), null) + ")";
-		}
-		return name;
-	}
-
 	// Mock up for absence
-	private List<Assertion> validateAbsentPort(String portType,
-			Port constraint, Map<String, OntModel> ontology) {
+	private List<Assertion> validateAbsentPort(ComponentIndex component,
+			PortConstraint constraint) {
 		List<Assertion> result = new ArrayList<Assertion>();
-		result.add(new Warn("ignoring depth constraints"));
-		for (PortAnnotation ac : constraint.getAnnotation())
-			result.add(new Warn("ignoring %s requirement", ac.getValue()
-					.value().value()));
-		for (SemanticAnnotation sa : constraint.getSemanticAnnotation())
-			result.addAll(validateOntologyAssertion(null, sa,
-					ontology.get(sa.getOntology())));
+		result.add(new Warn(ABSENT_PORT_DEPTH_IGNORED));
+		for (AnnotationRequirement ac : constraint.annotations)
+			result.add(new Warn(ABSENT_PORT_ANNOTATION_IGNORED,
+					ac.absentLabel));
+		for (SemanticConstraint sa : constraint.semantics)
+			result.addAll(validateOntologyAssertion(component, null, sa));
 		return result;
 	}
 
-	private List<Assertion> validateOutputPort(Element component,
-			Port constraint, Map<String, OntModel> ontology)
-			throws XPathExpressionException {
-		return validatePorts("component output",
-				get(component, TOP + "/t:outputPorts"), constraint, ontology);
-	}
-
-	private List<Assertion> validateInputPort(Element component,
-			Port constraint, Map<String, OntModel> ontology)
-			throws XPathExpressionException {
-		return validatePorts("component input",
-				get(component, TOP + "/t:inputPorts"), constraint, ontology);
-	}
-
-	private List<Assertion> validateComponentSemanticAnnotation(
-			Element component, SemanticAnnotation constraint,
-			Map<String, OntModel> ontology) throws XPathExpressionException {
-		OntModel model = ontology.get(constraint.getOntology());
-		String rdf = text(component, TOP + "/" + ANNOTATION_OF_CLASS
-				+ "/content", ANNOTATION_BEAN);
-		return validateOntologyAssertion(rdf, constraint, model);
+	List<Assertion> validateComponentSemanticAnnotation(
+			ComponentIndex component, SemanticConstraint constraint) {
+		String rdf = component.getAnnotations().content(ANNOTATION_BEAN);
+		return validateOntologyAssertion(component, rdf == null ? "" : rdf,
+				constraint);
 	}
 
-	private List<Assertion> validateOntologyAssertion(
-			@Nullable String rdfString, SemanticAnnotation constraint,
-			OntModel model) {
+	private List<Assertion> validateOntologyAssertion(ComponentIndex component,
+			@Nullable String rdfString, SemanticConstraint constraint) {
 		List<Assertion> result = new ArrayList<Assertion>();
-		Property prop = model.createProperty(constraint.getPredicate());
-		String propName = getName(prop, constraint.getValue());
+		String propName = constraint.label;
 		if (rdfString == null) {
-			result.add(new Warn("no component-level semantic annotations; "
-					+ "cannot check for '%s'", propName));
+			result.add(new Warn(COMPONENT_SEMANTIC_UNCHECKABLE, propName));
 			return result;
 		} else if (rdfString.isEmpty()) {
-			result.add(new Fail("failed to satisfy '%s' annotation at "
-					+ "component level", propName));
+			result.add(new Fail(COMPONENT_SEMANTIC_FAILED, propName));
 			return result;
 		}
 
-		OntModel rdf = parseRDF(rdfString);
-		if (!satisfy(rdf, constraint, model)) {
-			result.add(new Fail("failed to satisfy '%s' annotation at "
-					+ "component level", propName));
+		AnnotationDataset.Graph rdf = graph(component, rdfString);
+		if (!rdf.satisfies(constraint)) {
+			result.add(new Fail(COMPONENT_SEMANTIC_FAILED, propName));
 		} else {
-			result.add(new Pass("found '%s' annotation at component level",
-					propName));
-			RDFNode object = any;
-			if (!constraint.getValue().isEmpty())
-				object = model.createResource(constraint.getValue());
-			int numsat = rdf.listStatements(null, prop, object).toList().size();
-			if (numsat < constraint.getMinOccurs().intValue())
-				result.add(new Fail("too few '%s' annotations at component "
-						+ "level: %d instead of %s", propName, numsat,
-						constraint.getMinOccurs()));
-			else if (!constraint.getMaxOccurs().equals("unbounded")
-					&& numsat > parseInt(constraint.getMaxOccurs()))
-				result.add(new Fail("too many '%s' annotations at component "
-						+ "level: %d instead of %s", propName, numsat,
-						constraint.getMaxOccurs()));
+			result.add(new Pass(COMPONENT_SEMANTIC_FOUND, propName));
+			int numsat = rdf.count(constraint);
+			if (numsat < constraint.minOccurs)
+				result.add(new Fail(COMPONENT_SEMANTIC_TOO_FEW, propName,
+						numsat, constraint.minOccursText));
+			else if (numsat > constraint.maxOccurs)
+				result.add(new Fail(COMPONENT_SEMANTIC_TOO_MANY, propName,
+						numsat, constraint.maxOccursText));
 			else
-				result.add(new Pass("%d '%s' annotations at component level: "
-						+ "in range %s to %s", numsat, propName, constraint
-						.getMinOccurs(), constraint.getMaxOccurs()));
+				result.add(new Pass(COMPONENT_SEMANTIC_IN_RANGE, numsat,
+						propName, constraint.minOccursText,
+						constraint.maxOccursText));
 		}
 		return result;
 	}
 
-	private static String BASE = format("widget://%s/", randomUUID());
 	protected static final String ENCODING = "TURTLE";
 
-	private OntModel parseRDF(Element rdfContainer) {
-		return parseRDF(rdfContainer.getTextContent());
+	private OntModel parseRDF(String rdf) {
+		long start = nanoTime();
+		try {
+			return annotationCache.get(rdf);
+		} finally {
+			timed(PARSE_RDF, start);
+		}
 	}
 
-	private OntModel parseRDF(String rdf) {
-		OntModel local = createOntologyModel();
-		local.read(new StringReader(rdf), BASE, ENCODING);
-		return local;
+	/**
+	 * The semantic annotation of part of a component, in whichever form the
+	 * {@linkplain #setBatchSemantics(boolean) evaluation mode} calls for.
+	 */
+	private AnnotationDataset.Graph graph(ComponentIndex component, String rdf) {
+		if (batchSemantics)
+			return component.getDataset(metrics).graph(rdf);
+		return new ModelGraph(parseRDF(rdf));
 	}
 
-	private boolean satisfy(String rdf,
-			SemanticAnnotation annotationConstraint, OntModel model) {
-		return satisfy(parseRDF(rdf), annotationConstraint, model);
+	/** An annotation parsed into a model of its own. */
+	private class ModelGraph implements AnnotationDataset.Graph {
+		private final OntModel model;
+
+		ModelGraph(OntModel model) {
+			this.model = model;
+		}
+
+		@Override
+		public boolean satisfies(SemanticConstraint constraint) {
+			return satisfy(model, constraint);
+		}
+
+		@Override
+		public int count(SemanticConstraint constraint) {
+			// Parsed annotations may be shared through the annotation cache
+			synchronized (model) {
+				return model.listStatements(null, constraint.predicate,
+						constraint.value).toList().size();
+			}
+		}
 	}
 
-	private boolean satisfy(OntModel local, SemanticAnnotation constraint,
-			OntModel model) {
-		if (!constraint.getValue().isEmpty())
-			return !local
-					.listStatements(null,
-							local.createProperty(constraint.getPredicate()),
-							local.createResource(constraint.getValue()))
-					.toList().isEmpty();
+	private boolean satisfy(OntModel local, SemanticConstraint constraint) {
+		RDFNode node;
+		// Parsed annotations may be shared through the annotation cache
+		synchronized (local) {
+			StmtIterator it = local.listStatements(null, constraint.predicate,
+					constraint.value);
+			try {
+				if (!it.hasNext())
+					return false;
 
-		List<Statement> s = local.listStatements(null,
-				local.createProperty(constraint.getPredicate()), any).toList();
-		if (s.isEmpty())
-			return false;
+				/*
+				 * If there's a value or no class constraint, we're done here.
+				 */
+				if (constraint.value != null || constraint.clazz == null)
+					return true;
 
-		/*
-		 * If there's no class constraint, we're done here.
-		 */
-		if (constraint.getClazz() == null)
-			return true;
-
-		RDFNode node = s.get(0).getObject();
-		if (isInClass(node, constraint))
-			return true;
-
-		/*
-		 * See if the model from the ontology knows anything about this
-		 * individual.
-		 */
-		if (node.isResource()
-				&& isInClass(model.getIndividual(node.asResource().getURI()),
-						constraint))
-			return true;
+				node = it.next().getObject();
+				if (isInClass(node, constraint.clazz))
+					return true;
+
+				/*
+				 * See if the ontology knows anything about this individual.
+				 */
+				if (constraint.ontology.isInClass(node, constraint.classId))
+					return true;
+			} finally {
+				it.close();
+			}
+		}
 
 		log.warn("object " + node + " is not an individual");
 		// FIXME Not an individual! What to do here?
 		return false;
 	}
 
-	private static boolean isInClass(RDFNode node,
-			SemanticAnnotation annotationConstraint) {
+	private static boolean isInClass(RDFNode node, String clazz) {
 		if (node == null)
 			return false;
 		if (node.isLiteral())
-			return node.asLiteral().getDatatypeURI()
-					.equals(annotationConstraint.getClazz());
+			return node.asLiteral().getDatatypeURI().equals(clazz);
 		if (node.canAs(Individual.class))
-			for (Resource clazz : node.as(Individual.class)
-					.listOntClasses(false).toList())
-				if (clazz.getURI().equals(annotationConstraint.getClazz()))
+			for (Resource c : node.as(Individual.class).listOntClasses(false)
+					.toList())
+				if (c.getURI().equals(clazz))
 					return true;
 		// What about other things?
 		return false;
 	}
 
-	private String getBasicAnnotationTerm(BasicAnnotations ba) {
-		switch (ba) {
-		case AUTHOR:
-			return ANNOTATION_PKG + "Author";
-		case DESCRIPTION:
-			return ANNOTATION_PKG + "FreeTextDescription";
-		case EXAMPLE:
-			return ANNOTATION_PKG + "ExampleValue";
-		case TITLE:
-			return ANNOTATION_PKG + "DescriptiveTitle";
-		default:
-			throw new IllegalStateException();
-		}
-	}
-
-	private Assertion validateComponentBasicAnnotation(Element component,
-			ComponentAnnotation constraint) throws XPathExpressionException {
-		if (isMatched(component, TOP + "/" + ANNOTATION_OF_CLASS,
-				getBasicAnnotationTerm(constraint.getValue().value())))
-			return new Pass("found %s for component", constraint.getValue());
+	Assertion validateComponentBasicAnnotation(ComponentIndex component,
+			ComponentAnnotationConstraint constraint) {
+		if (component.getAnnotations().has(constraint.annotation.term))
+			return new Pass(COMPONENT_ANNOTATION_FOUND,
+					constraint.annotation.label);
 		else
-			return new Fail("no %s for component", constraint.getValue());
+			return new Fail(COMPONENT_ANNOTATION_MISSING,
+					constraint.annotation.label);
 	}
 
 	private void realizeAttrs(Element base) throws XPathExpressionException {
@@ -627,19 +1227,30 @@ public class Validator extends XPathSupport {
 			((Attr) n).getValue();
 	}
 
-	private static final String BASE_PROFILE_URL = "http://build.mygrid.org.uk/taverna/BaseProfile.xml";
-	private Profile cachedBaseProfile;
-
-	private Profile getBaseProfile() throws JAXBException {
-		try {
-			if (cachedBaseProfile == null)
-				cachedBaseProfile = (Profile) context.createUnmarshaller()
-						.unmarshal(new URL(BASE_PROFILE_URL));
-			return cachedBaseProfile;
-		} catch (MalformedURLException e) {
-			log.error("unexpected problem with creating URL"
-					+ " for base profile", e);
-			return null;
-		}
-	}
+	/**
+	 * System property giving how long, in milliseconds, checking a
+	 * constraint may take before it is logged as slow.
+	 */
+	public static final String SLOW_CONSTRAINT_PROPERTY = "validator.metrics.slowConstraint";
+	/** System property enabling publishing of the metrics through JMX. */
+	public static final String JMX_PROPERTY = "validator.metrics.jmx";
+	/** System property enabling timings in the JSON report. */
+	public static final String TIMINGS_PROPERTY = "validator.reporter.timings";
+	/**
+	 * The version of the checks that validators make. Increase it whenever a
+	 * change makes the validator say something different about the same
+	 * component and profile, such as a new check, code or message, so that
+	 * {@linkplain ResultStore stored results} made before are not used.
+	 */
+	static final int CHECKS_VERSION = 1;
+	/**
+	 * System property enabling batch evaluation of semantic constraints.
+	 *
+	 * @see #setBatchSemantics(boolean)
+	 */
+	public static final String BATCH_SEMANTICS_PROPERTY = "validator.semantics.batch";
+	/** System property giving how many threads check one component. */
+	public static final String PARALLELISM_PROPERTY = "validator.parallelism";
+	/** Where to load the base profile from, if not its usual location. */
+	public static final String BASE_PROFILE_PROPERTY = ProfileRegistry.BASE_PROFILE_PROPERTY;
 }
@@ -1,6 +1,7 @@
 package org.taverna.component.validator;
 
-import static java.lang.String.format;
+import static java.lang.Integer.parseInt;
+import static java.lang.System.nanoTime;
 import static javax.xml.XMLConstants.FEATURE_SECURE_PROCESSING;
 import static javax.xml.XMLConstants.NULL_NS_URI;
 import static javax.xml.XMLConstants.XMLNS_ATTRIBUTE;
@@ -22,12 +23,16 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Transformer;
@@ -39,6 +44,7 @@ import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
+import javax.xml.xpath.XPathVariableResolver;
 
 import org.slf4j.Logger;
 import org.w3c.dom.Element;
@@ -84,42 +90,154 @@ class XPathSupport {
 			}
 		};
 		this.log = log;
-		cache = new XPathMap();
+		this.maxExpressions = Integer.getInteger(CACHE_SIZE_PROPERTY,
+				DEFAULT_CACHE_SIZE);
+		cache = new ThreadLocal<XPathMap>() {
+			@Override
+			protected XPathMap initialValue() {
+				return new XPathMap();
+			}
+		};
 	}
 
+	/**
+	 * How many compiled expressions each thread keeps; the least recently used
+	 * are discarded beyond this.
+	 */
+	public static final String CACHE_SIZE_PROPERTY = "validator.xpath.cacheSize";
+	static final int DEFAULT_CACHE_SIZE = 256;
+	private static final String ARG_PREFIX = "arg";
+
 	private final Logger log;
 	private final NamespaceContext context;
-	private final XPathMap cache;
+	private final int maxExpressions;
+	/**
+	 * Compiled expressions are not thread-safe (nor is the {@link XPath} that
+	 * compiles them) so each thread gets its own compiler and cache.
+	 */
+	private final ThreadLocal<XPathMap> cache;
+	private final AtomicLong compiles = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
 
+	/**
+	 * A thread's compiled expressions, in access order, together with the
+	 * values of the variables for the expression being evaluated.
+	 */
 	@SuppressWarnings("serial")
-	private class XPathMap extends HashMap<String, XPathExpression> {
+	private class XPathMap extends LinkedHashMap<String, XPathExpression>
+			implements XPathVariableResolver {
 		final XPath factory;
+		Object[] args = NO_ARGS;
 
 		XPathMap() {
+			super(16, 0.75f, true);
 			factory = XPathFactory.newInstance().newXPath();
 			factory.setNamespaceContext(context);
+			factory.setXPathVariableResolver(this);
 		}
 
 		XPathExpression compile(String expression)
 				throws XPathExpressionException {
-			if (!containsKey(expression)) {
-				log.info("compiling expression for " + expression);
-				put(expression, factory.compile(expression));
-			}
-			return get(expression);
+			XPathExpression xp = get(expression);
+			if (xp == null) {
+				log.debug("compiling expression for " + expression);
+				xp = factory.compile(expression);
+				put(expression, xp);
+				compiles.incrementAndGet();
+			} else
+				hits.incrementAndGet();
+			return xp;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, XPathExpression> eldest) {
+			if (size() <= maxExpressions)
+				return false;
+			evictions.incrementAndGet();
+			return true;
+		}
+
+		@Override
+		public Object resolveVariable(QName name) {
+			String local = name.getLocalPart();
+			if (name.getNamespaceURI().isEmpty()
+					&& local.startsWith(ARG_PREFIX))
+				try {
+					int i = parseInt(local.substring(ARG_PREFIX.length())) - 1;
+					if (i >= 0 && i < args.length)
+						return value(args[i]);
+				} catch (NumberFormatException e) {
+					// Fall through
+				}
+			return null;
 		}
 	}
 
-	private XPathExpression xp(String expression, Object[] args)
-			throws XPathExpressionException {
-		return cache.compile(format(expression, args));
+	private static final Object[] NO_ARGS = new Object[0];
+
+	private static Object value(Object arg) {
+		if (arg instanceof Number)
+			return ((Number) arg).doubleValue();
+		if (arg instanceof String || arg instanceof Boolean
+				|| arg instanceof Node || arg instanceof NodeList)
+			return arg;
+		return String.valueOf(arg);
+	}
+
+	/**
+	 * Evaluate an expression. The expression is a fixed template that refers
+	 * to its arguments as the variables <tt>$arg1</tt>, <tt>$arg2</tt>, etc.,
+	 * so each template is compiled only once whatever the arguments are.
+	 */
+	private Object eval(Element context, String expression, Object[] args,
+			QName type) throws XPathExpressionException {
+		XPathMap map = cache.get();
+		XPathExpression xp = map.compile(expression);
+		map.args = args;
+		long start = nanoTime();
+		try {
+			return xp.evaluate(context, type);
+		} finally {
+			map.args = NO_ARGS;
+			evaluated(nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Called after each expression is evaluated.
+	 *
+	 * @param nanos
+	 *            How long the evaluation took, in nanoseconds.
+	 */
+	protected void evaluated(long nanos) {
+	}
+
+	private static String describe(String expression, Object[] args) {
+		return args.length == 0 ? expression : expression + " with "
+				+ Arrays.toString(args);
+	}
+
+	/** How many times an expression has been compiled, over all threads. */
+	public long getXPathCompileCount() {
+		return compiles.get();
+	}
+
+	/** How many times a compiled expression has been reused. */
+	public long getXPathHitCount() {
+		return hits.get();
+	}
+
+	/** How many compiled expressions have been discarded. */
+	public long getXPathEvictionCount() {
+		return evictions.get();
 	}
 
 	public List<Element> select(Element context, String expression,
 			Object... args) throws XPathExpressionException {
 		List<Element> result = new ArrayList<Element>();
-		NodeList nl = (NodeList) xp(expression, args)
-				.evaluate(context, NODESET);
+		NodeList nl = (NodeList) eval(context, expression, args, NODESET);
 		for (int i = 0; i < nl.getLength(); i++)
 			result.add((Element) nl.item(i));
 		return result;
@@ -128,8 +246,7 @@ class XPathSupport {
 	public List<Node> selectNodes(Element context, String expression,
 			Object... args) throws XPathExpressionException {
 		List<Node> result = new ArrayList<Node>();
-		NodeList nl = (NodeList) xp(expression, args)
-				.evaluate(context, NODESET);
+		NodeList nl = (NodeList) eval(context, expression, args, NODESET);
 		for (int i = 0; i < nl.getLength(); i++)
 			result.add(nl.item(i));
 		return result;
@@ -138,33 +255,33 @@ class XPathSupport {
 	@NonNull
 	public Element get(Element context, String expression, Object... args)
 			throws XPathExpressionException {
-		Element e = (Element) xp(expression, args).evaluate(context, NODE);
+		Element e = (Element) eval(context, expression, args, NODE);
 		if (e == null)
 			throw new RuntimeException("nothing matched "
-					+ format(expression, args));
+					+ describe(expression, args));
 		return e;
 	}
 
 	@Nullable
 	public Element getMaybe(Element context, String expression, Object... args)
 			throws XPathExpressionException {
-		return (Element) xp(expression, args).evaluate(context, NODE);
+		return (Element) eval(context, expression, args, NODE);
 	}
 
 	@NonNull
 	public String text(Element context, String expression, Object... args)
 			throws XPathExpressionException {
-		return (String) xp(expression, args).evaluate(context, STRING);
+		return (String) eval(context, expression, args, STRING);
 	}
 
 	public boolean isMatched(Element context, String expression, Object... args)
 			throws XPathExpressionException {
-		return (Boolean) xp(expression, args).evaluate(context, BOOLEAN);
+		return (Boolean) eval(context, expression, args, BOOLEAN);
 	}
 
 	public double number(Element context, String expression, Object... args)
 			throws XPathExpressionException {
-		return (Double) xp(expression, args).evaluate(context, NUMBER);
+		return (Double) eval(context, expression, args, NUMBER);
 	}
 
 	public Element read(String doc) throws ParserConfigurationException,
@@ -0,0 +1,134 @@
+package org.taverna.component.validator;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.taverna.component.validator.support.Examples.component;
+import static org.taverna.component.validator.support.Examples.ontology;
+import static org.taverna.component.validator.support.Examples.profile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.taverna.component.validator.AssertionReporter.AggregatingReporter;
+import org.taverna.component.validator.support.Archives;
+
+import uk.org.taverna.ns._2012.component.profile.Port;
+import uk.org.taverna.ns._2012.component.profile.Profile;
+
+public class AggregatingReporterTest {
+	File archive;
+	Validator validator;
+	CompiledProfile profile;
+
+	@Before
+	public void setup() throws Exception {
+		validator = new Validator();
+		profile = validator.compile(singletonList(profile(ontology()
+				.toString())));
+		byte[] component = Archives.read(component().openStream());
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		entries.put("first.t2flow", component);
+		entries.put("second.t2flow", component);
+		entries.put("broken.t2flow", "<workflow".getBytes("UTF-8"));
+		archive = File.createTempFile("components", ".zip");
+		Archives.zip(archive, entries);
+	}
+
+	@After
+	public void teardown() {
+		archive.delete();
+	}
+
+	@Test
+	public void countsMatchFullReport() throws Exception {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		AggregatingReporter reporter = new AggregatingReporter(
+				new PrintStream(buffer, true, "UTF-8"));
+		validator.validateArchive(archive.toURI().toURL(), profile, reporter);
+		assertFalse(reporter.finishComponents());
+
+		String[] lines = buffer.toString("UTF-8").split("\n");
+		assertEquals(4, lines.length);
+		JSONObject broken = new JSONObject(lines[2]);
+		assertEquals("failed", broken.getString("type"));
+		assertEquals("broken.t2flow", broken.getString("component"));
+		assertEquals("[\"COMPONENT_UNREADABLE\"]", broken.getJSONArray("failed")
+				.toString());
+		JSONObject summary = new JSONObject(lines[3]);
+		assertEquals("summary", summary.getString("type"));
+		assertEquals(3, summary.getLong("numComponents"));
+		assertEquals(3, summary.getLong("numFailedComponents"));
+
+		// The same totals as counting up the full report
+		Map<String, int[]> expected = new LinkedHashMap<String, int[]>();
+		for (List<Assertion> assertions : validator.validateArchive(
+				archive.toURI().toURL(), profile).values())
+			for (Assertion a : assertions) {
+				String key = AggregatingReporter.key(a);
+				int[] c = expected.get(key);
+				if (c == null)
+					expected.put(key, c = new int[3]);
+				c[!a.satisfied ? 0 : a.warning ? 1 : 2]++;
+			}
+		JSONObject constraints = summary.getJSONObject("constraints");
+		assertEquals(expected.size(), constraints.length());
+		for (Map.Entry<String, int[]> e : expected.entrySet()) {
+			JSONObject c = constraints.getJSONObject(e.getKey());
+			assertEquals(e.getKey(), e.getValue()[0], c.getInt("numFailed"));
+			assertEquals(e.getKey(), e.getValue()[1], c.getInt("numWarning"));
+			assertEquals(e.getKey(), e.getValue()[2], c.getInt("numSatisfied"));
+		}
+		assertEquals(1, constraints.getJSONObject("COMPONENT_UNREADABLE")
+				.getInt("numFailedComponents"));
+	}
+
+	@Test
+	public void portsCountedApart() throws Exception {
+		Profile p = profile(ontology().toString());
+		for (String name : new String[] { "missing1", "missing2" }) {
+			Port port = new Port();
+			port.setName(name);
+			p.getComponent().getInputPort().add(port);
+		}
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		AggregatingReporter reporter = new AggregatingReporter(
+				new PrintStream(buffer, true, "UTF-8"));
+		validator.validateArchive(archive.toURI().toURL(),
+				validator.compile(singletonList(p)), reporter);
+		reporter.finishComponents();
+
+		String[] lines = buffer.toString("UTF-8").split("\n");
+		JSONArray failed = new JSONObject(lines[0]).getJSONArray("failed");
+		List<String> missing = new ArrayList<String>();
+		for (int i = 0; i < failed.length(); i++)
+			if (failed.getString(i).startsWith(
+					"PORT_MISSING inputPort 'missing"))
+				missing.add(failed.getString(i));
+		assertEquals(2, missing.size());
+		// Sorted
+		assertTrue(missing.get(0).contains("'missing1'"));
+		assertTrue(missing.get(1).contains("'missing2'"));
+
+		JSONObject constraints = new JSONObject(lines[lines.length - 1])
+				.getJSONObject("constraints");
+		for (String key : missing) {
+			JSONObject c = constraints.getJSONObject(key);
+			assertEquals("PORT_MISSING", c.getString("code"));
+			assertTrue(c.getString("constraint").startsWith("inputPort"));
+			assertEquals(2, c.getInt("numFailed"));
+			assertEquals(2, c.getInt("numFailedComponents"));
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package org.taverna.component.validator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.hp.hpl.jena.ontology.OntModel;
+
+public class AnnotationCacheTest {
+	private static String annotation(String value) {
+		return "<http://example.org/port> <http://example.org/p> \"" + value
+				+ "\" .";
+	}
+
+	@Test
+	public void parsedOnce() {
+		AnnotationCache cache = new AnnotationCache();
+		OntModel first = cache.get(annotation("a"));
+		assertSame(first, cache.get(annotation("a")));
+		assertNotSame(first, cache.get(annotation("b")));
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(2, cache.size());
+		assertEquals(0, cache.getEvictions());
+	}
+
+	@Test
+	public void leastRecentlyUsedDiscarded() {
+		AnnotationCache cache = new AnnotationCache(2, Long.MAX_VALUE);
+		OntModel a = cache.get(annotation("a"));
+		cache.get(annotation("b"));
+		// Using it makes it the most recently used
+		assertSame(a, cache.get(annotation("a")));
+		cache.get(annotation("c"));
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertSame(a, cache.get(annotation("a")));
+		assertEquals(2, cache.getHits());
+		cache.get(annotation("b"));
+		assertEquals(4, cache.getMisses());
+	}
+
+	@Test
+	public void discardedBySize() {
+		int length = annotation("a").length();
+		AnnotationCache cache = new AnnotationCache(100, length * 2);
+		cache.get(annotation("a"));
+		cache.get(annotation("b"));
+		assertEquals(2, cache.size());
+		cache.get(annotation("c"));
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		cache.get(annotation("a"));
+		assertEquals(4, cache.getMisses());
+
+		// Too big to keep at all
+		StringBuilder big = new StringBuilder();
+		for (int i = 0; i < 3; i++)
+			big.append(annotation("big" + i)).append('\n');
+		cache.get(big.toString());
+		cache.get(big.toString());
+		assertEquals(6, cache.getMisses());
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void disabled() {
+		AnnotationCache cache = new AnnotationCache(0, Long.MAX_VALUE);
+		assertNotSame(cache.get(annotation("a")), cache.get(annotation("a")));
+		assertEquals(0, cache.size());
+		assertEquals(2, cache.getMisses());
+	}
+}
@@ -0,0 +1,98 @@
+package org.taverna.component.validator;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.taverna.component.validator.support.Examples.component;
+import static org.taverna.component.validator.support.Examples.describe;
+import static org.taverna.component.validator.support.Examples.expected;
+import static org.taverna.component.validator.support.Examples.ontology;
+import static org.taverna.component.validator.support.Examples.profile;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.taverna.component.validator.support.Archives;
+
+public class ArchiveValidationTest {
+	private static final String LONG_NAME = "family/"
+			+ "a-component-with-a-name-far-too-long-to-fit-in-the-name-field-"
+			+ "of-a-tar-header.t2flow";
+	File dir;
+	Validator validator;
+	CompiledProfile profile;
+	Map<String, byte[]> entries;
+
+	@Before
+	public void setup() throws Exception {
+		dir = File.createTempFile("archives", "");
+		dir.delete();
+		dir.mkdir();
+		validator = new Validator();
+		profile = validator.compile(singletonList(profile(ontology()
+				.toString())));
+		byte[] component = Archives.read(component().openStream());
+		entries = new LinkedHashMap<String, byte[]>();
+		entries.put("family/", null);
+		entries.put("family/first.t2flow", component);
+		entries.put("family/README", "not a component".getBytes("UTF-8"));
+		entries.put(LONG_NAME, component);
+		entries.put("family/broken.t2flow", "<workflow".getBytes("UTF-8"));
+	}
+
+	@After
+	public void teardown() {
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	private void check(File archive) throws Exception {
+		Map<String, List<Assertion>> results = validator.validateArchive(
+				archive.toURI().toURL(), profile);
+		assertEquals("[family/first.t2flow, " + LONG_NAME
+				+ ", family/broken.t2flow]", new ArrayList<String>(
+				results.keySet()).toString());
+		assertEquals(expected(), describe(results.get("family/first.t2flow")));
+		assertEquals(expected(), describe(results.get(LONG_NAME)));
+		List<Assertion> broken = results.get("family/broken.t2flow");
+		assertEquals(1, broken.size());
+		assertFalse(broken.get(0).satisfied);
+		assertEquals(AssertionCode.COMPONENT_UNREADABLE, broken.get(0)
+				.getCode());
+	}
+
+	@Test
+	public void zip() throws Exception {
+		File f = new File(dir, "family.zip");
+		Archives.zip(f, entries);
+		check(f);
+	}
+
+	@Test
+	public void tar() throws Exception {
+		File f = new File(dir, "family.tar");
+		Archives.tar(f, entries, false);
+		check(f);
+	}
+
+	@Test
+	public void paxTar() throws Exception {
+		File f = new File(dir, "family.tar");
+		Archives.tar(f, entries, false, true);
+		check(f);
+	}
+
+	@Test
+	public void tarGz() throws Exception {
+		File f = new File(dir, "family.tar.gz");
+		Archives.tar(f, entries, true);
+		check(f);
+	}
+}
@@ -0,0 +1,49 @@
+package org.taverna.component.validator;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.taverna.component.validator.support.Examples.component;
+import static org.taverna.component.validator.support.Examples.describe;
+import static org.taverna.component.validator.support.Examples.expected;
+import static org.taverna.component.validator.support.Examples.ontology;
+import static org.taverna.component.validator.support.Examples.profile;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.taverna.component.validator.ValidationMetrics.Phase;
+
+public class BatchSemanticsTest {
+	Validator validator;
+	CompiledProfile profile;
+	ComponentModel component;
+
+	@Before
+	public void setup() throws Exception {
+		validator = new Validator();
+		validator.setBatchSemantics(true);
+		profile = validator.compile(singletonList(profile(ontology()
+				.toString())));
+		component = validator.readComponent(component());
+	}
+
+	@Test
+	public void sameAsSeparateModels() throws Exception {
+		assertEquals(expected(),
+				describe(validator.validate(component, profile)));
+		// All the annotations were parsed in one go
+		assertEquals(1, validator.getMetrics().getCount(Phase.PARSE_RDF));
+		assertEquals(0, validator.getAnnotationCache().getMisses());
+	}
+
+	@Test
+	public void sameInParallel() throws Exception {
+		validator.setParallelism(4);
+		try {
+			for (int i = 0; i < 10; i++)
+				assertEquals(expected(),
+						describe(validator.validate(component, profile)));
+		} finally {
+			validator.setParallelism(1);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package org.taverna.component.validator;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.taverna.component.validator.support.Examples.component;
+import static org.taverna.component.validator.support.Examples.describe;
+import static org.taverna.component.validator.support.Examples.expected;
+import static org.taverna.component.validator.support.Examples.ontology;
+import static org.taverna.component.validator.support.Examples.profile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.taverna.component.validator.ComponentModel.Activity;
+import org.taverna.component.validator.ComponentModel.Annotations;
+import org.taverna.component.validator.ComponentModel.Port;
+
+public class ComponentReaderTest {
+	Validator validator;
+
+	@Before
+	public void setup() throws Exception {
+		validator = new Validator();
+	}
+
+	private static String summarise(Annotations annotations) {
+		StringBuilder sb = new StringBuilder("{");
+		for (String beanClass : annotations.classes())
+			sb.append(beanClass).append('=')
+					.append(annotations.contents(beanClass)).append(';');
+		return sb.append('}').toString();
+	}
+
+	private static List<String> summarise(ComponentModel model) {
+		List<String> result = new ArrayList<String>();
+		for (Port p : model.getInputPorts())
+			result.add("in " + p.getName() + " " + p.getDepth() + " "
+					+ summarise(p.getAnnotations()));
+		for (Port p : model.getOutputPorts())
+			result.add("out " + p.getName() + " " + p.getDepth() + " "
+					+ summarise(p.getAnnotations()));
+		for (Activity a : model.getActivities())
+			result.add("activity " + a.getType() + " "
+					+ summarise(a.getAnnotations()));
+		result.add("component " + summarise(model.getAnnotations()));
+		return result;
+	}
+
+	@Test
+	public void testStreamingMatchesDOM() throws Exception {
+		ComponentModel streamed = validator.readComponent(component());
+		ComponentModel dom = validator.extract(validator
+				.loadComponent(component()));
+		assertEquals(summarise(dom), summarise(streamed));
+		assertEquals(4, streamed.getInputPorts().size());
+		assertEquals(1, streamed.getOutputPorts().size());
+		assertEquals(4, streamed.getActivities().size());
+	}
+
+	@Test
+	public void testValidateStreamed() throws Exception {
+		CompiledProfile profile = validator.compile(singletonList(profile(
+				ontology().toString())));
+		assertEquals(expected(), describe(validator.validate(
+				validator.readComponent(component()), profile)));
+	}
+}
@@ -0,0 +1,146 @@
+package org.taverna.component.validator;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.taverna.component.validator.support.Examples.component;
+import static org.taverna.component.validator.support.Examples.describe;
+import static org.taverna.component.validator.support.Examples.expected;
+import static org.taverna.component.validator.support.Examples.ontology;
+import static org.taverna.component.validator.support.Examples.profile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.taverna.component.validator.AssertionReporter.AggregatingReporter;
+import org.taverna.component.validator.AssertionReporter.NDJSONReporter;
+import org.taverna.component.validator.ValidationMetrics.Phase;
+import org.taverna.component.validator.support.Archives;
+
+import uk.org.taverna.ns._2012.component.profile.Component;
+import uk.org.taverna.ns._2012.component.profile.Profile;
+
+public class ComponentWatcherTest {
+	File dir;
+	Validator validator;
+	ComponentWatcher watcher;
+	byte[] component;
+
+	@Before
+	public void setup() throws Exception {
+		dir = File.createTempFile("watch", "");
+		dir.delete();
+		dir.mkdir();
+		validator = new Validator();
+		CompiledProfile profile = validator.compile(singletonList(profile(ontology()
+				.toString())));
+		watcher = new ComponentWatcher(validator, profile, dir,
+				new AssertionReporter.StdoutReporter(), 10, 0);
+		component = Archives.read(component().openStream());
+	}
+
+	@After
+	public void teardown() {
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	private static void write(File file, byte[] content) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+	@Test
+	public void onlyChangedComponentsRevalidated() throws Exception {
+		write(new File(dir, "a.t2flow"), component);
+		write(new File(dir, "b.t2flow"), component);
+		write(new File(dir, "notes.txt"), "not a component".getBytes("UTF-8"));
+		Map<String, List<Assertion>> results = watcher.check();
+		assertEquals("[a.t2flow, b.t2flow]", results.keySet().toString());
+		assertEquals(expected(), describe(results.get("b.t2flow")));
+
+		assertTrue(watcher.check().isEmpty());
+		long parses = validator.getMetrics().getCount(Phase.PARSE);
+
+		File b = new File(dir, "b.t2flow");
+		write(b, (new String(component, "UTF-8") + "\n").getBytes("UTF-8"));
+		b.setLastModified(b.lastModified() + 2000);
+		results = watcher.check();
+		assertEquals("[b.t2flow]", results.keySet().toString());
+		assertEquals(expected(), describe(results.get("b.t2flow")));
+		assertEquals(parses + 1, validator.getMetrics().getCount(Phase.PARSE));
+	}
+
+	@Test
+	public void waitsForChangesToSettle() throws Exception {
+		watcher = new ComponentWatcher(validator, validator.compile(singletonList(
+				profile(ontology().toString()))), dir,
+				new AssertionReporter.StdoutReporter(), 10, 60000);
+		write(new File(dir, "a.t2flow"), component);
+		assertTrue(watcher.check().isEmpty());
+		assertTrue(watcher.check().isEmpty());
+	}
+
+	@Test
+	public void eachReportCoversOnlyItsBatch() throws Exception {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		PrintStream stream = new PrintStream(buffer, true, "UTF-8");
+		fixedAfterFailing(new AggregatingReporter(stream), buffer);
+		fixedAfterFailing(new NDJSONReporter(stream), buffer);
+	}
+
+	/** Save a broken component, then a fixed one, and check the reports. */
+	private void fixedAfterFailing(AssertionReporter reporter,
+			ByteArrayOutputStream buffer) throws Exception {
+		// No constraints, so any readable component passes
+		Profile empty = profile(ontology().toString());
+		empty.setComponent(new Component());
+		watcher = new ComponentWatcher(validator,
+				validator.compile(singletonList(empty)), dir, reporter, 10, 0);
+		File a = new File(dir, "a.t2flow");
+		write(a, "<workflow".getBytes("UTF-8"));
+		buffer.reset();
+		watcher.poll();
+		assertFalse(summary(buffer).getBoolean("allSatisfied"));
+
+		write(a, component);
+		a.setLastModified(a.lastModified() + 2000);
+		buffer.reset();
+		watcher.poll();
+		assertTrue(summary(buffer).getBoolean("allSatisfied"));
+		a.delete();
+	}
+
+	private static JSONObject summary(ByteArrayOutputStream buffer)
+			throws IOException {
+		String[] lines = buffer.toString("UTF-8").split("\n");
+		JSONObject summary = new JSONObject(lines[lines.length - 1]);
+		assertEquals("summary", summary.getString("type"));
+		return summary;
+	}
+
+	@Test
+	public void unreadableComponentReported() throws Exception {
+		write(new File(dir, "broken.t2flow"), "<workflow".getBytes("UTF-8"));
+		List<Assertion> results = watcher.check().get("broken.t2flow");
+		assertEquals(1, results.size());
+		assertEquals(AssertionCode.COMPONENT_UNREADABLE, results.get(0)
+				.getCode());
+	}
+}
@@ -0,0 +1,66 @@
+package org.taverna.component.validator;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.taverna.component.validator.support.Examples.component;
+import static org.taverna.component.validator.support.Examples.describe;
+import static org.taverna.component.validator.support.Examples.expected;
+import static org.taverna.component.validator.support.Examples.ontology;
+import static org.taverna.component.validator.support.Examples.profile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.org.taverna.ns._2012.component.profile.Profile;
+
+public class ConcurrentValidationTest {
+	private static final int THREADS = 8;
+	private static final int RUNS = 48;
+
+	Validator validator;
+	List<Profile> profiles;
+
+	@Before
+	public void setup() throws Exception {
+		validator = new Validator();
+		profiles = singletonList(profile(ontology().toString()));
+	}
+
+	private List<String> validateOnce() throws Exception {
+		return describe(validator.validate(
+				validator.loadComponent(component()), profiles));
+	}
+
+	@Test
+	public void testSerial() throws Exception {
+		assertEquals(expected(), validateOnce());
+		assertEquals(expected(), validateOnce());
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		List<String> serial = validateOnce();
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+			for (int i = 0; i < RUNS; i++)
+				results.add(pool.submit(new Callable<List<String>>() {
+					@Override
+					public List<String> call() throws Exception {
+						return validateOnce();
+					}
+				}));
+			for (Future<List<String>> result : results)
+				assertEquals(serial, result.get());
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
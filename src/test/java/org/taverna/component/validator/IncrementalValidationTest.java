@@ -0,0 +1,82 @@
+package org.taverna.component.validator;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.taverna.component.validator.support.Examples.component;
+import static org.taverna.component.validator.support.Examples.describe;
+import static org.taverna.component.validator.support.Examples.expected;
+import static org.taverna.component.validator.support.Examples.ontology;
+import static org.taverna.component.validator.support.Examples.profile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.taverna.component.validator.ComponentModel.Port;
+
+public class IncrementalValidationTest {
+	Validator validator;
+	CompiledProfile profile;
+	ComponentModel original;
+
+	@Before
+	public void setup() throws Exception {
+		validator = new Validator();
+		profile = validator.compile(singletonList(profile(ontology()
+				.toString())));
+		original = validator.readComponent(component());
+	}
+
+	/** The example component with the depth of one input port changed. */
+	private ComponentModel withDepth(String portName, String depth) {
+		List<Port> inputs = new ArrayList<Port>();
+		for (Port p : original.getInputPorts())
+			inputs.add(p.getName().equals(portName) ? new Port(p.getName(),
+					depth, p.getAnnotations()) : p);
+		return new ComponentModel(inputs, original.getOutputPorts(),
+				original.getAnnotations(), original.getActivities());
+	}
+
+	@Test
+	public void fullRun() throws Exception {
+		ValidationResult result = validator.revalidate(original, profile, null);
+		assertEquals(expected(), describe(result.getAssertions()));
+		assertEquals(0, result.getReusedCount());
+	}
+
+	@Test
+	public void unchanged() throws Exception {
+		ValidationResult first = validator.revalidate(original, profile, null);
+		ValidationResult second = validator.revalidate(
+				validator.readComponent(component()), profile, first);
+		assertEquals(expected(), describe(second.getAssertions()));
+		assertEquals(second.getConstraintCount(), second.getReusedCount());
+	}
+
+	@Test
+	public void edited() throws Exception {
+		ValidationResult first = validator.revalidate(original, profile, null);
+		ComponentModel edited = withDepth("image", "2");
+		ValidationResult second = validator.revalidate(edited, profile, first);
+		assertEquals(describe(validator.validate(edited, profile)),
+				describe(second.getAssertions()));
+		assertTrue(second.getReusedCount() > 0);
+		assertTrue(second.getReusedCount() < second.getConstraintCount());
+
+		// And back again
+		ValidationResult third = validator.revalidate(original, profile, second);
+		assertEquals(expected(), describe(third.getAssertions()));
+	}
+
+	@Test
+	public void otherProfileIgnored() throws Exception {
+		ValidationResult first = validator.revalidate(original, profile, null);
+		CompiledProfile other = validator.compile(singletonList(profile(ontology()
+				.toString())));
+		ValidationResult second = validator.revalidate(original, other, first);
+		assertEquals(0, second.getReusedCount());
+		assertEquals(expected(), describe(second.getAssertions()));
+	}
+}
@@ -0,0 +1,94 @@
+package org.taverna.component.validator;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.taverna.component.validator.support.Examples.component;
+import static org.taverna.component.validator.support.Examples.expected;
+import static org.taverna.component.validator.support.Examples.ontology;
+import static org.taverna.component.validator.support.Examples.profile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.taverna.component.validator.AssertionReporter.NDJSONReporter;
+import org.taverna.component.validator.support.Archives;
+
+public class NDJSONReporterTest {
+	@Test
+	public void streamed() throws Exception {
+		Validator validator = new Validator();
+		CompiledProfile profile = validator.compile(singletonList(profile(ontology()
+				.toString())));
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		NDJSONReporter reporter = new NDJSONReporter(new PrintStream(buffer,
+				true, "UTF-8"));
+		validator.validate(validator.readComponent(component()), profile,
+				reporter);
+		assertFalse(reporter.finish());
+
+		List<String> described = new ArrayList<String>();
+		JSONObject summary = null;
+		for (String line : buffer.toString("UTF-8").split("\n")) {
+			JSONObject record = new JSONObject(line);
+			String type = record.getString("type");
+			if (type.equals("summary"))
+				summary = record;
+			else {
+				// Every assertion the validator makes has a known code
+				AssertionCode.valueOf(record.getString("code"));
+				described.add(type.substring(0, 1).toUpperCase()
+						.replace("S", "P")
+						+ " " + record.getString("message"));
+			}
+		}
+		List<String> expected = expected();
+		assertEquals(expected, described);
+		assertEquals(expected.size(), summary.getInt("numTotal"));
+		assertFalse(summary.getBoolean("allSatisfied"));
+	}
+
+	@Test
+	public void archiveStreamedPerComponent() throws Exception {
+		Validator validator = new Validator();
+		CompiledProfile profile = validator.compile(singletonList(profile(ontology()
+				.toString())));
+		byte[] component = Archives.read(component().openStream());
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		entries.put("first.t2flow", component);
+		entries.put("second.t2flow", component);
+		File archive = File.createTempFile("components", ".zip");
+		try {
+			Archives.zip(archive, entries);
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			NDJSONReporter reporter = new NDJSONReporter(new PrintStream(
+					buffer, true, "UTF-8"));
+			validator.validateArchive(archive.toURI().toURL(), profile,
+					reporter);
+
+			// Written as each component was validated
+			String[] lines = buffer.toString("UTF-8").split("\n");
+			assertEquals(2 * expected().size(), lines.length);
+			assertEquals("first.t2flow",
+					new JSONObject(lines[0]).getString("component"));
+			assertEquals("second.t2flow", new JSONObject(
+					lines[lines.length - 1]).getString("component"));
+
+			assertFalse(reporter.finishComponents());
+			lines = buffer.toString("UTF-8").split("\n");
+			assertEquals(2 * expected().size() + 1, lines.length);
+			JSONObject summary = new JSONObject(lines[lines.length - 1]);
+			assertEquals("summary", summary.getString("type"));
+			assertEquals(2 * expected().size(), summary.getInt("numTotal"));
+		} finally {
+			archive.delete();
+		}
+	}
+}
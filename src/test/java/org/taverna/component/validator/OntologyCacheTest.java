@@ -0,0 +1,154 @@
+package org.taverna.component.validator;
+
+import static java.lang.System.currentTimeMillis;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.taverna.component.validator.support.OntologyServer;
+
+public class OntologyCacheTest {
+	private static final long HOUR = 60 * 60 * 1000;
+	OntologyServer server;
+	File dir;
+
+	@Before
+	public void setup() throws IOException {
+		server = new OntologyServer();
+		dir = File.createTempFile("ontocache", "");
+		dir.delete();
+	}
+
+	@After
+	public void teardown() {
+		server.stop();
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File f : files)
+				f.delete();
+		dir.delete();
+	}
+
+	private static int drain(InputStream in) throws IOException {
+		try {
+			int n = 0;
+			while (in.read() >= 0)
+				n++;
+			return n;
+		} finally {
+			in.close();
+		}
+	}
+
+	private void awaitRequests(int count) throws InterruptedException {
+		long end = currentTimeMillis() + 10000;
+		while (server.requests.get() < count && currentTimeMillis() < end)
+			Thread.sleep(10);
+	}
+
+	/** Read one item of the metadata for the single cached ontology. */
+	private String metadata(String name) {
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File f : files)
+				if (f.getName().endsWith(".properties"))
+					try {
+						Properties meta = new Properties();
+						InputStream in = new FileInputStream(f);
+						try {
+							meta.load(in);
+						} finally {
+							in.close();
+						}
+						return meta.getProperty(name);
+					} catch (IOException e) {
+						// Being replaced by the refresher; look again
+					}
+		return null;
+	}
+
+	/** Wait for the refresher to rewrite an item of the cached metadata. */
+	private void awaitChange(String name, String before)
+			throws InterruptedException {
+		long end = currentTimeMillis() + 10000;
+		String value;
+		while ((value = metadata(name)) == null || value.equals(before))
+			if (currentTimeMillis() < end)
+				Thread.sleep(10);
+			else
+				fail("cached " + name + " still " + before);
+	}
+
+	@Test
+	public void testFreshEntryIsServedLocally() throws IOException {
+		OntologyCache cache = new OntologyCache(dir, false, HOUR);
+		int size = drain(cache.open(server.uri()));
+		assertTrue(size > 0);
+		assertEquals(size, drain(cache.open(server.uri())));
+		assertEquals(size, drain(new OntologyCache(dir, false, HOUR)
+				.open(server.uri())));
+		assertEquals(1, server.requests.get());
+	}
+
+	@Test
+	public void testStaleEntryIsRevalidated() throws Exception {
+		OntologyCache cache = new OntologyCache(dir, false, 0);
+		int size = drain(cache.open(server.uri()));
+		String fetched = metadata("fetched");
+		// The refresh must stamp a later time than the first fetch did
+		while (currentTimeMillis() <= Long.parseLong(fetched))
+			Thread.sleep(1);
+		assertEquals(size, drain(cache.open(server.uri())));
+		awaitChange("fetched", fetched);
+		assertEquals(1, server.fullResponses.get());
+		assertEquals(1, server.notModified.get());
+
+		String etag = metadata("etag");
+		server.setVersion("v2");
+		long end = currentTimeMillis() + 10000;
+		while (server.fullResponses.get() < 2 && currentTimeMillis() < end) {
+			// Retry until the refresh runs; the last one may still be ending
+			drain(cache.open(server.uri()));
+			Thread.sleep(10);
+		}
+		awaitChange("etag", etag);
+		assertEquals(2, server.fullResponses.get());
+	}
+
+	@Test
+	public void testStaleEntrySurvivesServerFailure() throws Exception {
+		OntologyCache cache = new OntologyCache(dir, false, 0);
+		int size = drain(cache.open(server.uri()));
+		server.setStatus(500);
+		assertEquals(size, drain(cache.open(server.uri())));
+		awaitRequests(2);
+		assertEquals(size, drain(cache.open(server.uri())));
+	}
+
+	@Test
+	public void testOffline() throws IOException {
+		OntologyCache offline = new OntologyCache(dir, true, 0);
+		try {
+			offline.open(server.uri());
+			fail("offline cache fetched uncached ontology");
+		} catch (FileNotFoundException e) {
+			// expected
+		}
+		assertEquals(0, server.requests.get());
+
+		int size = drain(new OntologyCache(dir, false, HOUR)
+				.open(server.uri()));
+		assertEquals(size, drain(offline.open(server.uri())));
+		assertEquals(1, server.requests.get());
+	}
+}
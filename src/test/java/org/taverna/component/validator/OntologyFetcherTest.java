@@ -0,0 +1,169 @@
+package org.taverna.component.validator;
+
+import static java.lang.System.currentTimeMillis;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.taverna.component.validator.support.OntologyServer;
+
+import com.hp.hpl.jena.ontology.OntModel;
+
+public class OntologyFetcherTest {
+	OntologyServer server;
+	OntologyFetcher fetcher;
+
+	@Before
+	public void setup() throws IOException {
+		server = new OntologyServer();
+		fetcher = new OntologyFetcher(5000, 2, 4);
+		fetcher.setBackoff(10);
+	}
+
+	@After
+	public void teardown() {
+		fetcher.shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void parallel() throws IOException {
+		server.setDelay(500);
+		List<String> uris = asList(server.uri() + "?a", server.uri() + "?b",
+				server.uri() + "?c", server.uri() + "?d", server.uri() + "?a");
+		long start = currentTimeMillis();
+		Map<String, OntModel> models = fetcher.fetchAll(uris, null);
+		long elapsed = currentTimeMillis() - start;
+		assertEquals(4, models.size());
+		assertEquals(4, server.requests.get());
+		assertTrue("took " + elapsed + "ms", elapsed < 1500);
+		for (OntModel m : models.values())
+			assertTrue(m.size() > 0);
+		assertEquals(models.keySet(), fetcher.getTimings().keySet());
+		for (long t : fetcher.getTimings().values())
+			assertTrue(t >= 500);
+	}
+
+	@Test
+	public void compressed() throws IOException {
+		Map<String, OntModel> models = fetcher.fetchAll(
+				asList(server.uri()), null);
+		assertEquals(1, server.gzipped.get());
+		assertTrue(models.get(server.uri()).size() > 0);
+	}
+
+	@Test
+	public void compressedThroughCache() throws IOException {
+		File dir = File.createTempFile("ontocache", "");
+		dir.delete();
+		try {
+			Map<String, OntModel> models = fetcher.fetchAll(
+					asList(server.uri()), new OntologyCache(dir, false, 0));
+			assertEquals(1, server.gzipped.get());
+			assertTrue(models.get(server.uri()).size() > 0);
+		} finally {
+			delete(dir);
+		}
+	}
+
+	@Test
+	public void changedOntologyReloadedThroughCache() throws Exception {
+		File dir = File.createTempFile("ontocache", "");
+		dir.delete();
+		try {
+			// Entries are always stale, so each use revalidates them
+			OntologyCache cache = new OntologyCache(dir, false, 0);
+			OntologyModelCache models = new OntologyModelCache(1000000);
+			List<String> uris = asList(server.uri());
+			OntModel first = fetcher.fetchAll(uris, cache, models).get(
+					server.uri());
+			assertSame(first, fetcher.fetchAll(uris, cache, models).get(
+					server.uri()));
+			assertEquals(1, models.getMisses());
+
+			server.setVersion("2");
+			long deadline = currentTimeMillis() + 5000;
+			while (models.getMisses() < 2 && currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+				fetcher.fetchAll(uris, cache, models);
+			}
+			assertEquals(2, models.getMisses());
+			assertNotSame(first, fetcher.fetchAll(uris, cache, models).get(
+					server.uri()));
+		} finally {
+			delete(dir);
+		}
+	}
+
+	private static void delete(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File f : files)
+				f.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void retried() throws IOException {
+		server.failNext(2);
+		fetcher.fetchAll(asList(server.uri()), null);
+		assertEquals(3, server.requests.get());
+	}
+
+	@Test
+	public void tooManyFailures() {
+		server.failNext(3);
+		try {
+			fetcher.fetchAll(asList(server.uri()), null);
+			fail("should not have loaded");
+		} catch (IOException e) {
+			assertEquals(3, server.requests.get());
+		}
+	}
+
+	@Test
+	public void timeout() throws IOException {
+		server.setDelay(2000);
+		OntologyFetcher impatient = new OntologyFetcher(200, 0, 1);
+		long start = currentTimeMillis();
+		try {
+			impatient.fetchAll(asList(server.uri()), null);
+			fail("should have timed out");
+		} catch (SocketTimeoutException e) {
+			assertTrue(currentTimeMillis() - start < 1500);
+		} finally {
+			impatient.shutdown();
+		}
+	}
+
+	@Test
+	public void timeoutThroughCache() throws IOException {
+		server.setDelay(2000);
+		OntologyFetcher impatient = new OntologyFetcher(200, 0, 1);
+		File dir = File.createTempFile("ontocache", "");
+		dir.delete();
+		long start = currentTimeMillis();
+		try {
+			impatient.fetchAll(asList(server.uri()), new OntologyCache(dir,
+					false, 0));
+			fail("should have timed out");
+		} catch (SocketTimeoutException e) {
+			assertTrue(currentTimeMillis() - start < 1500);
+		} finally {
+			impatient.shutdown();
+			delete(dir);
+		}
+	}
+}
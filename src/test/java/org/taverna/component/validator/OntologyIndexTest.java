@@ -0,0 +1,60 @@
+package org.taverna.component.validator;
+
+import static com.hp.hpl.jena.rdf.model.ModelFactory.createOntologyModel;
+import static com.hp.hpl.jena.rdf.model.ResourceFactory.createPlainLiteral;
+import static com.hp.hpl.jena.rdf.model.ResourceFactory.createResource;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.taverna.component.validator.OntologyIndex.NO_CLASS;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.taverna.component.validator.support.Examples;
+
+import com.hp.hpl.jena.ontology.OntModel;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+
+public class OntologyIndexTest {
+	private static final String NS = "http://example.org/test-ontology#";
+	private static OntologyIndex index;
+
+	@BeforeClass
+	public static void load() throws IOException {
+		OntModel model = createOntologyModel();
+		InputStream in = Examples.ontology().openStream();
+		try {
+			model.read(in, Examples.ontology().toString());
+		} finally {
+			in.close();
+		}
+		index = new OntologyIndex(model);
+	}
+
+	private static boolean in(String individual, String clazz) {
+		return index.isInClass(createResource(NS + individual),
+				index.getClassId(NS + clazz));
+	}
+
+	@Test
+	public void directAndInferredClasses() {
+		assertTrue(in("png", "Image"));
+		assertTrue(in("png", "DataType"));
+		assertTrue(in("plain", "Text"));
+		assertFalse(in("plain", "Image"));
+		assertTrue(in("migration", "ActivityKind"));
+		assertFalse(in("migration", "DataType"));
+	}
+
+	@Test
+	public void unknowns() {
+		assertEquals(NO_CLASS, index.getClassId(NS + "Nothing"));
+		assertEquals(NO_CLASS, index.getClassId(null));
+		assertFalse(in("nobody", "Image"));
+		RDFNode literal = createPlainLiteral("png");
+		assertFalse(index.isInClass(literal, index.getClassId(NS + "Image")));
+	}
+}
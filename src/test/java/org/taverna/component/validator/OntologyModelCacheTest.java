@@ -0,0 +1,179 @@
+package org.taverna.component.validator;
+
+import static com.hp.hpl.jena.rdf.model.ModelFactory.createOntologyModel;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.taverna.component.validator.support.Examples.ontology;
+import static org.taverna.component.validator.support.Examples.profile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.taverna.component.validator.support.Archives;
+
+import uk.org.taverna.ns._2012.component.profile.Profile;
+
+import com.hp.hpl.jena.ontology.OntModel;
+
+public class OntologyModelCacheTest {
+	/** Makes a model with some number of triples, counting how many it made. */
+	static class Loader implements Callable<OntModel> {
+		final AtomicInteger loads = new AtomicInteger();
+		final int triples;
+		CountDownLatch gate;
+
+		Loader(int triples) {
+			this.triples = triples;
+		}
+
+		@Override
+		public OntModel call() throws Exception {
+			loads.incrementAndGet();
+			if (gate != null)
+				gate.await();
+			OntModel m = createOntologyModel();
+			for (int i = 0; i < triples; i++)
+				m.add(m.createResource("http://example.org/s" + i),
+						m.createProperty("http://example.org/p"), "o");
+			return m;
+		}
+	}
+
+	@Test
+	public void loadedOnceWhenWantedAtOnce() throws Exception {
+		final OntologyModelCache cache = new OntologyModelCache(1000);
+		final Loader loader = new Loader(10);
+		loader.gate = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<OntModel>> results = new ArrayList<Future<OntModel>>();
+			for (int i = 0; i < 8; i++)
+				results.add(pool.submit(new Callable<OntModel>() {
+					@Override
+					public OntModel call() throws IOException {
+						return cache.get("http://example.org/o", loader);
+					}
+				}));
+			Thread.sleep(100);
+			loader.gate.countDown();
+			for (Future<OntModel> f : results)
+				assertSame(results.get(0).get(), f.get());
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(1, loader.loads.get());
+		assertEquals(1, cache.getMisses());
+		assertEquals(7, cache.getHits());
+		assertEquals(10, cache.getTriples());
+	}
+
+	@Test
+	public void leastRecentlyUsedEvicted() throws Exception {
+		OntologyModelCache cache = new OntologyModelCache(25);
+		Loader loader = new Loader(10);
+		cache.get("a", loader);
+		cache.get("b", loader);
+		cache.get("a", loader);
+		cache.get("c", loader);
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertEquals(3, loader.loads.get());
+		cache.get("a", loader);
+		cache.get("b", loader);
+		assertEquals(4, loader.loads.get());
+
+		// Too big to keep at all
+		cache.get("d", new Loader(30));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void failuresNotRemembered() throws Exception {
+		OntologyModelCache cache = new OntologyModelCache(1000);
+		try {
+			cache.get("a", new Callable<OntModel>() {
+				@Override
+				public OntModel call() throws IOException {
+					throw new IOException("unreachable");
+				}
+			});
+			fail("loaded an unreachable ontology");
+		} catch (IOException e) {
+			assertEquals("unreachable", e.getMessage());
+		}
+		Loader loader = new Loader(1);
+		cache.get("a", loader);
+		assertEquals(1, loader.loads.get());
+	}
+
+	@Test
+	public void reloadedWhenVersionChanges() throws Exception {
+		OntologyModelCache cache = new OntologyModelCache(1000);
+		Loader loader = new Loader(10);
+		OntModel first = cache.get("a", null, loader);
+		// Not known when it was loaded; now it is
+		assertSame(first, cache.get("a", "v1", loader));
+		assertSame(first, cache.get("a", null, loader));
+		OntModel second = cache.get("a", "v2", loader);
+		assertNotSame(first, second);
+		assertSame(second, cache.get("a", "v2", loader));
+		assertEquals(2, loader.loads.get());
+		assertEquals(1, cache.size());
+		assertEquals(10, cache.getTriples());
+	}
+
+	@Test
+	public void changedOntologyFileReloaded() throws Exception {
+		File copy = File.createTempFile("ontology", ".owl");
+		try {
+			OutputStream out = new FileOutputStream(copy);
+			try {
+				out.write(Archives.read(ontology().openStream()));
+			} finally {
+				out.close();
+			}
+			OntologyModelCache cache = new OntologyModelCache(1000000);
+			Validator validator = new Validator();
+			validator.setOntologyModelCache(cache);
+			Profile profile = profile(copy.toURI().toString());
+			validator.compile(singletonList(profile));
+			validator.compile(singletonList(profile));
+			assertEquals(1, cache.getMisses());
+
+			// As when the profile is recompiled after it expires
+			copy.setLastModified(copy.lastModified() + 2000);
+			validator.compile(singletonList(profile));
+			assertEquals(2, cache.getMisses());
+			assertEquals(1, cache.size());
+		} finally {
+			copy.delete();
+		}
+	}
+
+	@Test
+	public void sharedBetweenValidators() throws Exception {
+		OntologyModelCache cache = new OntologyModelCache(1000000);
+		Validator first = new Validator();
+		first.setOntologyModelCache(cache);
+		Validator second = new Validator();
+		second.setOntologyModelCache(cache);
+		first.compile(singletonList(profile(ontology().toString())));
+		second.compile(singletonList(profile(ontology().toString())));
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+	}
+}
@@ -0,0 +1,64 @@
+package org.taverna.component.validator;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.taverna.component.validator.support.Examples.component;
+import static org.taverna.component.validator.support.Examples.describe;
+import static org.taverna.component.validator.support.Examples.expected;
+import static org.taverna.component.validator.support.Examples.ontology;
+import static org.taverna.component.validator.support.Examples.profile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelValidationTest {
+	Validator validator;
+	CompiledProfile profile;
+	ComponentModel component;
+
+	@Before
+	public void setup() throws Exception {
+		validator = new Validator();
+		validator.setParallelism(4);
+		profile = validator.compile(singletonList(profile(ontology()
+				.toString())));
+		component = validator.readComponent(component());
+	}
+
+	@After
+	public void teardown() {
+		validator.setParallelism(1);
+	}
+
+	@Test
+	public void sameOrderAsSerial() throws Exception {
+		for (int i = 0; i < 20; i++)
+			assertEquals(expected(),
+					describe(validator.validate(component, profile)));
+	}
+
+	@Test
+	public void streamedInOrder() throws Exception {
+		final List<Assertion> streamed = new ArrayList<Assertion>();
+		validator.validate(component, profile, new AssertionListener() {
+			@Override
+			public void assertion(Assertion assertion) {
+				streamed.add(assertion);
+			}
+		});
+		assertEquals(expected(), describe(streamed));
+	}
+
+	@Test
+	public void revalidated() throws Exception {
+		ValidationResult first = validator.revalidate(component, profile, null);
+		assertEquals(expected(), describe(first.getAssertions()));
+		ValidationResult second = validator.revalidate(
+				validator.readComponent(component()), profile, first);
+		assertEquals(expected(), describe(second.getAssertions()));
+	}
+}
@@ -0,0 +1,96 @@
+package org.taverna.component.validator;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.taverna.component.validator.support.Examples.component;
+import static org.taverna.component.validator.support.Examples.describe;
+import static org.taverna.component.validator.support.Examples.expected;
+import static org.taverna.component.validator.support.Examples.ontology;
+import static org.taverna.component.validator.support.Examples.profile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.taverna.component.validator.CompiledProfile.AnnotationRequirement;
+import org.taverna.component.validator.CompiledProfile.Constraint;
+import org.taverna.component.validator.CompiledProfile.PortConstraint;
+import org.taverna.component.validator.CompiledProfile.SemanticConstraint;
+
+public class ProfileBundleTest {
+	File bundle;
+
+	@Before
+	public void setup() throws IOException {
+		bundle = File.createTempFile("profile", ProfileBundle.EXTENSION);
+	}
+
+	@After
+	public void teardown() {
+		bundle.delete();
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		Validator validator = new Validator();
+		CompiledProfile compiled = validator.compile(singletonList(profile(ontology()
+				.toString())));
+		ProfileBundle.write(compiled, bundle);
+
+		Validator fresh = new Validator();
+		CompiledProfile loaded = fresh.loadProfile(bundle.toURI().toURL());
+		assertEquals(compiled.getProfileIds(), loaded.getProfileIds());
+		assertEquals(compiled.getConstraints().size(), loaded.getConstraints()
+				.size());
+		assertEquals(expected(), describe(fresh.validate(
+				fresh.readComponent(component()), loaded)));
+		assertEquals(1, fresh.getMetrics().getCount(
+				ValidationMetrics.Phase.PROFILE_LOAD));
+		assertEquals(0, fresh.getMetrics().getCount(
+				ValidationMetrics.Phase.ONTOLOGY_LOAD));
+	}
+
+	@Test
+	public void selectionCriteriaMustBeSemantics() throws Exception {
+		OntologyIndex ontology = new OntologyIndex(
+				Collections.<String> emptyList(),
+				Collections.<String, BitSet> emptyMap());
+		SemanticConstraint semantic = new SemanticConstraint(
+				"http://example.org/p", null, null, 1, 1, "1", "1", "p",
+				ontology);
+		SemanticConstraint other = new SemanticConstraint(
+				"http://example.org/q", null, null, 1, 1, "1", "1", "q",
+				ontology);
+		PortConstraint port = new PortConstraint("urn:profile", true, "in",
+				1, 0, 0, "0", "0",
+				Collections.<AnnotationRequirement> emptyList(),
+				singletonList(semantic), singletonList(other), true);
+		try {
+			ProfileBundle.write(new CompiledProfile(singletonList("urn:profile"),
+					singletonList((Constraint) port)), bundle);
+			fail("wrote a selection criterion that is not one of the semantics");
+		} catch (IOException e) {
+			assertEquals("selection criterion of port in is not one of its "
+					+ "semantics", e.getMessage());
+		}
+	}
+
+	@Test
+	public void rejectsOtherFiles() throws Exception {
+		FileOutputStream out = new FileOutputStream(bundle);
+		out.write("<profile/>".getBytes("UTF-8"));
+		out.close();
+		try {
+			ProfileBundle.read(bundle);
+			fail("read a file that is not a bundle");
+		} catch (IOException e) {
+			assertEquals("not a profile bundle: " + bundle, e.getMessage());
+		}
+	}
+}
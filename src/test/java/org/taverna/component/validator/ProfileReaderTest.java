@@ -0,0 +1,88 @@
+package org.taverna.component.validator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.taverna.component.validator.support.Examples.profile;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import uk.org.taverna.ns._2012.component.profile.Profile;
+
+public class ProfileReaderTest {
+	private static final String EVERYTHING = "<profile xmlns='http://ns.taverna.org.uk/2012/component/profile'>"
+			+ "<id>urn:everything</id><name>Everything</name>"
+			+ "<description> Uses every part of the schema </description>"
+			+ "<extends profileId='urn:parent' />"
+			+ "<ontology id='o'>http://example.org/onto</ontology>"
+			+ "<component>"
+			+ "<inputPort name='in' minDepth='1' maxDepth='2' minOccurs='0' maxOccurs='unbounded'>"
+			+ "<annotation minOccurs='1'>Example</annotation>"
+			+ "<semanticAnnotation ontology='o' predicate='http://example.org/p' class='http://example.org/C' maxOccurs='3'/>"
+			+ "</inputPort>"
+			+ "<outputPort><annotation>Description</annotation></outputPort>"
+			+ "<activity type='Beanshell' minOccurs='2'>"
+			+ "<annotation maxOccurs='unbounded'>Description</annotation>"
+			+ "<semanticAnnotation ontology='o' predicate='http://example.org/q'>http://example.org/v</semanticAnnotation>"
+			+ "</activity>"
+			+ "<annotation minOccurs='0'>Author</annotation>"
+			+ "<semanticAnnotation ontology='o' predicate='http://example.org/r' minOccurs='0'/>"
+			+ "<exceptionHandling><failLists/><handleException>"
+			+ "<pattern>.*</pattern><pruneStack/>"
+			+ "<replacement replacementId='x' replacementMessage='y'/>"
+			+ "</handleException></exceptionHandling>"
+			+ "<unknown><inputPort name='ignored'/></unknown>"
+			+ "</component></profile>";
+
+	static JAXBContext context;
+
+	@BeforeClass
+	public static void setupClass() throws Exception {
+		context = JAXBContext.newInstance(Profile.class);
+	}
+
+	private static String marshal(Profile p) throws Exception {
+		Marshaller m = context.createMarshaller();
+		m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+		StringWriter w = new StringWriter();
+		m.marshal(p, w);
+		return w.toString();
+	}
+
+	private static Profile read(String document) throws Exception {
+		return new ProfileReader().read(
+				new ByteArrayInputStream(document.getBytes("UTF-8")), "test");
+	}
+
+	@Test
+	public void sameAsJAXB() throws Exception {
+		Profile jaxb = (Profile) context.createUnmarshaller().unmarshal(
+				new ByteArrayInputStream(EVERYTHING.getBytes("UTF-8")));
+		assertEquals(marshal(jaxb), marshal(read(EVERYTHING)));
+
+		Profile example = (Profile) context.createUnmarshaller().unmarshal(
+				profile());
+		assertEquals(marshal(example), marshal(new ProfileReader()
+				.read(profile())));
+	}
+
+	@Test
+	public void annotationNotAllowed() throws Exception {
+		try {
+			read(EVERYTHING.replace("<annotation minOccurs='1'>Example",
+					"<annotation minOccurs='1'>Author"));
+			fail("read an author annotation on a port");
+		} catch (XMLStreamException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(
+					"Author annotations are not allowed on ports"));
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package org.taverna.component.validator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.org.taverna.ns._2012.component.profile.Profile;
+
+public class ProfileRegistryTest {
+	File dir;
+	ProfileRegistry registry;
+
+	private static String profile(String id, String extendsId) {
+		return "<profile xmlns='http://ns.taverna.org.uk/2012/component/profile'>"
+				+ "<id>" + id + "</id><name>" + id + "</name>"
+				+ "<description>Test</description>"
+				+ (extendsId == null ? "" : "<extends profileId='" + extendsId
+						+ "' />") + "<component /></profile>";
+	}
+
+	private File write(String name, String content) throws IOException {
+		File file = new File(dir, name);
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static List<String> ids(List<Profile> profiles) {
+		List<String> ids = new ArrayList<String>();
+		for (Profile p : profiles)
+			ids.add(p.getId());
+		return ids;
+	}
+
+	@Before
+	public void setup() throws Exception {
+		dir = File.createTempFile("registry", "");
+		dir.delete();
+		dir.mkdir();
+		System.setProperty(ProfileRegistry.BASE_PROFILE_PROPERTY,
+				write("base.xml", profile("urn:base", null)).toURI().toString());
+		write("parent.xml", profile("urn:parent", "urn:grandparent"));
+		write("grandparent.xml", profile("urn:grandparent", null));
+		write("catalog.properties", "urn\\:parent = parent.xml\n"
+				+ "urn\\:grandparent = grandparent.xml\n");
+		registry = new ProfileRegistry();
+		registry.loadCatalog(new File(dir, "catalog.properties").toURI()
+				.toURL());
+	}
+
+	@After
+	public void teardown() {
+		System.clearProperty(ProfileRegistry.BASE_PROFILE_PROPERTY);
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	@Test
+	public void extendsChain() throws Exception {
+		String child = write("child.xml", profile("urn:child", "urn:parent"))
+				.toURI().toString();
+		List<Profile> first = registry.getProfiles(child);
+		assertEquals("[urn:child, urn:parent, urn:grandparent, urn:base]",
+				ids(first).toString());
+		assertEquals(4, registry.getLoadCount());
+
+		List<Profile> second = registry.getProfiles(child);
+		assertEquals(4, registry.getLoadCount());
+		for (int i = 0; i < first.size(); i++)
+			assertSame(first.get(i), second.get(i));
+	}
+
+	@Test
+	public void unresolvable() throws Exception {
+		String orphan = write("orphan.xml", profile("urn:orphan", "urn:nowhere"))
+				.toURI().toString();
+		assertEquals("[urn:orphan, urn:base]",
+				ids(registry.getProfiles(orphan)).toString());
+	}
+
+	@Test
+	public void baseNotRepeated() throws Exception {
+		String ext = write("ext.xml", profile("urn:ext", "urn:base")).toURI()
+				.toString();
+		registry.getProfile(ProfileRegistry.getBaseProfileLocation());
+		assertEquals("[urn:ext, urn:base]", ids(registry.getProfiles(ext))
+				.toString());
+	}
+
+	@Test
+	public void reloadedWhenChanged() throws Exception {
+		File file = write("changing.xml", profile("urn:before", null));
+		String location = file.toURI().toString();
+		assertEquals("urn:before", registry.getProfile(location).getId());
+		write("changing.xml", profile("urn:after", null));
+		file.setLastModified(file.lastModified() + 2000);
+		assertEquals("urn:after", registry.getProfile(location).getId());
+	}
+}
@@ -0,0 +1,215 @@
+package org.taverna.component.validator;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.taverna.component.validator.support.Examples.ONTOLOGY_URI;
+import static org.taverna.component.validator.support.Examples.component;
+import static org.taverna.component.validator.support.Examples.describe;
+import static org.taverna.component.validator.support.Examples.expected;
+import static org.taverna.component.validator.support.Examples.ontology;
+import static org.taverna.component.validator.support.Examples.profile;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.taverna.component.validator.Assertion.Fail;
+import org.taverna.component.validator.ValidationMetrics.Phase;
+import org.taverna.component.validator.support.Archives;
+
+import uk.org.taverna.ns._2012.component.profile.Profile;
+
+public class ResultStoreTest {
+	private static final String BASE_PROFILE = "<profile xmlns='http://ns.taverna.org.uk/2012/component/profile'>"
+			+ "<id>http://example.org/base</id><name>Base</name>"
+			+ "<description>Empty</description><component /></profile>";
+	File dir;
+	Validator validator;
+	CompiledProfile profile;
+	byte[] component;
+
+	@Before
+	public void setup() throws Exception {
+		dir = File.createTempFile("results", "");
+		dir.delete();
+		validator = new Validator();
+		profile = validator.compile(singletonList(profile(ontology()
+				.toString())));
+		component = Archives.read(component().openStream());
+	}
+
+	@After
+	public void teardown() {
+		delete(dir);
+	}
+
+	private static void write(File file, byte[] content) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void delete(File f) {
+		File[] files = f.listFiles();
+		if (files != null)
+			for (File child : files)
+				delete(child);
+		f.delete();
+	}
+
+	private List<Assertion> validate() throws Exception {
+		return validator.validate(new ByteArrayInputStream(component),
+				"test", profile);
+	}
+
+	@Test
+	public void unchangedComponentsAreNotParsed() throws Exception {
+		ResultStore store = new ResultStore(dir, 1024 * 1024);
+		validator.setResultStore(store);
+		assertEquals(expected(), describe(validate()));
+		assertEquals(1, store.getMissCount());
+		long parses = validator.getMetrics().getCount(Phase.PARSE);
+
+		// Another process sharing the same store
+		validator.setResultStore(new ResultStore(dir, 1024 * 1024));
+		List<Assertion> again = validate();
+		assertEquals(expected(), describe(again));
+		assertEquals(1, validator.getResultStore().getHitCount());
+		assertEquals(parses, validator.getMetrics().getCount(Phase.PARSE));
+		List<Assertion> original = validator.validate(
+				validator.readComponent(component()), profile);
+		for (int i = 0; i < original.size(); i++) {
+			assertEquals(original.get(i).getCode(), again.get(i).getCode());
+			assertEquals(original.get(i).getArguments(), again.get(i)
+					.getArguments());
+		}
+	}
+
+	@Test
+	public void keyedByProfileAndContent() throws Exception {
+		ResultStore store = new ResultStore(dir, 1024 * 1024);
+		String key = store.key(component, profile);
+		assertEquals(key, store.key(component, validator.compile(singletonList(
+				profile(ontology().toString())))));
+
+		Profile changed = profile(ontology().toString());
+		changed.getComponent().getInputPort().remove(0);
+		assertFalse(key.equals(store.key(component,
+				validator.compile(singletonList(changed)))));
+		byte[] edited = component.clone();
+		edited[edited.length - 2] = ' ';
+		assertFalse(key.equals(store.key(edited, profile)));
+	}
+
+	@Test
+	public void undecodableEntriesRecomputed() throws Exception {
+		ResultStore store = new ResultStore(dir, 1024 * 1024);
+		validator.setResultStore(store);
+		validate();
+		String key = store.key(component, profile);
+		File entry = new File(new File(dir, key.substring(0, 2)),
+				key.substring(2) + ".result");
+		// As if the code of an assertion had since been renamed
+		byte[] content = Archives.read(new FileInputStream(entry));
+		String text = new String(content, "ISO-8859-1");
+		int at = text.indexOf("COMPONENT_");
+		assertTrue(at > 0);
+		content[at] = 'X';
+		write(entry, content);
+
+		long parses = validator.getMetrics().getCount(Phase.PARSE);
+		assertEquals(expected(), describe(validate()));
+		assertEquals(2, store.getMissCount());
+		assertEquals(parses + 1, validator.getMetrics().getCount(Phase.PARSE));
+		// Stored again, correctly
+		assertEquals(expected(), describe(store.get(key)));
+	}
+
+	@Test
+	public void storedResultsNeedNoProfileCompiled() throws Exception {
+		File docs = File.createTempFile("profiles", "");
+		docs.delete();
+		docs.mkdir();
+		try {
+			File base = new File(docs, "base.xml");
+			write(base, BASE_PROFILE.getBytes("UTF-8"));
+			System.setProperty(Validator.BASE_PROFILE_PROPERTY, base.toURI()
+					.toString());
+			File ontology = new File(docs, "ontology.owl");
+			write(ontology, Archives.read(ontology().openStream()));
+			File p = new File(docs, "profile.xml");
+			write(p, new String(Archives.read(profile().openStream()), "UTF-8")
+					.replace(">" + ONTOLOGY_URI + "<",
+							">" + ontology.toURI() + "<").getBytes("UTF-8"));
+			URL profileUrl = p.toURI().toURL();
+			validator.setResultStore(new ResultStore(dir, 1024 * 1024));
+			assertEquals(expected(),
+					describe(validator.validate(component(), profileUrl)));
+
+			// Another process sharing the same store
+			Validator fresh = new Validator();
+			fresh.setResultStore(new ResultStore(dir, 1024 * 1024));
+			assertEquals(expected(),
+					describe(fresh.validate(component(), profileUrl)));
+			assertEquals(1, fresh.getResultStore().getHitCount());
+			assertEquals(0, fresh.getMetrics().getCount(Phase.ONTOLOGY_LOAD));
+			assertEquals(0, fresh.getMetrics().getCount(Phase.PARSE));
+
+			// A changed ontology makes a different profile
+			ontology.setLastModified(ontology.lastModified() + 2000);
+			assertEquals(expected(),
+					describe(fresh.validate(component(), profileUrl)));
+			assertEquals(1, fresh.getResultStore().getMissCount());
+			assertEquals(1, fresh.getMetrics().getCount(Phase.ONTOLOGY_LOAD));
+			assertEquals(1, fresh.getMetrics().getCount(Phase.PARSE));
+		} finally {
+			System.clearProperty(Validator.BASE_PROFILE_PROPERTY);
+			delete(docs);
+		}
+	}
+
+	@Test
+	public void replacedEntriesCountedOnce() throws Exception {
+		List<Assertion> assertions = singletonList((Assertion) new Fail(
+				AssertionCode.COMPONENT_UNREADABLE, "some text"));
+		ResultStore store = new ResultStore(dir, 1024 * 1024);
+		for (int i = 0; i < 3; i++)
+			store.put("00same", assertions);
+		assertEquals(new File(new File(dir, "00"), "same.result").length(),
+				store.getSize());
+	}
+
+	@Test
+	public void leastRecentlyUsedEvicted() throws Exception {
+		List<Assertion> assertions = singletonList((Assertion) new Fail(
+				AssertionCode.COMPONENT_UNREADABLE, "some text"));
+		ResultStore store = new ResultStore(dir, 1000);
+		store.put("00first", assertions);
+		new File(new File(dir, "00"), "first.result").setLastModified(0);
+		for (int i = 10; i < 40; i++)
+			store.put(i + "later", assertions);
+		assertNull(store.get("00first"));
+		assertNotNull(store.get("39later"));
+		long total = 0;
+		for (File d : dir.listFiles())
+			for (File f : d.listFiles())
+				total += f.length();
+		assertTrue(total + " bytes", total <= 1000);
+		assertEquals("failed to read component: some text", store.get(
+				"39later").get(0).getText());
+	}
+}
@@ -0,0 +1,80 @@
+package org.taverna.component.validator;
+
+import static java.lang.management.ManagementFactory.getPlatformMBeanServer;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.taverna.component.validator.support.Examples.component;
+import static org.taverna.component.validator.support.Examples.ontology;
+import static org.taverna.component.validator.support.Examples.profile;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.taverna.component.validator.ValidationMetrics.Phase;
+
+public class ValidationMetricsTest {
+	@Test
+	public void phasesRecorded() throws Exception {
+		Validator validator = new Validator();
+		validator.validate(validator.loadComponent(component()),
+				singletonList(profile(ontology().toString())));
+		ValidationMetrics metrics = validator.getMetrics();
+		for (Phase p : new Phase[] { Phase.PARSE, Phase.REALIZE_ATTRS,
+				Phase.ONTOLOGY_LOAD, Phase.CONSTRAINT, Phase.PARSE_RDF,
+				Phase.XPATH }) {
+			long count = metrics.getCount(p);
+			assertTrue(p + " not recorded", count > 0);
+			long total = 0;
+			for (long n : metrics.get(p).getHistogram())
+				total += n;
+			assertEquals(count, total);
+		}
+		assertEquals(0, metrics.getCount(Phase.PROFILE_LOAD));
+
+		JSONObject json = metrics.toJSON();
+		assertEquals(metrics.getCount(Phase.CONSTRAINT),
+				json.getJSONObject("CONSTRAINT").getLong("count"));
+		assertTrue(!json.has("PROFILE_LOAD"));
+
+		metrics.reset();
+		assertEquals(0, metrics.getCount(Phase.CONSTRAINT));
+	}
+
+	@Test
+	public void publishedThroughJMX() throws Exception {
+		ValidationMetrics metrics = new ValidationMetrics();
+		ValidationMetrics other = new ValidationMetrics();
+		metrics.record(Phase.XPATH, 5000);
+		metrics.record(Phase.XPATH, 50000000);
+		other.record(Phase.XPATH, 5000);
+		metrics.register();
+		other.register();
+		MBeanServer server = getPlatformMBeanServer();
+		ObjectName name = metrics.getObjectName(Phase.XPATH);
+		try {
+			assertEquals("XPATH", name.getKeyProperty("phase"));
+			assertEquals(2L, server.getAttribute(name, "Count"));
+			assertEquals(50.0, (Double) server.getAttribute(name, "MaxMillis"),
+					1e-9);
+			long[] histogram = (long[]) server.getAttribute(name, "Histogram");
+			assertEquals(ValidationMetrics.BUCKETS.length + 1,
+					histogram.length);
+			// Each instance is published separately
+			assertEquals(1L, server.getAttribute(
+					other.getObjectName(Phase.XPATH), "Count"));
+			assertEquals(0L, server.getAttribute(
+					metrics.getObjectName(Phase.PARSE), "Count"));
+
+			server.invoke(name, "reset", new Object[0], new String[0]);
+			assertEquals(0, metrics.getCount(Phase.XPATH));
+		} finally {
+			metrics.unregister();
+			other.unregister();
+		}
+		assertFalse(server.isRegistered(name));
+	}
+}
@@ -0,0 +1,185 @@
+package org.taverna.component.validator;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.taverna.component.validator.AssertionReporter.JSONReporter.toJSON;
+import static org.taverna.component.validator.support.Examples.ONTOLOGY_URI;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.taverna.component.validator.support.Examples;
+
+public class ValidationServerTest {
+	private static final String BASE_PROFILE = "<profile xmlns='http://ns.taverna.org.uk/2012/component/profile'>"
+			+ "<id>http://example.org/base</id><name>Base</name>"
+			+ "<description>Empty</description><component /></profile>";
+	File dir;
+	URL profile;
+	Validator validator;
+	ValidationServer server;
+
+	@Before
+	public void setup() throws Exception {
+		dir = File.createTempFile("server", "");
+		dir.delete();
+		dir.mkdir();
+		File base = new File(dir, "base.xml");
+		write(base, BASE_PROFILE);
+		System.setProperty(Validator.BASE_PROFILE_PROPERTY, base.toURI()
+				.toString());
+		File p = new File(dir, "profile.xml");
+		write(p, new String(read(Examples.profile().openStream()), "UTF-8")
+				.replace(">" + ONTOLOGY_URI + "<", ">" + Examples.ontology()
+						+ "<"));
+		profile = p.toURI().toURL();
+		validator = new Validator();
+		server = new ValidationServer(validator, new InetSocketAddress(
+				"localhost", 0), 2, 4, 60000);
+		server.setAllowedProfiles(singletonList(dir.toURI().toString()));
+		server.start();
+	}
+
+	@After
+	public void teardown() {
+		server.stop(0);
+		System.clearProperty(Validator.BASE_PROFILE_PROPERTY);
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	private static void write(File file, String content) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			byte[] b = new byte[4096];
+			int n;
+			while ((n = in.read(b)) >= 0)
+				buffer.write(b, 0, n);
+			return buffer.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private URL url(String path) {
+		InetSocketAddress a = server.getAddress();
+		try {
+			return new URL("http", "localhost", a.getPort(), path);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private HttpURLConnection post(String query, byte[] body)
+			throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) url("/validate" + query)
+				.openConnection();
+		conn.setDoOutput(true);
+		conn.setRequestMethod("POST");
+		OutputStream out = conn.getOutputStream();
+		try {
+			out.write(body);
+		} finally {
+			out.close();
+		}
+		return conn;
+	}
+
+	@Test
+	public void sameAsReporter() throws Exception {
+		String expected = toJSON(
+				validator.validate(validator.readComponent(Examples
+						.component()), validator.compile(validator
+						.getProfiles(profile.toString())))).toString();
+		byte[] component = read(Examples.component().openStream());
+		String query = "?profile="
+				+ URLEncoder.encode(profile.toString(), "UTF-8");
+		for (int i = 0; i < 3; i++) {
+			HttpURLConnection conn = post(query, component);
+			assertEquals(200, conn.getResponseCode());
+			assertEquals(expected,
+					new String(read(conn.getInputStream()), "UTF-8"));
+		}
+
+		JSONObject health = new JSONObject(new String(read(url("/health")
+				.openStream()), "UTF-8"));
+		assertEquals("ok", health.getString("status"));
+		assertEquals(3, health.getLong("validated"));
+		assertEquals(1, health.getInt("profilesCached"));
+	}
+
+	/** The response status of validating the example against a profile. */
+	private int status(String profile) throws IOException {
+		return post("?profile=" + URLEncoder.encode(profile, "UTF-8"),
+				read(Examples.component().openStream())).getResponseCode();
+	}
+
+	@Test
+	public void onlyAllowedProfiles() throws Exception {
+		String inside = dir.toURI().toString();
+		assertEquals(403, status(new File("/etc/passwd").toURI().toString()));
+		assertEquals(403, status("http://localhost:1/profile.xml"));
+		assertEquals(403, status("profile.xml"));
+		assertEquals(403, status(inside + "%2e%2e/" + dir.getName()
+				+ "x/profile.xml"));
+		assertEquals(200, status(inside + "../" + dir.getName()
+				+ "/profile.xml"));
+
+		validator.getProfileRegistry().register("http://example.org/test",
+				profile.toString());
+		assertEquals(200, status("http://example.org/test"));
+	}
+
+	@Test
+	public void bundlesLoaded() throws Exception {
+		CompiledProfile compiled = validator.loadProfile(profile);
+		File bundle = new File(dir, "profile" + ProfileBundle.EXTENSION);
+		ProfileBundle.write(compiled, bundle);
+		byte[] component = read(Examples.component().openStream());
+		HttpURLConnection conn = post("?profile="
+				+ URLEncoder.encode(bundle.toURI().toString(), "UTF-8"),
+				component);
+		assertEquals(200, conn.getResponseCode());
+		assertEquals(toJSON(validator.validate(validator.readComponent(
+				Examples.component()), compiled)).toString(), new String(
+				read(conn.getInputStream()), "UTF-8"));
+	}
+
+	@Test
+	public void badRequests() throws Exception {
+		byte[] component = read(Examples.component().openStream());
+		assertEquals(400, post("", component).getResponseCode());
+		String query = "?profile="
+				+ URLEncoder.encode(profile.toString(), "UTF-8");
+		assertEquals(400,
+				post(query, "<not-t2flow".getBytes("UTF-8")).getResponseCode());
+		String missing = "?profile="
+				+ URLEncoder.encode(new File(dir, "missing.xml").toURI()
+						.toString(), "UTF-8");
+		assertEquals(400, post(missing, component).getResponseCode());
+		assertEquals(405, ((HttpURLConnection) url("/validate")
+				.openConnection()).getResponseCode());
+	}
+}
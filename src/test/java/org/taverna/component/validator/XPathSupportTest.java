@@ -0,0 +1,55 @@
+package org.taverna.component.validator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.taverna.component.validator.XPathSupport.CACHE_SIZE_PROPERTY;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+public class XPathSupportTest {
+	private static final String DOC = "<x:doc xmlns:x='urn:x'>"
+			+ "<x:item name='a'>1</x:item><x:item name='b'>2</x:item>"
+			+ "<x:item name='c'>3</x:item></x:doc>";
+
+	private static XPathSupport xpath() {
+		return new XPathSupport(getLogger(XPathSupportTest.class), "x", "urn:x");
+	}
+
+	@Test
+	public void templateCompiledOnce() throws Exception {
+		XPathSupport xs = xpath();
+		Element doc = xs.read(DOC);
+		assertEquals("1", xs.text(doc, "x:item[@name=$arg1]", "a"));
+		assertEquals("2", xs.text(doc, "x:item[@name=$arg1]", "b"));
+		assertEquals("3", xs.text(doc, "x:item[@name=$arg1]", "c"));
+		assertTrue(xs.isMatched(doc, "x:item[@name=$arg1] = $arg2", "b", 2));
+		assertFalse(xs.isMatched(doc, "x:item[@name=$arg1]", "d"));
+		assertEquals(2, xs.select(doc, "x:item[. > $arg1]", 1).size());
+		assertEquals(3, xs.getXPathCompileCount());
+		assertEquals(3, xs.getXPathHitCount());
+	}
+
+	@Test
+	public void leastRecentlyUsedDiscarded() throws Exception {
+		System.setProperty(CACHE_SIZE_PROPERTY, "2");
+		XPathSupport xs;
+		try {
+			xs = xpath();
+		} finally {
+			System.clearProperty(CACHE_SIZE_PROPERTY);
+		}
+		Element doc = xs.read(DOC);
+		xs.text(doc, "x:item[1]");
+		xs.text(doc, "x:item[2]");
+		xs.text(doc, "x:item[1]");
+		xs.text(doc, "x:item[3]");
+		assertEquals(1, xs.getXPathEvictionCount());
+		xs.text(doc, "x:item[1]");
+		assertEquals(3, xs.getXPathCompileCount());
+		xs.text(doc, "x:item[2]");
+		assertEquals(4, xs.getXPathCompileCount());
+	}
+}
@@ -0,0 +1,143 @@
+package org.taverna.component.validator.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes archives of test documents. Tar archives use the GNU extension, or
+ * pax extended headers, for names too long for a ustar header.
+ */
+public class Archives {
+	private static final int BLOCK = 512;
+
+	public static byte[] read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) >= 0)
+				out.write(buffer, 0, n);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	public static void zip(File file, Map<String, byte[]> entries)
+			throws IOException {
+		ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+		try {
+			for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+				zip.putNextEntry(new ZipEntry(e.getKey()));
+				if (e.getValue() != null)
+					zip.write(e.getValue());
+				zip.closeEntry();
+			}
+		} finally {
+			zip.close();
+		}
+	}
+
+	/**
+	 * Write a tar archive. Entries with <tt>null</tt> content are
+	 * directories.
+	 */
+	public static void tar(File file, Map<String, byte[]> entries,
+			boolean gzip) throws IOException {
+		tar(file, entries, gzip, false);
+	}
+
+	/**
+	 * Write a tar archive. Entries with <tt>null</tt> content are
+	 * directories.
+	 *
+	 * @param pax
+	 *            Whether long names go in pax extended headers, leaving only
+	 *            a truncated name in the ustar header, rather than in GNU
+	 *            long name entries.
+	 */
+	public static void tar(File file, Map<String, byte[]> entries,
+			boolean gzip, boolean pax) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		if (gzip)
+			out = new GZIPOutputStream(out);
+		try {
+			for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+				byte[] name = e.getKey().getBytes("UTF-8");
+				if (name.length > 100 && pax) {
+					byte[] record = paxRecord("path", e.getKey());
+					header(out, "PaxHeaders/entry", record.length, 'x');
+					out.write(record);
+					pad(out, record.length);
+				} else if (name.length > 100) {
+					header(out, "././@LongLink", name.length + 1, 'L');
+					out.write(name);
+					out.write(0);
+					pad(out, name.length + 1);
+				}
+				byte[] content = e.getValue();
+				if (content == null)
+					header(out, e.getKey(), 0, '5');
+				else {
+					header(out, e.getKey(), content.length, '0');
+					out.write(content);
+					pad(out, content.length);
+				}
+			}
+			out.write(new byte[2 * BLOCK]);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void header(OutputStream out, String name, long size,
+			char type) throws IOException {
+		byte[] h = new byte[BLOCK];
+		byte[] n = name.getBytes("UTF-8");
+		System.arraycopy(n, 0, h, 0, Math.min(n.length, 100));
+		put(h, 100, String.format("%07o", 0644));
+		put(h, 108, String.format("%07o", 0));
+		put(h, 116, String.format("%07o", 0));
+		put(h, 124, String.format("%011o", size));
+		put(h, 136, String.format("%011o", 0));
+		h[156] = (byte) type;
+		put(h, 257, "ustar");
+		put(h, 263, "00");
+		for (int i = 148; i < 156; i++)
+			h[i] = ' ';
+		int sum = 0;
+		for (byte b : h)
+			sum += b & 0xff;
+		put(h, 148, String.format("%06o", sum));
+		out.write(h);
+	}
+
+	/** A pax record, whose length counts the digits of the length too. */
+	private static byte[] paxRecord(String key, String value)
+			throws IOException {
+		int rest = (" " + key + "=" + value + "\n").getBytes("UTF-8").length;
+		int length = rest + Integer.toString(rest).length();
+		if (Integer.toString(length).length() > Integer.toString(rest)
+				.length())
+			length++;
+		return (length + " " + key + "=" + value + "\n").getBytes("UTF-8");
+	}
+
+	private static void put(byte[] header, int offset, String value) {
+		for (int i = 0; i < value.length(); i++)
+			header[offset + i] = (byte) value.charAt(i);
+	}
+
+	private static void pad(OutputStream out, long size) throws IOException {
+		if (size % BLOCK != 0)
+			out.write(new byte[(int) (BLOCK - size % BLOCK)]);
+	}
+}
@@ -0,0 +1,83 @@
+package org.taverna.component.validator.support;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+import org.taverna.component.validator.Assertion;
+
+import uk.org.taverna.ns._2012.component.profile.Ontology;
+import uk.org.taverna.ns._2012.component.profile.Profile;
+
+/**
+ * Access to the example component, profile and ontology used by the tests.
+ */
+public class Examples {
+	public static final String ONTOLOGY_URI = "http://example.org/test-ontology";
+
+	public static URL resource(String name) {
+		URL url = Examples.class.getResource("/example/" + name);
+		if (url == null)
+			throw new IllegalArgumentException("no such example: " + name);
+		return url;
+	}
+
+	public static URL component() {
+		return resource("component.t2flow");
+	}
+
+	public static URL profile() {
+		return resource("profile.xml");
+	}
+
+	public static URL ontology() {
+		return resource("ontology.owl");
+	}
+
+	/**
+	 * Load the example profile, redirecting its ontology to the given
+	 * location.
+	 */
+	public static Profile profile(String ontologyLocation)
+			throws JAXBException {
+		Profile p = (Profile) JAXBContext.newInstance(Profile.class)
+				.createUnmarshaller().unmarshal(profile());
+		for (Ontology o : p.getOntology())
+			if (o.getValue().equals(ONTOLOGY_URI))
+				o.setValue(ontologyLocation);
+		return p;
+	}
+
+	/**
+	 * The outcome of validating the example component against the example
+	 * profile, in the format produced by {@link #describe(List)}.
+	 */
+	public static List<String> expected() throws IOException {
+		List<String> result = new ArrayList<String>();
+		BufferedReader r = new BufferedReader(new InputStreamReader(resource(
+				"expected.txt").openStream(), "UTF-8"));
+		try {
+			String line;
+			while ((line = r.readLine()) != null)
+				if (!line.isEmpty())
+					result.add(line);
+		} finally {
+			r.close();
+		}
+		return result;
+	}
+
+	public static List<String> describe(List<Assertion> assertions) {
+		List<String> result = new ArrayList<String>();
+		for (Assertion a : assertions)
+			result.add((!a.satisfied ? "F " : a.warning ? "W " : "P ")
+					+ a.getText());
+		return result;
+	}
+}
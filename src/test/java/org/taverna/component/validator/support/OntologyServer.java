@@ -0,0 +1,146 @@
+package org.taverna.component.validator.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for an ontology host. Serves the example ontology with an
+ * ETag, honours conditional requests, compresses the response if asked to,
+ * and counts what it was asked for. Requests are handled concurrently, and
+ * any query part of the path is ignored.
+ */
+public class OntologyServer implements HttpHandler {
+	public static final String PATH = "/ontology.owl";
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final byte[] content;
+	private volatile String etag = "\"v1\"";
+	private volatile int status = 200;
+	private volatile long delay;
+	private final AtomicInteger failures = new AtomicInteger();
+	public final AtomicInteger requests = new AtomicInteger();
+	public final AtomicInteger gzipped = new AtomicInteger();
+	public final AtomicInteger fullResponses = new AtomicInteger();
+	public final AtomicInteger notModified = new AtomicInteger();
+
+	public OntologyServer() throws IOException {
+		content = read(Examples.ontology().openStream());
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext(PATH, this);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public String uri() {
+		return "http://localhost:" + server.getAddress().getPort() + PATH;
+	}
+
+	/** Change the document version, invalidating the ETag. */
+	public void setVersion(String version) {
+		etag = "\"" + version + "\"";
+	}
+
+	/** Make every request fail with the given status (or 200 for normal). */
+	public void setStatus(int status) {
+		this.status = status;
+	}
+
+	/** Make every response take at least this long (in milliseconds). */
+	public void setDelay(long delay) {
+		this.delay = delay;
+	}
+
+	/** Make the next few requests fail with status 503. */
+	public void failNext(int count) {
+		failures.set(count);
+	}
+
+	private boolean shouldFail() {
+		while (true) {
+			int left = failures.get();
+			if (left <= 0)
+				return false;
+			if (failures.compareAndSet(left, left - 1))
+				return true;
+		}
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		try {
+			if (delay > 0)
+				Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			if (status != 200) {
+				exchange.sendResponseHeaders(status, -1);
+				return;
+			}
+			if (shouldFail()) {
+				exchange.sendResponseHeaders(503, -1);
+				return;
+			}
+			exchange.getResponseHeaders().set("ETag", etag);
+			if (etag.equals(exchange.getRequestHeaders().getFirst(
+					"If-None-Match"))) {
+				notModified.incrementAndGet();
+				exchange.sendResponseHeaders(304, -1);
+				return;
+			}
+			fullResponses.incrementAndGet();
+			exchange.getResponseHeaders().set("Content-Type",
+					"application/rdf+xml");
+			String encoding = exchange.getRequestHeaders().getFirst(
+					"Accept-Encoding");
+			if (encoding != null && encoding.contains("gzip")) {
+				gzipped.incrementAndGet();
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream out = new GZIPOutputStream(
+						exchange.getResponseBody());
+				out.write(content);
+				out.close();
+				return;
+			}
+			exchange.sendResponseHeaders(200, content.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(content);
+			out.close();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) >= 0)
+				out.write(buffer, 0, n);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}